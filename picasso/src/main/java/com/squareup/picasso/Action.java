@@ -38,12 +38,16 @@ abstract class Action<T> {
   final int errorResId;
   final Drawable errorDrawable;
   final String key;
+  /** Groups actions which are paused and resumed together, or {@code null}. */
+  final Object tag;
+  /** The {@link System#nanoTime()} at which the request is given up, or 0 for never. */
+  final long deadline;
 
   boolean willReplay;
-  boolean cancelled;
+  volatile boolean cancelled;
 
   Action(Picasso picasso, T target, Request request, boolean skipCache, boolean noFade,
-      int errorResId, Drawable errorDrawable, String key) {
+      int errorResId, Drawable errorDrawable, String key, Object tag, long deadline) {
     this.picasso = picasso;
     this.request = request;
     this.target = new RequestWeakReference<T>(this, target, picasso.referenceQueue);
@@ -52,12 +56,34 @@ abstract class Action<T> {
     this.errorResId = errorResId;
     this.errorDrawable = errorDrawable;
     this.key = key;
+    this.tag = tag;
+    this.deadline = deadline;
   }
 
   abstract void complete(Bitmap result, Picasso.LoadedFrom from);
 
   abstract void error();
 
+  /** Deliver the error of a request whose deadline passed before it completed. */
+  void timedOut() {
+    T target = getTarget();
+    if (target instanceof TimeoutListener) {
+      ((TimeoutListener) target).onTimeout();
+    }
+    error();
+  }
+
+  /**
+   * Keep {@code result} out of the bitmap pool for good. Used for targets which may hold on to the
+   * bitmap without Picasso knowing when they are done with it.
+   */
+  void retain(Bitmap result) {
+    BitmapPool pool = picasso.bitmapPool;
+    if (pool != null) {
+      pool.acquire(result);
+    }
+  }
+
   void cancel() {
     cancelled = true;
   }
@@ -74,6 +100,14 @@ abstract class Action<T> {
     return key;
   }
 
+  Object getTag() {
+    return tag;
+  }
+
+  long getDeadline() {
+    return deadline;
+  }
+
   boolean isCancelled() {
     return cancelled;
   }
@@ -0,0 +1,103 @@
+/*
+ * Copyright (C) 2014 Square, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.squareup.picasso;
+
+import android.graphics.Bitmap;
+import java.lang.ref.ReferenceQueue;
+import java.lang.ref.WeakReference;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Weakly tracks bitmaps which have been delivered to targets. As long as a target still holds on
+ * to a bitmap it can be found here by key, even after the memory cache evicted it.
+ */
+final class ActiveResources {
+  final Map<String, KeyedReference> references = new HashMap<String, KeyedReference>();
+  final KeyIndex keyIndex = new KeyIndex();
+  private final ReferenceQueue<Bitmap> queue = new ReferenceQueue<Bitmap>();
+
+  /** Track {@code bitmap} as being in use under {@code key}. */
+  synchronized void put(String key, Bitmap bitmap) {
+    purge();
+    KeyedReference existing = references.get(key);
+    if (existing != null && existing.get() == bitmap) {
+      return;
+    }
+    references.put(key, new KeyedReference(key, bitmap, queue));
+    keyIndex.add(key);
+  }
+
+  /** Returns the bitmap in use for {@code key}, or {@code null} if none is still reachable. */
+  synchronized Bitmap get(String key) {
+    KeyedReference reference = references.get(key);
+    if (reference == null) {
+      return null;
+    }
+    Bitmap bitmap = reference.get();
+    if (bitmap == null || bitmap.isRecycled()) {
+      references.remove(key);
+      keyIndex.remove(key);
+      return null;
+    }
+    return bitmap;
+  }
+
+  /** Stop tracking every bitmap of the source {@code uri}. */
+  synchronized void removeKeyUri(String uri) {
+    remove(keyIndex.keysFor(uri));
+  }
+
+  /** Stop tracking every bitmap whose source starts with {@code prefix}. */
+  synchronized void removeKeyUriPrefix(String prefix) {
+    remove(keyIndex.keysWithPrefix(prefix));
+  }
+
+  private void remove(List<String> keys) {
+    for (int i = 0, n = keys.size(); i < n; i++) {
+      references.remove(keys.get(i));
+      keyIndex.remove(keys.get(i));
+    }
+  }
+
+  synchronized void clear() {
+    references.clear();
+    keyIndex.clear();
+    purge();
+  }
+
+  /** Drop mappings whose bitmap has been garbage collected. */
+  private void purge() {
+    KeyedReference reference;
+    while ((reference = (KeyedReference) queue.poll()) != null) {
+      // Only remove the mapping if it was not replaced in the meantime.
+      if (references.get(reference.key) == reference) {
+        references.remove(reference.key);
+        keyIndex.remove(reference.key);
+      }
+    }
+  }
+
+  static final class KeyedReference extends WeakReference<Bitmap> {
+    final String key;
+
+    KeyedReference(String key, Bitmap referent, ReferenceQueue<Bitmap> queue) {
+      super(referent, queue);
+      this.key = key;
+    }
+  }
+}
@@ -33,7 +33,7 @@ class AssetBitmapHunter extends BitmapHunter {
   }
 
   Bitmap decodeAsset(String filePath) throws IOException {
-    final BitmapFactory.Options options = createBitmapOptions(data);
+    final BitmapFactory.Options options = createDecodeOptions(data);
     if (requiresInSampleSize(options)) {
       InputStream is = null;
       try {
@@ -42,7 +42,7 @@ class AssetBitmapHunter extends BitmapHunter {
       } finally {
         Utils.closeQuietly(is);
       }
-      calculateInSampleSize(data.targetWidth, data.targetHeight, options);
+      prepareDecodeOptions(data, options);
     }
     InputStream is = assetManager.open(filePath);
     try {
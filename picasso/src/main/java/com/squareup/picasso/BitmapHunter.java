@@ -15,12 +15,14 @@
  */
 package com.squareup.picasso;
 
+import android.annotation.TargetApi;
 import android.content.Context;
 import android.graphics.Bitmap;
 import android.graphics.BitmapFactory;
 import android.graphics.Matrix;
 import android.net.NetworkInfo;
 import android.net.Uri;
+import android.os.SystemClock;
 import android.provider.MediaStore;
 import java.io.IOException;
 import java.io.PrintWriter;
@@ -28,16 +30,22 @@ import java.io.StringWriter;
 import java.util.ArrayList;
 import java.util.List;
 import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import static android.content.ContentResolver.SCHEME_ANDROID_RESOURCE;
 import static android.content.ContentResolver.SCHEME_CONTENT;
 import static android.content.ContentResolver.SCHEME_FILE;
+import static android.os.Build.VERSION.SDK_INT;
+import static android.os.Build.VERSION_CODES.HONEYCOMB;
+import static android.os.Build.VERSION_CODES.KITKAT;
 import static android.provider.ContactsContract.Contacts;
 import static com.squareup.picasso.AssetBitmapHunter.ANDROID_ASSET;
 import static com.squareup.picasso.Picasso.LoadedFrom.MEMORY;
 import static com.squareup.picasso.Utils.OWNER_HUNTER;
+import static com.squareup.picasso.Utils.VERB_CANCELED;
 import static com.squareup.picasso.Utils.VERB_DECODED;
 import static com.squareup.picasso.Utils.VERB_EXECUTING;
+import static com.squareup.picasso.Utils.VERB_FETCHED;
 import static com.squareup.picasso.Utils.VERB_JOINED;
 import static com.squareup.picasso.Utils.VERB_REMOVED;
 import static com.squareup.picasso.Utils.VERB_TRANSFORMED;
@@ -47,11 +55,14 @@ import static com.squareup.picasso.Utils.log;
 abstract class BitmapHunter implements Runnable {
 
   /**
-   * Global lock for bitmap decoding to ensure that we are only are decoding one at a time. Since
-   * this will only ever happen in background threads we help avoid excessive memory thrashing as
-   * well as potential OOMs. Shamelessly stolen from Volley.
+   * Global budget for the bitmaps created by decodes and transformations. Each one reserves its
+   * estimated output so that small images run in parallel, while large ones wait for memory
+   * instead of risking an OOM. Decodes reserve once their bounds are known, which is only the case
+   * for resized requests; others decode without waiting.
    */
-  private static final Object DECODE_LOCK = new Object();
+  static final DecodeBudget DECODE_BUDGET = DecodeBudget.forHeap();
+
+  private static final AtomicInteger SEQUENCE_GENERATOR = new AtomicInteger();
 
   private static final ThreadLocal<StringBuilder> NAME_BUILDER = new ThreadLocal<StringBuilder>() {
     @Override protected StringBuilder initialValue() {
@@ -62,28 +73,48 @@ abstract class BitmapHunter implements Runnable {
   final Picasso picasso;
   final Dispatcher dispatcher;
   final Cache cache;
+  final BitmapPool bitmapPool;
   final Stats stats;
   final String key;
   final Request data;
   final boolean skipMemoryCache;
+  final int sequence;
 
   Action action;
   List<Action> actions;
+  /** Actions for other variants of the same URI which wait to share the fetched source. */
+  List<Action> followers;
   Bitmap result;
-  Future<?> future;
+  /** Set by the dispatcher once queued. Read by checkpoints on the worker thread. */
+  volatile Future<?> future;
   Picasso.LoadedFrom loadedFrom;
+  long fetchDuration;
+  long huntDuration;
   Exception exception;
   int exifRotation; // Determined during decoding of original resource.
+  boolean reusedBitmap;
+  /** Bytes reserved from {@link #DECODE_BUDGET} for the decode in progress. */
+  private long decodeReservation;
+  boolean bitmapReuseDisabled;
+  volatile Picasso.Priority priority;
 
   BitmapHunter(Picasso picasso, Dispatcher dispatcher, Cache cache, Stats stats, Action action) {
     this.picasso = picasso;
     this.dispatcher = dispatcher;
     this.cache = cache;
+    this.bitmapPool = picasso.bitmapPool;
     this.stats = stats;
     this.key = action.getKey();
     this.data = action.getRequest();
     this.skipMemoryCache = action.skipCache;
     this.action = action;
+    this.sequence = nextSequence();
+    this.priority = data.priority;
+  }
+
+  /** Returns the next number in the order in which hunters and other queued tasks were created. */
+  static int nextSequence() {
+    return SEQUENCE_GENERATOR.incrementAndGet();
   }
 
   protected void setExifRotation(int exifRotation) {
@@ -98,13 +129,31 @@ abstract class BitmapHunter implements Runnable {
         log(OWNER_HUNTER, VERB_EXECUTING, getLogIdsForHunter(this));
       }
 
+      long start = SystemClock.uptimeMillis();
+      if (needsFetch()) {
+        fetch();
+        fetchDuration = SystemClock.uptimeMillis() - start;
+        if (picasso.loggingEnabled) {
+          log(OWNER_HUNTER, VERB_FETCHED, getLogIdsForHunter(this));
+        }
+        dispatcher.dispatchFetched(this);
+        return;
+      }
+
       result = hunt();
+      huntDuration = fetchDuration + SystemClock.uptimeMillis() - start;
 
       if (result == null) {
         dispatcher.dispatchFailed(this);
       } else {
         dispatcher.dispatchComplete(this);
       }
+    } catch (CancelledException e) {
+      // The dispatcher has already forgotten this hunter, so there is nobody to report to.
+      stats.dispatchHunterAbandoned(e.avoidedBytes);
+      if (picasso.loggingEnabled) {
+        log(OWNER_HUNTER, VERB_CANCELED, getLogIdsForHunter(this), "while running");
+      }
     } catch (Downloader.ResponseException e) {
       exception = e;
       dispatcher.dispatchFailed(this);
@@ -126,12 +175,41 @@ abstract class BitmapHunter implements Runnable {
 
   abstract Bitmap decode(Request data) throws IOException;
 
+  /**
+   * Returns true if the next run of this hunter only reads the source into memory with {@link
+   * #fetch()}, so that it can be queued on the I/O pool and decoded on the CPU pool afterwards.
+   */
+  boolean needsFetch() {
+    return false;
+  }
+
+  /** Read the source so that {@link #decode(Request)} does not have to wait for I/O. */
+  void fetch() throws IOException {
+  }
+
+  /**
+   * Take over the source which {@code source}, a hunter for another variant of the same URI, has
+   * fetched, so that this hunter can skip its own fetch.
+   */
+  void shareFetched(BitmapHunter source) {
+  }
+
+  /** Let go of the fetched source of a hunter which will not be decoded. */
+  void releaseFetched() {
+  }
+
+  /**
+   * Load the bitmap for this request. When a bitmap pool is used, an owner is recorded for the
+   * caller, which has to release the result once it has been delivered. This keeps the result out
+   * of the pool while it waits for delivery, even if the memory cache evicts it.
+   */
   Bitmap hunt() throws IOException {
     Bitmap bitmap;
 
     if (!skipMemoryCache) {
       bitmap = cache.get(key);
-      if (bitmap != null) {
+      // The cache may have evicted the bitmap into the pool since it returned it.
+      if (bitmap != null && (bitmapPool == null || bitmapPool.tryAcquire(bitmap))) {
         stats.dispatchCacheHit();
         loadedFrom = MEMORY;
         if (picasso.loggingEnabled) {
@@ -139,9 +217,38 @@ abstract class BitmapHunter implements Runnable {
         }
         return bitmap;
       }
+
+      bitmap = scaleCachedVariant();
+      if (bitmap != null) {
+        if (bitmapPool != null) {
+          bitmapPool.acquire(bitmap);
+        }
+        stats.dispatchCacheHit();
+        stats.dispatchBitmapTransformed(bitmap);
+        loadedFrom = MEMORY;
+        if (picasso.loggingEnabled) {
+          log(OWNER_HUNTER, VERB_TRANSFORMED, data.logId(), "from cached variant");
+        }
+        return bitmap;
+      }
     }
 
-    bitmap = decode(data);
+    try {
+      try {
+        bitmap = decode(data);
+      } catch (IllegalArgumentException e) {
+        if (!reusedBitmap) {
+          throw e;
+        }
+        // The decoder refused the pooled bitmap. Decode once more into a fresh allocation.
+        reusedBitmap = false;
+        bitmapReuseDisabled = true;
+        bitmap = decode(data);
+      }
+    } finally {
+      // Given back before transforming, which reserves on its own, so no hunter holds two.
+      releaseDecode();
+    }
 
     if (bitmap != null) {
       if (picasso.loggingEnabled) {
@@ -149,9 +256,13 @@ abstract class BitmapHunter implements Runnable {
       }
       stats.dispatchBitmapDecoded(bitmap);
       if (data.needsTransformation() || exifRotation != 0) {
-        synchronized (DECODE_LOCK) {
+        long reservation = estimateTransformBytes(data, bitmap, exifRotation);
+        // Do not wait for the budget on behalf of a result nobody wants anymore.
+        checkCancelled(bitmap, reservation);
+        DECODE_BUDGET.acquire(reservation);
+        try {
           if (data.needsMatrixTransform() || exifRotation != 0) {
-            bitmap = transformResult(data, bitmap, exifRotation);
+            bitmap = transformResult(data, bitmap, exifRotation, bitmapPool);
             if (picasso.loggingEnabled) {
               log(OWNER_HUNTER, VERB_TRANSFORMED, data.logId());
             }
@@ -162,6 +273,8 @@ abstract class BitmapHunter implements Runnable {
               log(OWNER_HUNTER, VERB_TRANSFORMED, data.logId(), "from custom transformations");
             }
           }
+        } finally {
+          DECODE_BUDGET.release(reservation);
         }
         if (bitmap != null) {
           stats.dispatchBitmapTransformed(bitmap);
@@ -169,13 +282,54 @@ abstract class BitmapHunter implements Runnable {
       }
     }
 
+    if (bitmap != null && bitmapPool != null) {
+      bitmapPool.acquire(bitmap);
+    }
     return bitmap;
   }
 
+  /**
+   * Returns this request scaled down from a larger variant of the same source which is still in
+   * the memory cache, or {@code null} if there is none.
+   */
+  Bitmap scaleCachedVariant() {
+    VariantIndex variants = dispatcher.variants;
+    if (variants == null || !VariantIndex.canScaleTo(data)) {
+      return null;
+    }
+    List<String> candidates = variants.candidates(data);
+    for (int i = 0, n = candidates.size(); i < n; i++) {
+      String candidateKey = candidates.get(i);
+      Bitmap source = cache.get(candidateKey);
+      if (source == null || source.isRecycled()) {
+        variants.remove(data.uri.toString(), candidateKey);
+        continue;
+      }
+      // Keep the cache from handing the source to the pool while it is being read. If it went
+      // there already since the lookup, another decode may be writing into it.
+      if (bitmapPool != null && !bitmapPool.tryAcquire(source)) {
+        continue;
+      }
+      long reservation = estimateTransformBytes(data, source, 0);
+      DECODE_BUDGET.acquire(reservation);
+      try {
+        return createTransformedBitmap(data, source, 0);
+      } finally {
+        DECODE_BUDGET.release(reservation);
+        if (bitmapPool != null) {
+          bitmapPool.release(source);
+        }
+      }
+    }
+    return null;
+  }
+
   void attach(Action action) {
     boolean loggingEnabled = picasso.loggingEnabled;
     Request request = action.request;
 
+    raisePriority(action.getRequest().priority);
+
     if (this.action == null) {
       this.action = action;
       if (loggingEnabled) {
@@ -199,11 +353,49 @@ abstract class BitmapHunter implements Runnable {
     }
   }
 
+  /**
+   * Let {@code action}, which is for another variant of the same URI, wait until this hunter has
+   * fetched the source and then share it.
+   */
+  void follow(Action action) {
+    raisePriority(action.getRequest().priority);
+    if (followers == null) {
+      followers = new ArrayList<Action>(3);
+    }
+    followers.add(action);
+  }
+
+  /** Returns the actions waiting for the source and stops tracking them. */
+  List<Action> takeFollowers() {
+    List<Action> taken = followers;
+    followers = null;
+    return taken;
+  }
+
+  private void raisePriority(Picasso.Priority newPriority) {
+    if (newPriority.ordinal() > priority.ordinal()) {
+      priority = newPriority;
+    }
+  }
+
+  /** Returns true if {@code action} is attached to or following this hunter. */
+  boolean holds(Action action) {
+    return this.action == action
+        || (actions != null && actions.contains(action))
+        || (followers != null && followers.contains(action));
+  }
+
   void detach(Action action) {
     if (this.action == action) {
       this.action = null;
-    } else if (actions != null) {
-      actions.remove(action);
+    } else if (actions == null || !actions.remove(action)) {
+      if (followers != null) {
+        followers.remove(action);
+      }
+    }
+
+    if (action.getRequest().priority == priority) {
+      priority = computeNewPriority();
     }
 
     if (picasso.loggingEnabled) {
@@ -211,9 +403,44 @@ abstract class BitmapHunter implements Runnable {
     }
   }
 
+  /**
+   * Returns the highest priority of the attached and following actions, or the current one if
+   * there are none.
+   */
+  private Picasso.Priority computeNewPriority() {
+    boolean hasAction = this.action != null;
+    boolean hasMultiple = actions != null && !actions.isEmpty();
+    boolean hasFollowers = followers != null && !followers.isEmpty();
+    if (!hasAction && !hasMultiple && !hasFollowers) {
+      return priority;
+    }
+    Picasso.Priority newPriority =
+        hasAction ? this.action.getRequest().priority : Picasso.Priority.LOW;
+    newPriority = highestPriority(actions, newPriority);
+    return highestPriority(followers, newPriority);
+  }
+
+  private static Picasso.Priority highestPriority(List<Action> actions,
+      Picasso.Priority priority) {
+    if (actions != null) {
+      for (int i = 0, n = actions.size(); i < n; i++) {
+        Picasso.Priority actionPriority = actions.get(i).getRequest().priority;
+        if (actionPriority.ordinal() > priority.ordinal()) {
+          priority = actionPriority;
+        }
+      }
+    }
+    return priority;
+  }
+
+  /**
+   * Cancel this hunter if no action waits for it anymore. A queued hunter never runs, and a
+   * running one stops at its next {@link #checkCancelled(long) checkpoint}.
+   */
   boolean cancel() {
     return action == null
         && (actions == null || actions.isEmpty())
+        && (followers == null || followers.isEmpty())
         && future != null
         && future.cancel(false);
   }
@@ -258,14 +485,27 @@ abstract class BitmapHunter implements Runnable {
     return actions;
   }
 
+  List<Action> getFollowers() {
+    return followers;
+  }
+
   Exception getException() {
     return exception;
   }
 
+  Picasso.Priority getPriority() {
+    return priority;
+  }
+
   Picasso.LoadedFrom getLoadedFrom() {
     return loadedFrom;
   }
 
+  /** Returns the number of milliseconds it took to load the result. */
+  long getHuntDuration() {
+    return huntDuration;
+  }
+
   static void updateThreadName(Request data) {
     String name = data.getName();
 
@@ -322,6 +562,78 @@ abstract class BitmapHunter implements Runnable {
     return options;
   }
 
+  /**
+   * Create {@link android.graphics.BitmapFactory.Options} for decoding {@code data}. Unlike {@link
+   * #createBitmapOptions(Request)} this always requests a bounds pass when a {@link BitmapPool} is
+   * available so that the final decode can target a pooled bitmap.
+   */
+  BitmapFactory.Options createDecodeOptions(Request data) {
+    BitmapFactory.Options options = createBitmapOptions(data);
+    if (canReuseBitmaps()) {
+      if (options == null) {
+        options = new BitmapFactory.Options();
+      }
+      options.inJustDecodeBounds = true;
+      BitmapOptionsHoneycomb.setMutable(options);
+    }
+    return options;
+  }
+
+  /**
+   * Finish the options after a bounds pass: compute the sample size and, if possible, point the
+   * decode at a pooled bitmap of the expected size. Otherwise the expected size is reserved from
+   * {@link #DECODE_BUDGET} until {@link #decode(Request)} returns to {@link #hunt()}.
+   */
+  void prepareDecodeOptions(Request data, BitmapFactory.Options options) throws IOException {
+    calculateInSampleSize(data.targetWidth, data.targetHeight, options);
+    long bytes = estimateDecodeBytes(options);
+    // The bounds pass is cheap. Stop before the full decode if the hunter was cancelled meanwhile.
+    checkCancelled(bytes);
+    releaseDecode();
+    if (!reuseBitmap(options) && bytes > 0) {
+      // Decoding into a new bitmap waits for the budget like a transformation does.
+      DECODE_BUDGET.acquire(bytes);
+      decodeReservation = bytes;
+    }
+  }
+
+  private void releaseDecode() {
+    if (decodeReservation != 0) {
+      DECODE_BUDGET.release(decodeReservation);
+      decodeReservation = 0;
+    }
+  }
+
+  /** Let the decode described by {@code options} write into a pooled bitmap if one fits. */
+  private boolean reuseBitmap(BitmapFactory.Options options) {
+    if (!canReuseBitmaps() || options.outWidth <= 0 || options.outHeight <= 0) {
+      return false;
+    }
+    // Decoders round the sample size down to a power of two.
+    int sampleSize = Integer.highestOneBit(Math.max(1, options.inSampleSize));
+    if (SDK_INT < KITKAT) {
+      // Before KitKat only same-sized JPEG and PNG images can be decoded into an existing bitmap.
+      boolean supportedType = "image/jpeg".equals(options.outMimeType)
+          || "image/png".equals(options.outMimeType);
+      if (sampleSize != 1 || !supportedType) {
+        return false;
+      }
+    }
+    int width = (options.outWidth + sampleSize - 1) / sampleSize;
+    int height = (options.outHeight + sampleSize - 1) / sampleSize;
+    Bitmap reusable = bitmapPool.get(width, height, options.inPreferredConfig);
+    if (reusable == null) {
+      return false;
+    }
+    BitmapOptionsHoneycomb.setInBitmap(options, reusable);
+    reusedBitmap = true;
+    return true;
+  }
+
+  private boolean canReuseBitmaps() {
+    return bitmapPool != null && !bitmapReuseDisabled && SDK_INT >= HONEYCOMB;
+  }
+
   static boolean requiresInSampleSize(BitmapFactory.Options options) {
     return options != null && options.inJustDecodeBounds;
   }
@@ -333,7 +645,8 @@ abstract class BitmapHunter implements Runnable {
   static void calculateInSampleSize(int reqWidth, int reqHeight, int width, int height,
       BitmapFactory.Options options) {
     int sampleSize = 1;
-    if (height > reqHeight || width > reqWidth) {
+    boolean hasTarget = reqWidth > 0 && reqHeight > 0;
+    if (hasTarget && (height > reqHeight || width > reqWidth)) {
       final int heightRatio = Math.round((float) height / (float) reqHeight);
       final int widthRatio = Math.round((float) width / (float) reqWidth);
       sampleSize = heightRatio < widthRatio ? heightRatio : widthRatio;
@@ -342,8 +655,15 @@ abstract class BitmapHunter implements Runnable {
     options.inJustDecodeBounds = false;
   }
 
-  static Bitmap applyCustomTransformations(List<Transformation> transformations, Bitmap result) {
+  /**
+   * Apply {@code transformations} in order. Once this hunter is cancelled the remaining ones are
+   * skipped.
+   */
+  Bitmap applyCustomTransformations(List<Transformation> transformations, Bitmap result)
+      throws CancelledException {
     for (int i = 0, count = transformations.size(); i < count; i++) {
+      // Each remaining transformation is assumed to create a bitmap as large as the current one.
+      checkCancelled(result, (long) Utils.getBitmapBytes(result) * (count - i));
       final Transformation transformation = transformations.get(i);
       Bitmap newResult = transformation.transform(result);
 
@@ -393,7 +713,56 @@ abstract class BitmapHunter implements Runnable {
     return result;
   }
 
+  /**
+   * Returns an estimate of the bytes allocated while transforming {@code source} for {@code data}:
+   * one bitmap of the target size for the resize, crop and rotation, and one more of that size if
+   * there are custom transformations.
+   */
+  static long estimateTransformBytes(Request data, Bitmap source, int exifRotation) {
+    long outputBytes = Utils.getBitmapBytes(source);
+    long sourcePixels = (long) source.getWidth() * source.getHeight();
+    if (data.hasSize() && sourcePixels > 0) {
+      outputBytes = outputBytes * data.targetWidth * data.targetHeight / sourcePixels;
+    }
+    if (data.rotationDegrees % 90 != 0) {
+      // The bounds of a bitmap rotated by an odd angle cover up to twice its area.
+      outputBytes *= 2;
+    }
+    long total = 0;
+    if (data.needsMatrixTransform() || exifRotation != 0) {
+      total += outputBytes;
+    }
+    if (data.hasCustomTransformations()) {
+      total += outputBytes;
+    }
+    return total;
+  }
+
   static Bitmap transformResult(Request data, Bitmap result, int exifRotation) {
+    return transformResult(data, result, exifRotation, null);
+  }
+
+  /**
+   * Apply the resize, crop and rotation of {@code data} to {@code result}. If a new bitmap had to
+   * be created the intermediate is handed to {@code pool} when possible, otherwise recycled.
+   */
+  static Bitmap transformResult(Request data, Bitmap result, int exifRotation, BitmapPool pool) {
+    Bitmap newResult = createTransformedBitmap(data, result, exifRotation);
+    if (newResult != result) {
+      if (pool == null || !pool.put(result)) {
+        result.recycle();
+      }
+      result = newResult;
+    }
+
+    return result;
+  }
+
+  /**
+   * Returns {@code result} with the resize, crop and rotation of {@code data} applied. Unlike
+   * {@link #transformResult} the input is left untouched, so it may be shared.
+   */
+  static Bitmap createTransformedBitmap(Request data, Bitmap result, int exifRotation) {
     int inWidth = result.getWidth();
     int inHeight = result.getHeight();
 
@@ -452,13 +821,57 @@ abstract class BitmapHunter implements Runnable {
       matrix.preRotate(exifRotation);
     }
 
-    Bitmap newResult =
-        Bitmap.createBitmap(result, drawX, drawY, drawWidth, drawHeight, matrix, true);
-    if (newResult != result) {
-      result.recycle();
-      result = newResult;
+    return Bitmap.createBitmap(result, drawX, drawY, drawWidth, drawHeight, matrix, true);
+  }
+
+  /**
+   * Stop with a {@link CancelledException} if this hunter was cancelled since it was queued.
+   * {@code avoidedBytes} estimates the reading and allocation that stopping here spares.
+   */
+  void checkCancelled(long avoidedBytes) throws CancelledException {
+    if (isCancelled()) {
+      throw new CancelledException(avoidedBytes);
     }
+  }
 
-    return result;
+  /** Like {@link #checkCancelled(long)}, but hands the unwanted {@code bitmap} back first. */
+  void checkCancelled(Bitmap bitmap, long avoidedBytes) throws CancelledException {
+    if (isCancelled()) {
+      if (bitmapPool == null || !bitmapPool.put(bitmap)) {
+        bitmap.recycle();
+      }
+      throw new CancelledException(avoidedBytes);
+    }
+  }
+
+  /** Returns the approximate size of the bitmap the full decode pass would allocate. */
+  static long estimateDecodeBytes(BitmapFactory.Options options) {
+    int sampleSize = Math.max(1, options.inSampleSize);
+    long pixels = (long) (options.outWidth / sampleSize) * (options.outHeight / sampleSize);
+    return options.inPreferredConfig == Bitmap.Config.RGB_565 ? pixels * 2 : pixels * 4;
+  }
+
+  /**
+   * Thrown at a checkpoint of a hunter which was cancelled while running, to stop work whose
+   * result nobody waits for anymore.
+   */
+  static final class CancelledException extends IOException {
+    final long avoidedBytes;
+
+    CancelledException(long avoidedBytes) {
+      super("Hunter cancelled while running.");
+      this.avoidedBytes = avoidedBytes;
+    }
+  }
+
+  @TargetApi(HONEYCOMB)
+  private static class BitmapOptionsHoneycomb {
+    static void setMutable(BitmapFactory.Options options) {
+      options.inMutable = true;
+    }
+
+    static void setInBitmap(BitmapFactory.Options options, Bitmap bitmap) {
+      options.inBitmap = bitmap;
+    }
   }
 }
@@ -0,0 +1,271 @@
+/*
+ * Copyright (C) 2014 Square, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.squareup.picasso;
+
+import android.graphics.Bitmap;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.WeakHashMap;
+
+import static android.graphics.Bitmap.Config.ARGB_8888;
+
+/**
+ * A pool of mutable bitmaps, keyed by size and config, which can be reused as the destination of
+ * a decode through {@link android.graphics.BitmapFactory.Options#inBitmap}.
+ * <p>
+ * The pool also counts the owners of each bitmap it has been told about through {@link
+ * #acquire(Bitmap)}: the memory cache, displaying drawables and targets. Once the last owner calls
+ * {@link #release(Bitmap)} the bitmap is put into the pool. The pool has its own byte budget and
+ * groups of bitmaps are evicted in least-recently used order once it is exceeded.
+ * <p>
+ * Owners are counted without keeping their bitmaps reachable. Some owners never release, such as
+ * targets or drawables whose view went away. Their bitmaps are collected by the garbage collector
+ * instead of being pooled.
+ */
+public class BitmapPool {
+  final LinkedHashMap<Key, List<Bitmap>> groups;
+  final Map<Bitmap, Integer> references;
+  /** Bitmaps given to the pool, whether still held or handed out, which nobody acquired since. */
+  final Map<Bitmap, Boolean> unowned;
+  private final int maxSize;
+  private final Key lookup = new Key();
+
+  private int size;
+  private int putCount;
+  private int evictionCount;
+  private int hitCount;
+  private int missCount;
+
+  /** Create a pool with a given maximum size in bytes. */
+  public BitmapPool(int maxSize) {
+    if (maxSize <= 0) {
+      throw new IllegalArgumentException("Max size must be positive.");
+    }
+    this.maxSize = maxSize;
+    this.groups = new LinkedHashMap<Key, List<Bitmap>>(0, 0.75f, true);
+    // Bitmap keeps the identity equals() and hashCode() of Object.
+    this.references = new WeakHashMap<Bitmap, Integer>();
+    this.unowned = new WeakHashMap<Bitmap, Boolean>();
+  }
+
+  /** Record a new owner of {@code bitmap}. An owned bitmap is never accepted by the pool. */
+  public void acquire(Bitmap bitmap) {
+    if (bitmap == null) {
+      throw new NullPointerException("bitmap == null");
+    }
+    synchronized (this) {
+      unowned.remove(bitmap);
+      Integer count = references.get(bitmap);
+      references.put(bitmap, count == null ? 1 : count + 1);
+    }
+  }
+
+  /**
+   * Record a new owner of {@code bitmap}, which was found somewhere it may have been released from
+   * meanwhile, such as the memory cache. Returns false without recording anything if the bitmap has
+   * gone to the pool since, in which case it may already be the destination of another decode.
+   */
+  public boolean tryAcquire(Bitmap bitmap) {
+    if (bitmap == null) {
+      throw new NullPointerException("bitmap == null");
+    }
+    synchronized (this) {
+      if (unowned.containsKey(bitmap)) {
+        return false;
+      }
+      Integer count = references.get(bitmap);
+      references.put(bitmap, count == null ? 1 : count + 1);
+      return true;
+    }
+  }
+
+  /**
+   * Remove an owner of {@code bitmap}. When the last owner is removed the bitmap is put into the
+   * pool. Releasing a bitmap which was never acquired does nothing.
+   */
+  public void release(Bitmap bitmap) {
+    if (bitmap == null) {
+      throw new NullPointerException("bitmap == null");
+    }
+    synchronized (this) {
+      Integer count = references.get(bitmap);
+      if (count == null) {
+        return;
+      }
+      if (count > 1) {
+        references.put(bitmap, count - 1);
+        return;
+      }
+      references.remove(bitmap);
+    }
+    put(bitmap);
+  }
+
+  /** Returns true if {@code bitmap} has at least one owner. */
+  synchronized boolean isAcquired(Bitmap bitmap) {
+    return references.containsKey(bitmap);
+  }
+
+  /**
+   * Retrieve a bitmap with exactly the specified dimensions and config, or {@code null} if the
+   * pool does not have one. The returned bitmap is no longer owned by the pool.
+   */
+  public Bitmap get(int width, int height, Bitmap.Config config) {
+    if (config == null) {
+      config = ARGB_8888;
+    }
+    synchronized (this) {
+      List<Bitmap> group = groups.get(lookup.set(width, height, config));
+      if (group != null && !group.isEmpty()) {
+        Bitmap bitmap = group.remove(group.size() - 1);
+        if (group.isEmpty()) {
+          groups.remove(lookup);
+        }
+        size -= Utils.getBitmapBytes(bitmap);
+        hitCount++;
+        return bitmap;
+      }
+      missCount++;
+    }
+    return null;
+  }
+
+  /**
+   * Offer a bitmap to the pool. Bitmaps which are owned, immutable, recycled, or larger than the
+   * pool itself are ignored.
+   *
+   * @return true if the pool now holds {@code bitmap}.
+   */
+  public boolean put(Bitmap bitmap) {
+    if (bitmap == null) {
+      throw new NullPointerException("bitmap == null");
+    }
+    if (!bitmap.isMutable() || bitmap.isRecycled() || bitmap.getConfig() == null) {
+      return false;
+    }
+    int bitmapSize = Utils.getBitmapBytes(bitmap);
+    if (bitmapSize > maxSize) {
+      return false;
+    }
+
+    synchronized (this) {
+      if (references.containsKey(bitmap)) {
+        return false;
+      }
+      Key key = new Key().set(bitmap.getWidth(), bitmap.getHeight(), bitmap.getConfig());
+      List<Bitmap> group = groups.get(key);
+      if (group == null) {
+        group = new ArrayList<Bitmap>(2);
+        groups.put(key, group);
+      } else if (group.contains(bitmap)) {
+        return true;
+      }
+      group.add(bitmap);
+      unowned.put(bitmap, Boolean.TRUE);
+      size += bitmapSize;
+      putCount++;
+    }
+
+    trimToSize(maxSize);
+    return true;
+  }
+
+  /** Evict the least-recently used bitmaps until the pool holds at most {@code maxSize} bytes. */
+  public void trimToSize(int maxSize) {
+    synchronized (this) {
+      while (size > maxSize && !groups.isEmpty()) {
+        Iterator<Map.Entry<Key, List<Bitmap>>> iterator = groups.entrySet().iterator();
+        Map.Entry<Key, List<Bitmap>> eldest = iterator.next();
+        List<Bitmap> group = eldest.getValue();
+        Bitmap evicted = group.remove(0);
+        if (group.isEmpty()) {
+          iterator.remove();
+        }
+        size -= Utils.getBitmapBytes(evicted);
+        evictionCount++;
+      }
+    }
+  }
+
+  /** Clear the pool. */
+  public final void evictAll() {
+    trimToSize(-1);
+  }
+
+  /** Returns the sum of the sizes of the bitmaps in this pool. */
+  public final synchronized int size() {
+    return size;
+  }
+
+  /** Returns the maximum sum of the sizes of the bitmaps in this pool. */
+  public final synchronized int maxSize() {
+    return maxSize;
+  }
+
+  public final synchronized void clear() {
+    evictAll();
+  }
+
+  /** Returns the number of times {@link #get} returned a bitmap. */
+  public final synchronized int hitCount() {
+    return hitCount;
+  }
+
+  /** Returns the number of times {@link #get} returned {@code null}. */
+  public final synchronized int missCount() {
+    return missCount;
+  }
+
+  /** Returns the number of bitmaps which have been accepted by {@link #put(Bitmap)}. */
+  public final synchronized int putCount() {
+    return putCount;
+  }
+
+  /** Returns the number of bitmaps that have been evicted. */
+  public final synchronized int evictionCount() {
+    return evictionCount;
+  }
+
+  static final class Key {
+    int width;
+    int height;
+    Bitmap.Config config;
+
+    Key set(int width, int height, Bitmap.Config config) {
+      this.width = width;
+      this.height = height;
+      this.config = config;
+      return this;
+    }
+
+    @Override public boolean equals(Object o) {
+      if (this == o) return true;
+      if (!(o instanceof Key)) return false;
+      Key other = (Key) o;
+      return width == other.width && height == other.height && config == other.config;
+    }
+
+    @Override public int hashCode() {
+      int result = width;
+      result = 31 * result + height;
+      result = 31 * result + config.hashCode();
+      return result;
+    }
+  }
+}
@@ -0,0 +1,231 @@
+/*
+ * Copyright (C) 2014 Square, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.squareup.picasso;
+
+import android.net.Uri;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * Creates memory cache keys which replace the source URI with its 128-bit fingerprint, so long
+ * URLs are neither copied into every key nor hashed again by the cache. The option lines of
+ * {@link Utils#createKey(Request)} are kept as they are.
+ * <p>
+ * Recently created keys are remembered in a direct-mapped table indexed by a fingerprint of the
+ * whole request. A lookup which finds a matching entry, verified field by field against the
+ * stored request, returns the existing key without allocating.
+ * <p>
+ * This class is thread safe.
+ */
+final class CompactKeyFactory {
+  static final char FINGERPRINT_PREFIX = '#';
+  static final int DEFAULT_TABLE_SIZE = 512;
+
+  private static final long FNV_OFFSET = 0xcbf29ce484222325L;
+  private static final long FNV_PRIME = 0x100000001b3L;
+  private static final long MIX_SEED = 0x9e3779b97f4a7c15L;
+  private static final long MIX_PRIME = 0xc2b2ae3d27d4eb4fL;
+  private static final char[] HEX_DIGITS = "0123456789abcdef".toCharArray();
+
+  final AtomicReferenceArray<Entry> table;
+  private final int tableMask;
+
+  CompactKeyFactory() {
+    this(DEFAULT_TABLE_SIZE);
+  }
+
+  /** @param tableSize the number of remembered keys. Must be a power of two. */
+  CompactKeyFactory(int tableSize) {
+    if (tableSize <= 0 || Integer.bitCount(tableSize) != 1) {
+      throw new IllegalArgumentException("Table size must be a positive power of two.");
+    }
+    this.table = new AtomicReferenceArray<Entry>(tableSize);
+    this.tableMask = tableSize - 1;
+  }
+
+  String createKey(Request data) {
+    long fingerprint = requestFingerprint(data);
+    int index = (int) (fingerprint ^ (fingerprint >>> 32)) & tableMask;
+    Entry entry = table.get(index);
+    if (entry != null && entry.fingerprint == fingerprint && entry.matches(data)) {
+      return entry.key;
+    }
+
+    String key = buildKey(data);
+    table.set(index, new Entry(fingerprint, key, data));
+    return key;
+  }
+
+  static String buildKey(Request data) {
+    if (data.uri == null) {
+      return Utils.createKey(data, new StringBuilder());
+    }
+    // Prefix, two 16 digit fingerprints and a line break, followed by the options.
+    StringBuilder builder = new StringBuilder(34 + 32);
+    appendSource(builder, data.uri.toString());
+    builder.append('\n');
+    Utils.appendKeyOptions(data, builder);
+    return builder.toString();
+  }
+
+  /** Returns the part before the first line break of every key created for {@code uri}. */
+  static String createSource(Uri uri) {
+    StringBuilder builder = new StringBuilder(33);
+    appendSource(builder, uri.toString());
+    return builder.toString();
+  }
+
+  private static void appendSource(StringBuilder builder, String path) {
+    builder.append(FINGERPRINT_PREFIX);
+    appendHex(builder, fnv(FNV_OFFSET, path));
+    appendHex(builder, mix(MIX_SEED, path));
+  }
+
+  /** Returns a 64-bit fingerprint over the source and every option which ends up in the key. */
+  static long requestFingerprint(Request data) {
+    long hash = FNV_OFFSET;
+    if (data.uri != null) {
+      hash = fnv(hash, data.uri.toString());
+    } else {
+      hash = fnv(hash, data.resourceId);
+    }
+    hash = fnv(hash, Float.floatToIntBits(data.rotationDegrees));
+    if (data.hasRotationPivot) {
+      hash = fnv(hash, Float.floatToIntBits(data.rotationPivotX));
+      hash = fnv(hash, Float.floatToIntBits(data.rotationPivotY));
+    }
+    hash = fnv(hash, data.targetWidth);
+    hash = fnv(hash, data.targetHeight);
+    hash = fnv(hash, data.centerCrop ? 1 : data.centerInside ? 2 : 0);
+    if (data.cachePartition != null) {
+      hash = fnv(hash, data.cachePartition);
+    }
+    List<Transformation> transformations = data.transformations;
+    if (transformations != null) {
+      for (int i = 0, count = transformations.size(); i < count; i++) {
+        hash = fnv(hash, transformations.get(i).key());
+      }
+    }
+    return hash;
+  }
+
+  private static long fnv(long hash, String value) {
+    for (int i = 0, length = value.length(); i < length; i++) {
+      hash ^= value.charAt(i);
+      hash *= FNV_PRIME;
+    }
+    return fnv(hash, value.length());
+  }
+
+  private static long fnv(long hash, int value) {
+    for (int i = 0; i < 4; i++) {
+      hash ^= value & 0xff;
+      hash *= FNV_PRIME;
+      value >>>= 8;
+    }
+    return hash;
+  }
+
+  private static long mix(long hash, String value) {
+    for (int i = 0, length = value.length(); i < length; i++) {
+      hash = (hash + value.charAt(i)) * MIX_PRIME;
+      hash ^= hash >>> 31;
+    }
+    hash ^= value.length();
+    hash *= MIX_SEED;
+    return hash ^ (hash >>> 29);
+  }
+
+  private static void appendHex(StringBuilder builder, long value) {
+    for (int shift = 60; shift >= 0; shift -= 4) {
+      builder.append(HEX_DIGITS[(int) (value >>> shift) & 0xf]);
+    }
+  }
+
+  static final class Entry {
+    final long fingerprint;
+    final String key;
+    final Uri uri;
+    final int resourceId;
+    final float rotationDegrees;
+    final float rotationPivotX;
+    final float rotationPivotY;
+    final boolean hasRotationPivot;
+    final int targetWidth;
+    final int targetHeight;
+    final boolean centerCrop;
+    final boolean centerInside;
+    final String cachePartition;
+    final String[] transformationKeys;
+
+    Entry(long fingerprint, String key, Request data) {
+      this.fingerprint = fingerprint;
+      this.key = key;
+      this.uri = data.uri;
+      this.resourceId = data.resourceId;
+      this.rotationDegrees = data.rotationDegrees;
+      this.rotationPivotX = data.rotationPivotX;
+      this.rotationPivotY = data.rotationPivotY;
+      this.hasRotationPivot = data.hasRotationPivot;
+      this.targetWidth = data.targetWidth;
+      this.targetHeight = data.targetHeight;
+      this.centerCrop = data.centerCrop;
+      this.centerInside = data.centerInside;
+      this.cachePartition = data.cachePartition;
+      List<Transformation> transformations = data.transformations;
+      int count = transformations == null ? 0 : transformations.size();
+      this.transformationKeys = new String[count];
+      for (int i = 0; i < count; i++) {
+        transformationKeys[i] = transformations.get(i).key();
+      }
+    }
+
+    /** Returns true if {@code data} would produce the same key as the request of this entry. */
+    boolean matches(Request data) {
+      if (uri == null ? data.uri != null : !uri.equals(data.uri)) {
+        return false;
+      }
+      if (resourceId != data.resourceId
+          || rotationDegrees != data.rotationDegrees
+          || hasRotationPivot != data.hasRotationPivot
+          || targetWidth != data.targetWidth
+          || targetHeight != data.targetHeight
+          || centerCrop != data.centerCrop
+          || centerInside != data.centerInside) {
+        return false;
+      }
+      if (cachePartition == null
+          ? data.cachePartition != null : !cachePartition.equals(data.cachePartition)) {
+        return false;
+      }
+      if (hasRotationPivot
+          && (rotationPivotX != data.rotationPivotX || rotationPivotY != data.rotationPivotY)) {
+        return false;
+      }
+      List<Transformation> transformations = data.transformations;
+      int count = transformations == null ? 0 : transformations.size();
+      if (count != transformationKeys.length) {
+        return false;
+      }
+      for (int i = 0; i < count; i++) {
+        if (!transformationKeys[i].equals(transformations.get(i).key())) {
+          return false;
+        }
+      }
+      return true;
+    }
+  }
+}
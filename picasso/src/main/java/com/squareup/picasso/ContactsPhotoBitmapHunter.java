@@ -106,7 +106,7 @@ class ContactsPhotoBitmapHunter extends BitmapHunter {
     if (stream == null) {
       return null;
     }
-    final BitmapFactory.Options options = createBitmapOptions(data);
+    final BitmapFactory.Options options = createDecodeOptions(data);
     if (requiresInSampleSize(options)) {
       InputStream is = getInputStream();
       try {
@@ -114,7 +114,7 @@ class ContactsPhotoBitmapHunter extends BitmapHunter {
       } finally {
         Utils.closeQuietly(is);
       }
-      calculateInSampleSize(data.targetWidth, data.targetHeight, options);
+      prepareDecodeOptions(data, options);
     }
     return BitmapFactory.decodeStream(stream, null, options);
   }
@@ -44,7 +44,7 @@ class ContentStreamBitmapHunter extends BitmapHunter {
 
   protected Bitmap decodeContentStream(Request data) throws IOException {
     ContentResolver contentResolver = context.getContentResolver();
-    final BitmapFactory.Options options = createBitmapOptions(data);
+    final BitmapFactory.Options options = createDecodeOptions(data);
     if (requiresInSampleSize(options)) {
       InputStream is = null;
       try {
@@ -53,7 +53,7 @@ class ContentStreamBitmapHunter extends BitmapHunter {
       } finally {
         Utils.closeQuietly(is);
       }
-      calculateInSampleSize(data.targetWidth, data.targetHeight, options);
+      prepareDecodeOptions(data, options);
     }
     InputStream is = contentResolver.openInputStream(data.uri);
     try {
@@ -0,0 +1,97 @@
+/*
+ * Copyright (C) 2014 Square, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.squareup.picasso;
+
+/**
+ * Limits how many bytes of bitmaps are being created by decodes and transformations at the same
+ * time. Each one reserves the size of its output up front and only waits while the budget is
+ * exhausted, so small images are processed in parallel while a few large ones can not run the heap
+ * out of memory together.
+ * <p>
+ * Reservations are granted in the order they were asked for. Once one has to wait, later ones
+ * wait behind it even if they would fit, so a large reservation is not starved by a stream of
+ * small ones. A single reservation larger than the whole budget is let through once nothing else
+ * is reserved.
+ */
+final class DecodeBudget {
+  /** Share of the maximum heap size which may be reserved at once. */
+  static final int HEAP_DIVISOR = 8;
+
+  private final long maxBytes;
+
+  private long reserved;
+  /** The turn handed to the next caller of {@link #acquire(long)}. */
+  private long nextTicket;
+  /** The turn of the caller which may reserve next. */
+  private long nowServing;
+
+  DecodeBudget(long maxBytes) {
+    if (maxBytes <= 0) {
+      throw new IllegalArgumentException("Max bytes must be positive.");
+    }
+    this.maxBytes = maxBytes;
+  }
+
+  /** Create a budget of a {@link #HEAP_DIVISOR} share of the heap this process may grow to. */
+  static DecodeBudget forHeap() {
+    return new DecodeBudget(Runtime.getRuntime().maxMemory() / HEAP_DIVISOR);
+  }
+
+  /**
+   * Reserve {@code bytes}, blocking while earlier callers wait or the bytes do not fit into what is
+   * left of the budget. Must be paired with {@link #release(long)}.
+   */
+  void acquire(long bytes) {
+    boolean interrupted = false;
+    synchronized (this) {
+      long ticket = nextTicket++;
+      while (ticket != nowServing || (reserved > 0 && reserved + bytes > maxBytes)) {
+        try {
+          wait();
+        } catch (InterruptedException e) {
+          // Hunters are not cancelled by interruption. Keep waiting and restore the flag after.
+          interrupted = true;
+        }
+      }
+      reserved += bytes;
+      nowServing++;
+      // Let the next in line check whether it fits as well.
+      notifyAll();
+    }
+    if (interrupted) {
+      Thread.currentThread().interrupt();
+    }
+  }
+
+  /** Give back {@code bytes} reserved with {@link #acquire(long)}. */
+  synchronized void release(long bytes) {
+    reserved -= bytes;
+    notifyAll();
+  }
+
+  /** Returns true if {@code bytes} could be reserved right now without waiting. */
+  synchronized boolean fits(long bytes) {
+    return nextTicket == nowServing && (reserved == 0 || reserved + bytes <= maxBytes);
+  }
+
+  synchronized long reserved() {
+    return reserved;
+  }
+
+  long maxBytes() {
+    return maxBytes;
+  }
+}
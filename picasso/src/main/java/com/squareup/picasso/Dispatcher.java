@@ -26,13 +26,21 @@ import android.os.Handler;
 import android.os.HandlerThread;
 import android.os.Looper;
 import android.os.Message;
+import android.os.MessageQueue;
+import android.os.SystemClock;
 import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
 import java.util.Iterator;
 import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
 import java.util.WeakHashMap;
 import java.util.concurrent.ExecutorService;
+import java.util.concurrent.TimeUnit;
 
 import static android.content.Context.CONNECTIVITY_SERVICE;
 import static android.content.Intent.ACTION_AIRPLANE_MODE_CHANGED;
@@ -45,8 +53,12 @@ import static com.squareup.picasso.Utils.VERB_CANCELED;
 import static com.squareup.picasso.Utils.VERB_DELIVERED;
 import static com.squareup.picasso.Utils.VERB_ENQUEUED;
 import static com.squareup.picasso.Utils.VERB_IGNORED;
+import static com.squareup.picasso.Utils.VERB_JOINED;
+import static com.squareup.picasso.Utils.VERB_PAUSED;
 import static com.squareup.picasso.Utils.VERB_REPLAYING;
+import static com.squareup.picasso.Utils.VERB_RESUMED;
 import static com.squareup.picasso.Utils.VERB_RETRYING;
+import static com.squareup.picasso.Utils.VERB_TIMED_OUT;
 import static com.squareup.picasso.Utils.getLogIdsForHunter;
 import static com.squareup.picasso.Utils.getService;
 import static com.squareup.picasso.Utils.hasPermission;
@@ -67,57 +79,169 @@ class Dispatcher {
   static final int HUNTER_BATCH_COMPLETE = 8;
   static final int NETWORK_STATE_CHANGE = 9;
   static final int AIRPLANE_MODE_CHANGE = 10;
+  static final int TRIM_MEMORY = 11;
+  static final int HOT_KEYS_WARM_UP = 13;
+  static final int TAG_PAUSE = 14;
+  static final int TAG_RESUME = 15;
+  static final int HUNTER_FETCHED = 16;
+  static final int MAIN_THREAD_IDLE = 17;
+  static final int REQUEST_DEADLINE = 18;
+  static final int REQUEST_TIMED_OUT = 19;
 
   private static final String DISPATCHER_THREAD_NAME = "Dispatcher";
   private static final int BATCH_DELAY = 200; // ms
+  /** How long an idle main thread is trusted to stay idle, a few frames. */
+  static final int MAIN_THREAD_IDLE_TTL = 50; // ms
+
+  /** Orders actions highest priority first, then by request ID. */
+  private static final Comparator<Action> PRIORITY_ORDER = new Comparator<Action>() {
+    @Override public int compare(Action lhs, Action rhs) {
+      int lhsPriority = lhs.getRequest().priority.ordinal();
+      int rhsPriority = rhs.getRequest().priority.ordinal();
+      if (lhsPriority != rhsPriority) {
+        return rhsPriority - lhsPriority;
+      }
+      return lhs.getRequest().id - rhs.getRequest().id;
+    }
+  };
 
   final DispatcherThread dispatcherThread;
   final Context context;
   final ExecutorService service;
+  final ExecutorService decodeService;
   final Downloader downloader;
   final Map<String, BitmapHunter> hunterMap;
+  /** Hunters which are still fetching their source, by URI. */
+  final Map<String, BitmapHunter> sourceMap;
   final Map<Object, Action> failedActions;
+  final Set<Object> pausedTags;
+  final Map<Object, Action> pausedActions;
   final Handler handler;
   final Handler mainThreadHandler;
   final Cache cache;
   final Stats stats;
+  final VariantIndex variants;
   final List<BitmapHunter> batch;
+  final MainThreadIdleWatcher idleWatcher;
+  /** Null for all but the first shard, which receives network changes for all of them. */
   final NetworkBroadcastReceiver receiver;
   final boolean scansNetworkChanges;
+  /** All dispatchers of this instance, this one included, each with its own thread. */
+  final Dispatcher[] shards;
 
   boolean airplaneMode;
+  /** True while the main thread has handled all deliveries and has nothing else queued. */
+  boolean mainThreadIdle;
+  long mainThreadIdleAt;
+  long batchStart;
 
   Dispatcher(Context context, ExecutorService service, Handler mainThreadHandler,
       Downloader downloader, Cache cache, Stats stats) {
+    this(context, service, service, mainThreadHandler, downloader, cache, stats);
+  }
+
+  /**
+   * Create a dispatcher which fetches network sources on {@code service} and decodes them on
+   * {@code decodeService}. Local sources are decoded on {@code decodeService} directly.
+   */
+  Dispatcher(Context context, ExecutorService service, ExecutorService decodeService,
+      Handler mainThreadHandler, Downloader downloader, Cache cache, Stats stats) {
+    this(context, service, decodeService, mainThreadHandler, downloader, cache, stats, 1);
+  }
+
+  /**
+   * Create a dispatcher with {@code shardCount} threads. Each shard owns the requests whose URI
+   * hashes to it, so that all variants of an image meet in one shard and can share its source.
+   */
+  Dispatcher(Context context, ExecutorService service, ExecutorService decodeService,
+      Handler mainThreadHandler, Downloader downloader, Cache cache, Stats stats, int shardCount) {
+    this(context, service, decodeService, mainThreadHandler, downloader, cache, stats,
+        new Dispatcher[shardCount]);
+    for (int i = 1; i < shardCount; i++) {
+      shards[i] = new Dispatcher(context, service, decodeService, mainThreadHandler, downloader,
+          cache, stats, shards);
+    }
+  }
+
+  private Dispatcher(Context context, ExecutorService service, ExecutorService decodeService,
+      Handler mainThreadHandler, Downloader downloader, Cache cache, Stats stats,
+      Dispatcher[] shards) {
     this.dispatcherThread = new DispatcherThread();
     this.dispatcherThread.start();
     this.context = context;
     this.service = service;
+    this.decodeService = decodeService;
     this.hunterMap = new LinkedHashMap<String, BitmapHunter>();
+    this.sourceMap = new HashMap<String, BitmapHunter>();
     this.failedActions = new WeakHashMap<Object, Action>();
+    this.pausedTags = new HashSet<Object>();
+    this.pausedActions = new WeakHashMap<Object, Action>();
     this.handler = new DispatcherHandler(dispatcherThread.getLooper(), this);
     this.downloader = downloader;
     this.mainThreadHandler = mainThreadHandler;
     this.cache = cache;
     this.stats = stats;
+    this.variants = new VariantIndex();
     this.batch = new ArrayList<BitmapHunter>(4);
+    this.idleWatcher = new MainThreadIdleWatcher(this);
     this.airplaneMode = Utils.isAirplaneModeOn(this.context);
     this.scansNetworkChanges = hasPermission(context, Manifest.permission.ACCESS_NETWORK_STATE);
-    this.receiver = new NetworkBroadcastReceiver(this);
-    receiver.register();
+    this.shards = shards;
+    // The first shard is created first and listens for network changes on behalf of the others.
+    if (shards[0] == null) {
+      shards[0] = this;
+      this.receiver = new NetworkBroadcastReceiver(this);
+      receiver.register();
+    } else {
+      this.receiver = null;
+    }
+    mainThreadHandler.post(idleWatcher);
   }
 
   void shutdown() {
     service.shutdown();
-    dispatcherThread.quit();
+    if (decodeService != service) {
+      decodeService.shutdown();
+    }
+    for (Dispatcher shard : shards) {
+      shard.dispatcherThread.quit();
+    }
     receiver.unregister();
   }
 
+  /** Returns the shard which owns the requests for the source of {@code action}. */
+  Dispatcher shardFor(Action action) {
+    if (shards.length == 1) {
+      return this;
+    }
+    Request data = action.getRequest();
+    int hash = data.uri != null ? data.uri.hashCode() : data.resourceId;
+    return shards[(hash & Integer.MAX_VALUE) % shards.length];
+  }
+
+  private boolean isFirstShard() {
+    return shards[0] == this;
+  }
+
+  /** Send a message to every shard, for changes which concern all requests. */
+  private void broadcast(int what, int arg1, Object obj) {
+    for (Dispatcher shard : shards) {
+      shard.handler.sendMessage(shard.handler.obtainMessage(what, arg1, 0, obj));
+    }
+  }
+
   void dispatchSubmit(Action action) {
+    Handler handler = shardFor(action).handler;
     handler.sendMessage(handler.obtainMessage(REQUEST_SUBMIT, action));
+    if (action.getDeadline() != 0) {
+      long delay = TimeUnit.NANOSECONDS.toMillis(action.getDeadline() - System.nanoTime());
+      handler.sendMessageDelayed(handler.obtainMessage(REQUEST_DEADLINE, action),
+          Math.max(0, delay));
+    }
   }
 
   void dispatchCancel(Action action) {
+    Handler handler = shardFor(action).handler;
     handler.sendMessage(handler.obtainMessage(REQUEST_CANCEL, action));
   }
 
@@ -125,6 +249,10 @@ class Dispatcher {
     handler.sendMessage(handler.obtainMessage(HUNTER_COMPLETE, hunter));
   }
 
+  void dispatchFetched(BitmapHunter hunter) {
+    handler.sendMessage(handler.obtainMessage(HUNTER_FETCHED, hunter));
+  }
+
   void dispatchRetry(BitmapHunter hunter) {
     handler.sendMessageDelayed(handler.obtainMessage(HUNTER_RETRY, hunter), RETRY_DELAY);
   }
@@ -133,19 +261,63 @@ class Dispatcher {
     handler.sendMessage(handler.obtainMessage(HUNTER_DECODE_FAILED, hunter));
   }
 
+  void dispatchMainThreadIdle() {
+    handler.sendEmptyMessage(MAIN_THREAD_IDLE);
+  }
+
   void dispatchNetworkStateChange(NetworkInfo info) {
-    handler.sendMessage(handler.obtainMessage(NETWORK_STATE_CHANGE, info));
+    broadcast(NETWORK_STATE_CHANGE, 0, info);
   }
 
   void dispatchAirplaneModeChange(boolean airplaneMode) {
-    handler.sendMessage(handler.obtainMessage(AIRPLANE_MODE_CHANGE,
-        airplaneMode ? AIRPLANE_MODE_ON : AIRPLANE_MODE_OFF, 0));
+    broadcast(AIRPLANE_MODE_CHANGE, airplaneMode ? AIRPLANE_MODE_ON : AIRPLANE_MODE_OFF, null);
+  }
+
+  /**
+   * Cancel a share of the queued hunters which only warm up the cache, proportional to how much
+   * memory has to be given up. {@code fraction} is the share of memory which may be kept.
+   */
+  void dispatchTrimMemory(float fraction) {
+    broadcast(TRIM_MEMORY, 0, fraction);
+  }
+
+  void dispatchWarmUp(Picasso picasso) {
+    handler.sendMessage(handler.obtainMessage(HOT_KEYS_WARM_UP, picasso));
+  }
+
+  void dispatchPauseTag(Object tag) {
+    broadcast(TAG_PAUSE, 0, tag);
+  }
+
+  void dispatchResumeTag(Object tag) {
+    broadcast(TAG_RESUME, 0, tag);
   }
 
   void performSubmit(Action action) {
+    performSubmit(action, null);
+  }
+
+  /**
+   * Submit {@code action}. Unless it has a hunter of its own already, it shares the source of a
+   * hunter for another variant of the same URI: {@code fetched} if not null, which is done
+   * fetching, or otherwise one which is still fetching.
+   */
+  void performSubmit(Action action, BitmapHunter fetched) {
+    Object tag = action.getTag();
+    if (tag != null && pausedTags.contains(tag)) {
+      pausedActions.put(parkingKey(action), action);
+      if (action.getPicasso().loggingEnabled) {
+        log(OWNER_DISPATCHER, VERB_PAUSED, action.request.logId(),
+            "because tag '" + tag + "' is paused");
+      }
+      return;
+    }
+
     BitmapHunter hunter = hunterMap.get(action.getKey());
     if (hunter != null) {
+      Picasso.Priority priority = hunter.getPriority();
       hunter.attach(action);
+      requeueIfReprioritized(hunter, priority);
       return;
     }
 
@@ -156,9 +328,29 @@ class Dispatcher {
       return;
     }
 
+    String uri = sourceKey(action.getRequest());
+    BitmapHunter leader = fetched == null && uri != null ? sourceMap.get(uri) : null;
+    if (leader != null) {
+      Picasso.Priority priority = leader.getPriority();
+      leader.follow(action);
+      requeueIfReprioritized(leader, priority);
+      failedActions.remove(action.getTarget());
+      if (action.getPicasso().loggingEnabled) {
+        log(OWNER_DISPATCHER, VERB_JOINED, action.request.logId(),
+            getLogIdsForHunter(leader, "to share the source of "));
+      }
+      return;
+    }
+
     hunter = forRequest(context, action.getPicasso(), this, cache, stats, action, downloader);
-    hunter.future = service.submit(hunter);
+    if (fetched != null) {
+      hunter.shareFetched(fetched);
+    }
+    hunter.future = stageFor(hunter).submit(hunter);
     hunterMap.put(action.getKey(), hunter);
+    if (uri != null && hunter.needsFetch()) {
+      sourceMap.put(uri, hunter);
+    }
     failedActions.remove(action.getTarget());
 
     if (action.getPicasso().loggingEnabled) {
@@ -166,13 +358,72 @@ class Dispatcher {
     }
   }
 
+  private static String sourceKey(Request data) {
+    return data.uri != null ? data.uri.toString() : null;
+  }
+
+  /**
+   * Stop sharing the source of {@code hunter} and submit the actions which waited for it. They
+   * decode from the source of {@code fetched} if it is not null, or otherwise start over.
+   */
+  private void releaseFollowers(BitmapHunter hunter, BitmapHunter fetched) {
+    String uri = sourceKey(hunter.getData());
+    if (uri != null && sourceMap.get(uri) == hunter) {
+      sourceMap.remove(uri);
+    }
+    List<Action> followers = hunter.takeFollowers();
+    if (followers != null) {
+      for (int i = 0, n = followers.size(); i < n; i++) {
+        performSubmit(followers.get(i), fetched);
+      }
+    }
+  }
+
+  /**
+   * Returns the pool for the next run of {@code hunter}: the I/O pool while its source still has
+   * to be fetched, and the CPU pool for decoding.
+   */
+  private ExecutorService stageFor(BitmapHunter hunter) {
+    return hunter.needsFetch() ? service : decodeService;
+  }
+
+  /** Move a waiting hunter whose priority changed from {@code previous} to its new place. */
+  private void requeueIfReprioritized(BitmapHunter hunter, Picasso.Priority previous) {
+    ExecutorService stage = stageFor(hunter);
+    if (hunter.getPriority() != previous && stage instanceof PicassoExecutorService) {
+      ((PicassoExecutorService) stage).requeue(hunter.future);
+    }
+  }
+
+  /**
+   * Drop a cancelled hunter from the executor's queue before a worker thread picks it up. A hunter
+   * which will never run again lets go of the source it has fetched.
+   */
+  private void discardQueued(BitmapHunter hunter) {
+    ExecutorService stage = stageFor(hunter);
+    if (stage instanceof PicassoExecutorService
+        && ((PicassoExecutorService) stage).discard(hunter.future)) {
+      hunter.releaseFetched();
+    }
+  }
+
   void performCancel(Action action) {
+    removeDeadline(action);
     String key = action.getKey();
     BitmapHunter hunter = hunterMap.get(key);
+    if (hunter == null) {
+      // The action may follow the hunter for another variant of the same URI.
+      String uri = sourceKey(action.getRequest());
+      hunter = uri != null ? sourceMap.get(uri) : null;
+    }
     if (hunter != null) {
+      Picasso.Priority priority = hunter.getPriority();
       hunter.detach(action);
+      requeueIfReprioritized(hunter, priority);
       if (hunter.cancel()) {
-        hunterMap.remove(key);
+        discardQueued(hunter);
+        hunterMap.remove(hunter.getKey());
+        releaseFollowers(hunter, null);
         if (action.getPicasso().loggingEnabled) {
           log(OWNER_DISPATCHER, VERB_CANCELED, action.getRequest().logId());
         }
@@ -182,6 +433,136 @@ class Dispatcher {
     if (remove != null && remove.getPicasso().loggingEnabled) {
       log(OWNER_DISPATCHER, VERB_CANCELED, remove.getRequest().logId(), "from replaying");
     }
+    Object tag = action.getTag();
+    if (tag != null && pausedTags.contains(tag)) {
+      Action paused = pausedActions.remove(parkingKey(action));
+      if (paused != null && paused.getPicasso().loggingEnabled) {
+        log(OWNER_DISPATCHER, VERB_CANCELED, paused.getRequest().logId(), "from pausing");
+      }
+    }
+  }
+
+  /**
+   * Give up on {@code action} once its deadline has passed. It is taken out of its hunter, which
+   * is dropped from the queue or cancelled while running if no other action waits for it, and its
+   * error is delivered. Actions which already completed or were cancelled are left alone.
+   */
+  void performDeadline(Action action) {
+    if (action.isCancelled() || !isPending(action)) {
+      return;
+    }
+    performCancel(action);
+    if (action.getPicasso().loggingEnabled) {
+      log(OWNER_DISPATCHER, VERB_TIMED_OUT, action.getRequest().logId());
+    }
+    mainThreadHandler.sendMessage(mainThreadHandler.obtainMessage(REQUEST_TIMED_OUT, action));
+  }
+
+  /** Returns true if {@code action} still waits for a hunter, a replay or its tag to resume. */
+  private boolean isPending(Action action) {
+    BitmapHunter hunter = hunterMap.get(action.getKey());
+    if (hunter != null && hunter.holds(action)) {
+      return true;
+    }
+    String uri = sourceKey(action.getRequest());
+    BitmapHunter leader = uri != null ? sourceMap.get(uri) : null;
+    if (leader != null && leader.holds(action)) {
+      return true;
+    }
+    return failedActions.get(action.getTarget()) == action
+        || pausedActions.get(parkingKey(action)) == action;
+  }
+
+  /**
+   * Hold back every action with {@code tag}. Actions waiting in the executor are taken out of
+   * their hunters, which are cancelled once they have no other actions left. Hunters which
+   * already run keep going, so their result still reaches the memory cache.
+   */
+  void performPauseTag(Object tag) {
+    if (!pausedTags.add(tag)) {
+      return;
+    }
+
+    for (Iterator<BitmapHunter> it = hunterMap.values().iterator(); it.hasNext();) {
+      BitmapHunter hunter = it.next();
+      boolean loggingEnabled = hunter.getPicasso().loggingEnabled;
+      Picasso.Priority priority = hunter.getPriority();
+
+      Action single = hunter.getAction();
+      if (single != null && tag.equals(single.getTag())) {
+        park(hunter, single, loggingEnabled);
+      }
+      parkTagged(hunter, hunter.getActions(), tag, loggingEnabled);
+      parkTagged(hunter, hunter.getFollowers(), tag, loggingEnabled);
+
+      requeueIfReprioritized(hunter, priority);
+      if (hunter.cancel()) {
+        discardQueued(hunter);
+        it.remove();
+        releaseFollowers(hunter, null);
+        if (loggingEnabled) {
+          log(OWNER_DISPATCHER, VERB_CANCELED, getLogIdsForHunter(hunter), "all actions paused");
+        }
+      }
+    }
+  }
+
+  private void parkTagged(BitmapHunter hunter, List<Action> actions, Object tag,
+      boolean loggingEnabled) {
+    if (actions != null) {
+      for (int i = actions.size() - 1; i >= 0; i--) {
+        Action action = actions.get(i);
+        if (tag.equals(action.getTag())) {
+          park(hunter, action, loggingEnabled);
+        }
+      }
+    }
+  }
+
+  private void park(BitmapHunter hunter, Action action, boolean loggingEnabled) {
+    hunter.detach(action);
+    pausedActions.put(parkingKey(action), action);
+    if (loggingEnabled) {
+      log(OWNER_DISPATCHER, VERB_PAUSED, action.request.logId(),
+          "because tag '" + action.getTag() + "' was paused");
+    }
+  }
+
+  /**
+   * Let the actions with {@code tag} through again. They are submitted highest priority first,
+   * and in the order they were created among equal priorities.
+   */
+  void performResumeTag(Object tag) {
+    if (!pausedTags.remove(tag)) {
+      return;
+    }
+
+    List<Action> resumed = new ArrayList<Action>();
+    for (Iterator<Action> it = pausedActions.values().iterator(); it.hasNext();) {
+      Action action = it.next();
+      if (tag.equals(action.getTag())) {
+        resumed.add(action);
+        it.remove();
+      }
+    }
+    Collections.sort(resumed, PRIORITY_ORDER);
+
+    for (int i = 0, n = resumed.size(); i < n; i++) {
+      Action action = resumed.get(i);
+      if (action.isCancelled()) {
+        continue;
+      }
+      if (action.getPicasso().loggingEnabled) {
+        log(OWNER_DISPATCHER, VERB_RESUMED, action.request.logId());
+      }
+      performSubmit(action);
+    }
+  }
+
+  /** Paused actions are held by target, so a newer request for the same target replaces them. */
+  private static Object parkingKey(Action action) {
+    Object target = action.getTarget();
+    return target != null ? target : action;
   }
 
   void performRetry(BitmapHunter hunter) {
@@ -217,7 +598,7 @@ class Dispatcher {
       if (hunter.getPicasso().loggingEnabled) {
         log(OWNER_DISPATCHER, VERB_RETRYING, getLogIdsForHunter(hunter));
       }
-      hunter.future = service.submit(hunter);
+      hunter.future = stageFor(hunter).submit(hunter);
       return;
     }
 
@@ -228,39 +609,199 @@ class Dispatcher {
     }
   }
 
+  /** Queue a hunter whose source was read by the I/O pool for decoding on the CPU pool. */
+  void performFetched(BitmapHunter hunter) {
+    if (hunter.isCancelled()) {
+      hunter.releaseFetched();
+      return;
+    }
+
+    if (decodeService.isShutdown()) {
+      hunter.releaseFetched();
+      performError(hunter, false);
+      return;
+    }
+
+    // Followers copy the source first, as the hunter drops it once it has decoded.
+    releaseFollowers(hunter, hunter);
+    hunter.future = decodeService.submit(hunter);
+  }
+
   void performComplete(BitmapHunter hunter) {
     if (!hunter.shouldSkipMemoryCache()) {
-      cache.set(hunter.getKey(), hunter.getResult());
+      cacheResult(hunter);
+      variants.put(hunter.getKey(), hunter.getData(), hunter.getResult());
+      HotKeyManifest hotKeys = hunter.getPicasso().hotKeys;
+      if (hotKeys != null) {
+        hotKeys.recordLoad(hunter.getKey(), hunter.getData(), hunter.getResult());
+        if (hotKeys.isSaveDue()) {
+          hotKeys.saveInBackground();
+        }
+      }
     }
     hunterMap.remove(hunter.getKey());
+    releaseFollowers(hunter, null);
+    removeDeadlines(hunter);
     batch(hunter);
     if (hunter.getPicasso().loggingEnabled) {
       log(OWNER_DISPATCHER, VERB_BATCHED, getLogIdsForHunter(hunter), "for completion");
     }
   }
 
+  /** Store the result of {@code hunter}, with its cost to load again if the cache weighs it. */
+  private void cacheResult(BitmapHunter hunter) {
+    String key = hunter.getKey();
+    Cache target = cache;
+    if (target instanceof PartitionedCache) {
+      target = ((PartitionedCache) target).cacheFor(key);
+    }
+    if (target instanceof GreedyDualCache) {
+      long cost = GreedyDualCache.costOf(hunter.getLoadedFrom(), hunter.getHuntDuration());
+      ((GreedyDualCache) target).set(key, hunter.getResult(), cost);
+    } else {
+      cache.set(key, hunter.getResult());
+    }
+  }
+
   void performBatchComplete() {
     List<BitmapHunter> copy = new ArrayList<BitmapHunter>(batch);
     batch.clear();
+    mainThreadIdle = false;
     mainThreadHandler.sendMessage(mainThreadHandler.obtainMessage(HUNTER_BATCH_COMPLETE, copy));
+    // Find out when the main thread is through with this batch and whatever it queued since.
+    mainThreadHandler.post(idleWatcher);
+    stats.dispatchBatchDelivered(copy.size(), SystemClock.uptimeMillis() - batchStart);
     logBatch(copy);
   }
 
+  /**
+   * Deliver the results which completed while the main thread was busy, or remember that the next
+   * one can be delivered right away.
+   */
+  void performMainThreadIdle() {
+    if (batch.isEmpty()) {
+      mainThreadIdle = true;
+      mainThreadIdleAt = SystemClock.uptimeMillis();
+      return;
+    }
+    handler.removeMessages(HUNTER_DELAY_NEXT_BATCH);
+    performBatchComplete();
+  }
+
   void performError(BitmapHunter hunter, boolean willReplay) {
     if (hunter.getPicasso().loggingEnabled) {
       log(OWNER_DISPATCHER, VERB_BATCHED, getLogIdsForHunter(hunter),
           "for error" + (willReplay ? " (will replay)" : ""));
     }
     hunterMap.remove(hunter.getKey());
+    releaseFollowers(hunter, null);
+    if (!willReplay) {
+      removeDeadlines(hunter);
+    }
     batch(hunter);
   }
 
+  /** Forget the deadlines of the actions which {@code hunter} is done with. */
+  private void removeDeadlines(BitmapHunter hunter) {
+    removeDeadline(hunter.getAction());
+    List<Action> joined = hunter.getActions();
+    if (joined != null) {
+      for (int i = 0, n = joined.size(); i < n; i++) {
+        removeDeadline(joined.get(i));
+      }
+    }
+  }
+
+  private void removeDeadline(Action action) {
+    if (action != null && action.getDeadline() != 0) {
+      handler.removeMessages(REQUEST_DEADLINE, action);
+    }
+  }
+
+  void performTrimMemory(float fraction) {
+    if (fraction > 0f && isFirstShard() && Utils.degradesBeforeEvict(cache)) {
+      // Picasso leaves this to the dispatcher as degrading entries takes a while.
+      Utils.trimCache(cache, (int) (cache.maxSize() * fraction));
+    }
+    List<BitmapHunter> prefetches = new ArrayList<BitmapHunter>();
+    for (BitmapHunter hunter : hunterMap.values()) {
+      if (isPrefetchOnly(hunter)) {
+        prefetches.add(hunter);
+      }
+    }
+    int toCancel = (int) Math.ceil(prefetches.size() * (1f - fraction));
+    for (int i = 0; i < toCancel; i++) {
+      BitmapHunter hunter = prefetches.get(i);
+      boolean loggingEnabled = hunter.getPicasso().loggingEnabled;
+      String logIds = loggingEnabled ? getLogIdsForHunter(hunter) : null;
+      Picasso.Priority priority = hunter.getPriority();
+      Action action = hunter.getAction();
+      if (action != null) {
+        hunter.detach(action);
+      }
+      List<Action> joined = hunter.getActions();
+      if (joined != null) {
+        for (int j = joined.size() - 1; j >= 0; j--) {
+          hunter.detach(joined.get(j));
+        }
+      }
+      requeueIfReprioritized(hunter, priority);
+      if (hunter.cancel()) {
+        discardQueued(hunter);
+        hunterMap.remove(hunter.getKey());
+        releaseFollowers(hunter, null);
+        if (loggingEnabled) {
+          log(OWNER_DISPATCHER, VERB_CANCELED, logIds, "for low memory");
+        }
+      }
+    }
+  }
+
+  /** Read the requests saved by the last run and hand them to the main thread for prefetching. */
+  void performWarmUp(final Picasso picasso) {
+    HotKeyManifest hotKeys = picasso.hotKeys;
+    final List<Request> requests =
+        hotKeys.loadWarmUp(Math.min(hotKeys.warmUpSize, cache.maxSize()));
+    if (requests.isEmpty()) {
+      return;
+    }
+    mainThreadHandler.post(new Runnable() {
+      @Override public void run() {
+        picasso.warmUp(requests);
+      }
+    });
+  }
+
+  /**
+   * Returns true if only fetch actions wait for {@code hunter}. A hunter whose source other
+   * variants wait for is never a mere prefetch.
+   */
+  private static boolean isPrefetchOnly(BitmapHunter hunter) {
+    List<Action> followers = hunter.getFollowers();
+    if (followers != null && !followers.isEmpty()) {
+      return false;
+    }
+    Action action = hunter.getAction();
+    if (action != null && !(action instanceof FetchAction)) {
+      return false;
+    }
+    List<Action> joined = hunter.getActions();
+    if (joined != null) {
+      for (int i = 0, n = joined.size(); i < n; i++) {
+        if (!(joined.get(i) instanceof FetchAction)) {
+          return false;
+        }
+      }
+    }
+    return action != null || (joined != null && !joined.isEmpty());
+  }
+
   void performAirplaneModeChange(boolean airplaneMode) {
     this.airplaneMode = airplaneMode;
   }
 
   void performNetworkStateChange(NetworkInfo info) {
-    if (service instanceof PicassoExecutorService) {
+    if (isFirstShard() && service instanceof PicassoExecutorService) {
       ((PicassoExecutorService) service).adjustThreadCount(info);
     }
     // Intentionally check only if isConnected() here before we flush out failed actions.
@@ -310,7 +851,21 @@ class Dispatcher {
     if (hunter.isCancelled()) {
       return;
     }
+    if (batch.isEmpty()) {
+      batchStart = SystemClock.uptimeMillis();
+    }
     batch.add(hunter);
+    if (mainThreadIdle
+        && SystemClock.uptimeMillis() - mainThreadIdleAt > MAIN_THREAD_IDLE_TTL) {
+      // The main thread may have become busy since, as in a fling, so coalesce after all.
+      mainThreadIdle = false;
+    }
+    if (mainThreadIdle) {
+      // Nothing to coalesce with and nothing to compete with on the main thread.
+      performBatchComplete();
+      return;
+    }
+    // Otherwise hold results until the main thread catches up, but no longer than BATCH_DELAY.
     if (!handler.hasMessages(HUNTER_DELAY_NEXT_BATCH)) {
       handler.sendEmptyMessageDelayed(HUNTER_DELAY_NEXT_BATCH, BATCH_DELAY);
     }
@@ -355,6 +910,11 @@ class Dispatcher {
           dispatcher.performComplete(hunter);
           break;
         }
+        case HUNTER_FETCHED: {
+          BitmapHunter hunter = (BitmapHunter) msg.obj;
+          dispatcher.performFetched(hunter);
+          break;
+        }
         case HUNTER_RETRY: {
           BitmapHunter hunter = (BitmapHunter) msg.obj;
           dispatcher.performRetry(hunter);
@@ -369,6 +929,15 @@ class Dispatcher {
           dispatcher.performBatchComplete();
           break;
         }
+        case MAIN_THREAD_IDLE: {
+          dispatcher.performMainThreadIdle();
+          break;
+        }
+        case REQUEST_DEADLINE: {
+          Action action = (Action) msg.obj;
+          dispatcher.performDeadline(action);
+          break;
+        }
         case NETWORK_STATE_CHANGE: {
           NetworkInfo info = (NetworkInfo) msg.obj;
           dispatcher.performNetworkStateChange(info);
@@ -378,6 +947,23 @@ class Dispatcher {
           dispatcher.performAirplaneModeChange(msg.arg1 == AIRPLANE_MODE_ON);
           break;
         }
+        case TRIM_MEMORY: {
+          dispatcher.performTrimMemory((Float) msg.obj);
+          break;
+        }
+        case TAG_PAUSE: {
+          dispatcher.performPauseTag(msg.obj);
+          break;
+        }
+        case TAG_RESUME: {
+          dispatcher.performResumeTag(msg.obj);
+          break;
+        }
+        case HOT_KEYS_WARM_UP: {
+          Picasso picasso = (Picasso) msg.obj;
+          dispatcher.performWarmUp(picasso);
+          break;
+        }
         default:
           Picasso.HANDLER.post(new Runnable() {
             @Override public void run() {
@@ -388,6 +974,27 @@ class Dispatcher {
     }
   }
 
+  /**
+   * Posted to the main thread after each delivery. Once the main thread has no more messages it
+   * tells the dispatcher, which delivers the next result immediately instead of batching it.
+   */
+  static class MainThreadIdleWatcher implements Runnable, MessageQueue.IdleHandler {
+    private final Dispatcher dispatcher;
+
+    MainThreadIdleWatcher(Dispatcher dispatcher) {
+      this.dispatcher = dispatcher;
+    }
+
+    @Override public void run() {
+      Looper.myQueue().addIdleHandler(this);
+    }
+
+    @Override public boolean queueIdle() {
+      dispatcher.dispatchMainThreadIdle();
+      return false;
+    }
+  }
+
   static class DispatcherThread extends HandlerThread {
     DispatcherThread() {
       super(Utils.THREAD_PREFIX + DISPATCHER_THREAD_NAME, THREAD_PRIORITY_BACKGROUND);
@@ -0,0 +1,124 @@
+/*
+ * Copyright (C) 2014 Square, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.squareup.picasso;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * A least-recently used cache of encoded image bytes by URI. Compressed images are many times
+ * smaller than their decoded bitmaps, so this tier holds far more images than the memory cache
+ * and lets a miss there decode from memory instead of going back to the downloader.
+ */
+final class EncodedCache {
+  /** Entries larger than this share of the budget are not cached. */
+  static final int MAX_ENTRY_DIVISOR = 8;
+
+  final LinkedHashMap<String, byte[]> map = new LinkedHashMap<String, byte[]>(0, 0.75f, true);
+  private final int maxSize;
+
+  private int size;
+  private int hitCount;
+  private int missCount;
+
+  EncodedCache(int maxSize) {
+    if (maxSize <= 0) {
+      throw new IllegalArgumentException("Max size must be positive.");
+    }
+    this.maxSize = maxSize;
+  }
+
+  synchronized byte[] get(String uri) {
+    byte[] bytes = map.get(uri);
+    if (bytes != null) {
+      hitCount++;
+    } else {
+      missCount++;
+    }
+    return bytes;
+  }
+
+  /** Returns true if an entry of {@code length} bytes would be kept. */
+  boolean accepts(long length) {
+    return length > 0 && length <= maxEntrySize();
+  }
+
+  /** Returns the size of the largest entry which is kept. */
+  int maxEntrySize() {
+    return maxSize / MAX_ENTRY_DIVISOR;
+  }
+
+  synchronized void set(String uri, byte[] bytes) {
+    if (!accepts(bytes.length)) {
+      return;
+    }
+    byte[] previous = map.put(uri, bytes);
+    size += bytes.length;
+    if (previous != null) {
+      size -= previous.length;
+    }
+    trimToSize(maxSize);
+  }
+
+  synchronized void remove(String uri) {
+    byte[] previous = map.remove(uri);
+    if (previous != null) {
+      size -= previous.length;
+    }
+  }
+
+  /** Remove every entry whose URI starts with {@code prefix}. */
+  synchronized void removePrefix(String prefix) {
+    Iterator<Map.Entry<String, byte[]>> iterator = map.entrySet().iterator();
+    while (iterator.hasNext()) {
+      Map.Entry<String, byte[]> entry = iterator.next();
+      if (entry.getKey().startsWith(prefix)) {
+        iterator.remove();
+        size -= entry.getValue().length;
+      }
+    }
+  }
+
+  synchronized void trimToSize(int maxSize) {
+    Iterator<byte[]> iterator = map.values().iterator();
+    while (size > maxSize && iterator.hasNext()) {
+      size -= iterator.next().length;
+      iterator.remove();
+    }
+  }
+
+  synchronized void clear() {
+    map.clear();
+    size = 0;
+  }
+
+  synchronized int size() {
+    return size;
+  }
+
+  int maxSize() {
+    return maxSize;
+  }
+
+  synchronized int hitCount() {
+    return hitCount;
+  }
+
+  synchronized int missCount() {
+    return missCount;
+  }
+}
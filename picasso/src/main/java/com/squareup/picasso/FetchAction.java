@@ -18,8 +18,9 @@ package com.squareup.picasso;
 import android.graphics.Bitmap;
 
 class FetchAction extends Action<Void> {
-    FetchAction(Picasso picasso, Request data, boolean skipCache, String key) {
-        super(picasso, null, data, skipCache, false, 0, null, key);
+    FetchAction(Picasso picasso, Request data, boolean skipCache, String key, Object tag,
+        long deadline) {
+        super(picasso, null, data, skipCache, false, 0, null, key, tag, deadline);
     }
 
     @Override
@@ -0,0 +1,102 @@
+/*
+ * Copyright (C) 2014 Square, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.squareup.picasso;
+
+/**
+ * A count-min sketch estimating how often a key was seen recently. Four 4-bit counters are kept
+ * per key, packed sixteen to a {@code long}. Once enough increments have been recorded all
+ * counters are halved so that the estimate favors recent history.
+ * <p>
+ * This class is not thread safe.
+ */
+final class FrequencySketch {
+  private static final long RESET_MASK = 0x7777777777777777L;
+  private static final long ONE_MASK = 0x1111111111111111L;
+  private static final long[] SEEDS = {
+      0xc3a5c85c97cb3127L, 0xb492b66fbe98f273L, 0x9ae16a3b2f90404fL, 0xcbf29ce484222325L
+  };
+
+  final long[] table;
+  private final int tableMask;
+  private final int sampleSize;
+  private int additions;
+
+  /** Create a sketch sized for roughly {@code expectedEntries} distinct keys. */
+  FrequencySketch(int expectedEntries) {
+    int length = Integer.highestOneBit(Math.max(expectedEntries, 16) - 1) << 1;
+    table = new long[length];
+    tableMask = length - 1;
+    sampleSize = 10 * length;
+  }
+
+  /** Returns the estimated number of occurrences of {@code hash}, up to 15. */
+  int frequency(int hash) {
+    int item = spread(hash);
+    int start = (item & 3) << 2;
+    int frequency = 15;
+    for (int i = 0; i < 4; i++) {
+      int index = indexOf(item, i);
+      int count = (int) ((table[index] >>> ((start + i) << 2)) & 0xfL);
+      frequency = Math.min(frequency, count);
+    }
+    return frequency;
+  }
+
+  /** Record an occurrence of {@code hash}, aging all counters once the sample is full. */
+  void increment(int hash) {
+    int item = spread(hash);
+    int start = (item & 3) << 2;
+    boolean added = false;
+    for (int i = 0; i < 4; i++) {
+      added |= incrementAt(indexOf(item, i), start + i);
+    }
+    if (added && ++additions == sampleSize) {
+      reset();
+    }
+  }
+
+  private boolean incrementAt(int index, int counter) {
+    int offset = counter << 2;
+    long mask = 0xfL << offset;
+    if ((table[index] & mask) != mask) {
+      table[index] += 1L << offset;
+      return true;
+    }
+    return false;
+  }
+
+  /** Halve every counter. */
+  void reset() {
+    int odd = 0;
+    for (int i = 0; i < table.length; i++) {
+      odd += Long.bitCount(table[i] & ONE_MASK);
+      table[i] = (table[i] >>> 1) & RESET_MASK;
+    }
+    additions = (additions >>> 1) - (odd >>> 2);
+  }
+
+  private int indexOf(int item, int i) {
+    long hash = (item + SEEDS[i]) * SEEDS[i];
+    hash += hash >>> 32;
+    return ((int) hash) & tableMask;
+  }
+
+  private static int spread(int x) {
+    x = ((x >>> 16) ^ x) * 0x45d9f3b;
+    x = ((x >>> 16) ^ x) * 0x45d9f3b;
+    return (x >>> 16) ^ x;
+  }
+}
@@ -19,7 +19,7 @@ import android.graphics.Bitmap;
 
 class GetAction extends Action<Void> {
     GetAction(Picasso picasso, Request data, boolean skipCache, String key) {
-        super(picasso, null, data, skipCache, false, 0, null, key);
+        super(picasso, null, data, skipCache, false, 0, null, key, null, 0);
     }
 
     @Override
@@ -0,0 +1,277 @@
+/*
+ * Copyright (C) 2014 Square, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.squareup.picasso;
+
+import android.content.Context;
+import android.graphics.Bitmap;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeSet;
+
+import static com.squareup.picasso.Picasso.LoadedFrom.DISK;
+import static com.squareup.picasso.Picasso.LoadedFrom.NETWORK;
+
+/**
+ * A memory cache which weighs each entry by how expensive it would be to load again.
+ * <p>
+ * Every entry is given a priority of {@code L + cost / size} when it is stored or used, where the
+ * cost is measured by the {@link BitmapHunter} which loaded it and {@code L} is the priority of the
+ * last evicted entry. The entry with the lowest priority is evicted first, so cheap local bitmaps
+ * go before large downloads, while raising {@code L} lets expensive entries which are no longer
+ * used age out eventually (GreedyDual-Size).
+ */
+public class GreedyDualCache implements Cache, TrimmableCache, UriIndexedCache {
+  /** Base cost of a bitmap recreated from another memory cache entry. */
+  static final long MEMORY_COST = 1;
+  /** Base cost of a bitmap decoded from local storage. Also used when the cost is unknown. */
+  static final long DISK_COST = 10;
+  /** Base cost of a bitmap downloaded from the network. */
+  static final long NETWORK_COST = 100;
+
+  final Map<String, Entry> map = new HashMap<String, Entry>();
+  final TreeSet<Entry> queue = new TreeSet<Entry>();
+  final KeyIndex keyIndex = new KeyIndex();
+  final BitmapPool bitmapPool;
+  private final int maxSize;
+
+  private double inflation;
+  private long sequence;
+  private int size;
+  private int putCount;
+  private int evictionCount;
+  private int hitCount;
+  private int missCount;
+
+  /** Create a cache using an appropriate portion of the available RAM as the maximum size. */
+  public GreedyDualCache(Context context) {
+    this(Utils.calculateMemoryCacheSize(context), null);
+  }
+
+  /** Create a cache with a given maximum size in bytes. */
+  public GreedyDualCache(int maxSize) {
+    this(maxSize, null);
+  }
+
+  /**
+   * Create a cache with a given maximum size in bytes which holds a reference in {@code
+   * bitmapPool} to each cached bitmap until it is evicted. The pool may be {@code null}.
+   */
+  public GreedyDualCache(int maxSize, BitmapPool bitmapPool) {
+    if (maxSize <= 0) {
+      throw new IllegalArgumentException("Max size must be positive.");
+    }
+    this.maxSize = maxSize;
+    this.bitmapPool = bitmapPool;
+  }
+
+  /**
+   * Returns the cost of loading a bitmap again from {@code loadedFrom}, given that it took
+   * {@code millis} to load.
+   */
+  static long costOf(Picasso.LoadedFrom loadedFrom, long millis) {
+    long base;
+    if (loadedFrom == NETWORK) {
+      base = NETWORK_COST;
+    } else if (loadedFrom == DISK || loadedFrom == null) {
+      base = DISK_COST;
+    } else {
+      base = MEMORY_COST;
+    }
+    return base + Math.max(millis, 0);
+  }
+
+  @Override public Bitmap get(String key) {
+    if (key == null) {
+      throw new NullPointerException("key == null");
+    }
+
+    synchronized (this) {
+      Entry entry = map.get(key);
+      if (entry != null) {
+        hitCount++;
+        queue.remove(entry);
+        prioritize(entry);
+        queue.add(entry);
+        return entry.bitmap;
+      }
+      missCount++;
+    }
+    return null;
+  }
+
+  /** Store an image with the cost of a decode from local storage. */
+  @Override public void set(String key, Bitmap bitmap) {
+    set(key, bitmap, DISK_COST);
+  }
+
+  /** Store an image for the specified {@code key} which costs {@code cost} to load again. */
+  public void set(String key, Bitmap bitmap, long cost) {
+    if (key == null || bitmap == null) {
+      throw new NullPointerException("key == null || bitmap == null");
+    }
+
+    if (bitmapPool != null) {
+      bitmapPool.acquire(bitmap);
+    }
+
+    Entry previous;
+    synchronized (this) {
+      putCount++;
+      Entry entry = new Entry(key, bitmap, Utils.getBitmapBytes(bitmap), Math.max(cost, 1));
+      prioritize(entry);
+      previous = map.put(key, entry);
+      if (previous != null) {
+        queue.remove(previous);
+        size -= previous.size;
+      } else {
+        keyIndex.add(key);
+      }
+      queue.add(entry);
+      size += entry.size;
+    }
+
+    if (previous != null && bitmapPool != null) {
+      bitmapPool.release(previous.bitmap);
+    }
+    trimToSize(maxSize);
+  }
+
+  private void prioritize(Entry entry) {
+    entry.priority = inflation + entry.cost / (double) Math.max(entry.size, 1);
+    entry.sequence = sequence++;
+  }
+
+  @Override public void trimToSize(int maxSize) {
+    while (true) {
+      Entry entry;
+      synchronized (this) {
+        if (size <= maxSize || queue.isEmpty()) {
+          break;
+        }
+        entry = queue.pollFirst();
+        inflation = Math.max(inflation, entry.priority);
+        map.remove(entry.key);
+        keyIndex.remove(entry.key);
+        size -= entry.size;
+        evictionCount++;
+      }
+
+      if (bitmapPool != null) {
+        bitmapPool.release(entry.bitmap);
+      }
+    }
+  }
+
+  @Override public void clearKeyUri(String uri) {
+    List<Bitmap> removed;
+    synchronized (this) {
+      removed = remove(keyIndex.keysFor(uri));
+    }
+    release(removed);
+  }
+
+  @Override public void clearKeyUriPrefix(String prefix) {
+    List<Bitmap> removed;
+    synchronized (this) {
+      removed = remove(keyIndex.keysWithPrefix(prefix));
+    }
+    release(removed);
+  }
+
+  private List<Bitmap> remove(List<String> keys) {
+    List<Bitmap> removed = new ArrayList<Bitmap>(keys.size());
+    for (int i = 0, n = keys.size(); i < n; i++) {
+      String key = keys.get(i);
+      Entry entry = map.remove(key);
+      keyIndex.remove(key);
+      if (entry != null) {
+        queue.remove(entry);
+        size -= entry.size;
+        removed.add(entry.bitmap);
+      }
+    }
+    return removed;
+  }
+
+  private void release(List<Bitmap> removed) {
+    if (bitmapPool == null) {
+      return;
+    }
+    for (int i = 0, n = removed.size(); i < n; i++) {
+      bitmapPool.release(removed.get(i));
+    }
+  }
+
+  @Override public final void clear() {
+    trimToSize(-1); // -1 will evict 0-sized elements
+  }
+
+  /** Returns the sum of the sizes of the entries in this cache. */
+  @Override public final synchronized int size() {
+    return size;
+  }
+
+  /** Returns the maximum sum of the sizes of the entries in this cache. */
+  @Override public final synchronized int maxSize() {
+    return maxSize;
+  }
+
+  /** Returns the number of times {@link #get} returned a value. */
+  public final synchronized int hitCount() {
+    return hitCount;
+  }
+
+  /** Returns the number of times {@link #get} returned {@code null}. */
+  public final synchronized int missCount() {
+    return missCount;
+  }
+
+  /** Returns the number of times an image was stored. */
+  public final synchronized int putCount() {
+    return putCount;
+  }
+
+  /** Returns the number of values that have been evicted. */
+  public final synchronized int evictionCount() {
+    return evictionCount;
+  }
+
+  static final class Entry implements Comparable<Entry> {
+    final String key;
+    final Bitmap bitmap;
+    final int size;
+    final long cost;
+    double priority;
+    long sequence;
+
+    Entry(String key, Bitmap bitmap, int size, long cost) {
+      this.key = key;
+      this.bitmap = bitmap;
+      this.size = size;
+      this.cost = cost;
+    }
+
+    /** Lowest priority first, and the least recently used first among equals. */
+    @Override public int compareTo(Entry other) {
+      if (priority != other.priority) {
+        return priority < other.priority ? -1 : 1;
+      }
+      return sequence < other.sequence ? -1 : (sequence == other.sequence ? 0 : 1);
+    }
+  }
+}
@@ -0,0 +1,285 @@
+/*
+ * Copyright (C) 2014 Square, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.squareup.picasso;
+
+import android.graphics.Bitmap;
+import android.net.Uri;
+import android.os.SystemClock;
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileReader;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Counts how often each memory cache entry is used and periodically writes the most used ones to
+ * a file, together with the request parameters needed to load them again. On the next start
+ * {@link #loadWarmUp(int)} reads them back so they can be prefetched before the first screen asks
+ * for them.
+ * <p>
+ * Requests with custom transformations or for resources are not recorded: transformations can not
+ * be recreated from a file and resource IDs change between builds.
+ */
+final class HotKeyManifest {
+  static final String FILE_NAME = "picasso-hot-keys";
+  /** Maximum number of cache entries counted. */
+  static final int MAX_TRACKED = 256;
+  /** Maximum number of entries written to the file. */
+  static final int MAX_SAVED = 64;
+  static final long SAVE_INTERVAL = TimeUnit.MINUTES.toMillis(1);
+
+  private static final String VERSION = "picasso-hot-keys-1";
+  private static final String NONE = "-";
+  private static final int FIELD_COUNT = 12;
+
+  private static final Comparator<Entry> MOST_USED_FIRST = new Comparator<Entry>() {
+    @Override public int compare(Entry lhs, Entry rhs) {
+      return lhs.uses < rhs.uses ? 1 : (lhs.uses == rhs.uses ? 0 : -1);
+    }
+  };
+
+  final File file;
+  final int warmUpSize;
+  final Map<String, Entry> entries = new LinkedHashMap<String, Entry>(0, 0.75f, true) {
+    @Override protected boolean removeEldestEntry(Map.Entry<String, Entry> eldest) {
+      return size() > MAX_TRACKED;
+    }
+  };
+
+  /** Held while saving, so that a direct save does not overlap one in the background. */
+  private final Object saveLock = new Object();
+  /** Runs saves one after the other on a background thread, which exits when idle. */
+  private final ExecutorService saveService = new ThreadPoolExecutor(0, 1, 60, TimeUnit.SECONDS,
+      new LinkedBlockingQueue<Runnable>(), new Utils.PicassoThreadFactory());
+
+  private long lastSave;
+  private boolean dirty;
+
+  /** @param warmUpSize the maximum number of bytes prefetched on startup. */
+  HotKeyManifest(File file, int warmUpSize) {
+    this.file = file;
+    this.warmUpSize = warmUpSize;
+    this.lastSave = SystemClock.uptimeMillis();
+  }
+
+  /** Record that {@code bitmap} was loaded for {@code data} and cached under {@code key}. */
+  synchronized void recordLoad(String key, Request data, Bitmap bitmap) {
+    if (data.uri == null || data.hasCustomTransformations()) {
+      return;
+    }
+    String uri = data.uri.toString();
+    if (uri.indexOf('\t') != -1 || uri.indexOf('\n') != -1) {
+      return;
+    }
+    Entry entry = entries.get(key);
+    if (entry == null) {
+      entries.put(key, new Entry(data, Utils.getBitmapBytes(bitmap), 1));
+    } else {
+      entry.uses++;
+    }
+    dirty = true;
+  }
+
+  /** Record that the entry cached under {@code key} was used again. */
+  synchronized void recordHit(String key) {
+    Entry entry = entries.get(key);
+    if (entry != null) {
+      entry.uses++;
+      dirty = true;
+    }
+  }
+
+  /** Returns true if there are changes and the last save is at least {@link #SAVE_INTERVAL} ago. */
+  synchronized boolean isSaveDue() {
+    return dirty && SystemClock.uptimeMillis() - lastSave >= SAVE_INTERVAL;
+  }
+
+  /** Write the most used entries to the file without blocking the calling thread. */
+  void saveInBackground() {
+    saveService.execute(new Runnable() {
+      @Override public void run() {
+        save();
+      }
+    });
+  }
+
+  /** Write the most used entries to the file. Performs disk I/O. Saves run one at a time. */
+  void save() {
+    synchronized (saveLock) {
+      List<Entry> hottest;
+      synchronized (this) {
+        hottest = new ArrayList<Entry>(entries.size());
+        for (Entry entry : entries.values()) {
+          hottest.add(entry.copy());
+        }
+        dirty = false;
+        lastSave = SystemClock.uptimeMillis();
+      }
+      Collections.sort(hottest, MOST_USED_FIRST);
+
+      File temp = new File(file.getPath() + ".tmp");
+      BufferedWriter writer = null;
+      try {
+        writer = new BufferedWriter(new FileWriter(temp));
+        writer.write(VERSION);
+        writer.write('\n');
+        for (int i = 0, n = Math.min(hottest.size(), MAX_SAVED); i < n; i++) {
+          writer.write(hottest.get(i).toLine());
+          writer.write('\n');
+        }
+        writer.close();
+        writer = null;
+        if (!temp.renameTo(file)) {
+          temp.delete();
+        }
+      } catch (IOException ignored) {
+        temp.delete();
+      } finally {
+        if (writer != null) {
+          try {
+            writer.close();
+          } catch (IOException ignored) {
+          }
+        }
+      }
+    }
+  }
+
+  /**
+   * Read the saved entries, most used first, and return the requests of as many of them as fit
+   * into {@code maxSize} bytes. Performs disk I/O.
+   */
+  List<Request> loadWarmUp(int maxSize) {
+    List<Request> requests = new ArrayList<Request>();
+    if (!file.exists()) {
+      return requests;
+    }
+    BufferedReader reader = null;
+    try {
+      reader = new BufferedReader(new FileReader(file));
+      if (!VERSION.equals(reader.readLine())) {
+        return requests;
+      }
+      int total = 0;
+      String line;
+      while ((line = reader.readLine()) != null) {
+        Entry entry = Entry.fromLine(line);
+        if (entry == null) {
+          break;
+        }
+        if (total + entry.size > maxSize) {
+          continue;
+        }
+        total += entry.size;
+        requests.add(entry.data);
+      }
+    } catch (IOException ignored) {
+    } finally {
+      if (reader != null) {
+        try {
+          reader.close();
+        } catch (IOException ignored) {
+        }
+      }
+    }
+    return requests;
+  }
+
+  static final class Entry {
+    final Request data;
+    final int size;
+    int uses;
+
+    Entry(Request data, int size, int uses) {
+      this.data = data;
+      this.size = size;
+      this.uses = uses;
+    }
+
+    Entry copy() {
+      return new Entry(data, size, uses);
+    }
+
+    String toLine() {
+      StringBuilder builder = new StringBuilder();
+      builder.append(uses).append('\t')
+          .append(size).append('\t')
+          .append(data.uri).append('\t')
+          .append(data.targetWidth).append('\t')
+          .append(data.targetHeight).append('\t')
+          .append(data.centerCrop ? 1 : data.centerInside ? 2 : 0).append('\t')
+          .append(data.rotationDegrees).append('\t')
+          .append(data.hasRotationPivot ? 1 : 0).append('\t')
+          .append(data.rotationPivotX).append('\t')
+          .append(data.rotationPivotY).append('\t')
+          .append(data.config != null ? data.config.name() : NONE).append('\t')
+          .append(data.cachePartition != null ? data.cachePartition : NONE);
+      return builder.toString();
+    }
+
+    /** Returns the entry written by {@link #toLine()}, or {@code null} if it is malformed. */
+    static Entry fromLine(String line) {
+      String[] fields = line.split("\t", -1);
+      if (fields.length != FIELD_COUNT) {
+        return null;
+      }
+      try {
+        int uses = Integer.parseInt(fields[0]);
+        int size = Integer.parseInt(fields[1]);
+        Request.Builder builder =
+            new Request.Builder(Uri.parse(fields[2])).priority(Picasso.Priority.LOW);
+        int targetWidth = Integer.parseInt(fields[3]);
+        int targetHeight = Integer.parseInt(fields[4]);
+        if (targetWidth > 0) {
+          builder.resize(targetWidth, targetHeight);
+          int scale = Integer.parseInt(fields[5]);
+          if (scale == 1) {
+            builder.centerCrop();
+          } else if (scale == 2) {
+            builder.centerInside();
+          }
+        }
+        float rotation = Float.parseFloat(fields[6]);
+        if (Integer.parseInt(fields[7]) == 1) {
+          builder.rotate(rotation, Float.parseFloat(fields[8]), Float.parseFloat(fields[9]));
+        } else if (rotation != 0) {
+          builder.rotate(rotation);
+        }
+        if (!NONE.equals(fields[10])) {
+          builder.config(Bitmap.Config.valueOf(fields[10]));
+        }
+        if (!NONE.equals(fields[11])) {
+          builder.cachePartition(fields[11]);
+        }
+        return new Entry(builder.build(), size, uses);
+      } catch (IllegalArgumentException e) {
+        // Also covers NumberFormatException and unknown configs.
+        return null;
+      }
+    }
+  }
+}
@@ -31,8 +31,9 @@ class ImageViewAction extends Action<ImageView> {
 
   ImageViewAction(Picasso picasso, ImageView imageView, Request data, boolean skipCache,
       boolean noFade, boolean forceFade, int errorResId, Drawable errorDrawable, String key, Callback callback,
-      boolean round, int borderSize, int borderColor, int roundSize) {
-    super(picasso, imageView, data, skipCache, noFade, errorResId, errorDrawable, key);
+      boolean round, int borderSize, int borderColor, int roundSize, Object tag, long deadline) {
+    super(picasso, imageView, data, skipCache, noFade, errorResId, errorDrawable, key, tag,
+        deadline);
     this.callback = callback;
     this.round = round;
     this.borderSize = borderSize;
@@ -54,10 +55,11 @@ class ImageViewAction extends Action<ImageView> {
 
     Context context = picasso.context;
     boolean indicatorsEnabled = picasso.indicatorsEnabled;
+    BitmapPool pool = picasso.bitmapPool;
       if (round) {
-        PicassoRoundDrawable.setBitmap(target, context, result, from, noFade, forceFade, indicatorsEnabled, borderSize, borderColor, roundSize);
+        PicassoRoundDrawable.setBitmap(target, context, result, from, noFade, forceFade, indicatorsEnabled, borderSize, borderColor, roundSize, pool);
       } else {
-        PicassoDrawable.setBitmap(target, context, result, from, noFade, forceFade, indicatorsEnabled);
+        PicassoDrawable.setBitmap(target, context, result, from, noFade, forceFade, indicatorsEnabled, pool);
       }
 
     if (callback != null) {
@@ -70,17 +72,28 @@ class ImageViewAction extends Action<ImageView> {
     if (target == null) {
       return;
     }
+    Drawable previous = target.getDrawable();
     if (errorResId != 0) {
       target.setImageResource(errorResId);
     } else if (errorDrawable != null) {
       target.setImageDrawable(errorDrawable);
     }
+    if (target.getDrawable() != previous) {
+      PicassoDrawable.releaseBitmap(previous);
+    }
 
     if (callback != null) {
       callback.onError();
     }
   }
 
+  @Override void timedOut() {
+    if (callback instanceof TimeoutListener && target.get() != null) {
+      ((TimeoutListener) callback).onTimeout();
+    }
+    super.timedOut();
+  }
+
   @Override void cancel() {
     super.cancel();
     if (callback != null) {
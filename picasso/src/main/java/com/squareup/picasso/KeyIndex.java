@@ -0,0 +1,80 @@
+/*
+ * Copyright (C) 2014 Square, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.squareup.picasso;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.SortedMap;
+import java.util.TreeMap;
+
+/**
+ * Groups memory cache keys by their source, the part of a key before the first line break. This
+ * lets a cache find every variant of one URI without scanning all of its entries.
+ * <p>
+ * This class is not thread safe.
+ */
+final class KeyIndex {
+  static final char KEY_SEPARATOR = '\n';
+
+  final TreeMap<String, Set<String>> sources = new TreeMap<String, Set<String>>();
+
+  void add(String key) {
+    String source = sourceOf(key);
+    Set<String> keys = sources.get(source);
+    if (keys == null) {
+      keys = new HashSet<String>(4);
+      sources.put(source, keys);
+    }
+    keys.add(key);
+  }
+
+  void remove(String key) {
+    String source = sourceOf(key);
+    Set<String> keys = sources.get(source);
+    if (keys != null && keys.remove(key) && keys.isEmpty()) {
+      sources.remove(source);
+    }
+  }
+
+  /** Returns a copy of the keys created for {@code source}. */
+  List<String> keysFor(String source) {
+    Set<String> keys = sources.get(source);
+    return keys == null ? new ArrayList<String>(0) : new ArrayList<String>(keys);
+  }
+
+  /** Returns a copy of the keys whose source starts with {@code prefix}. */
+  List<String> keysWithPrefix(String prefix) {
+    List<String> result = new ArrayList<String>();
+    // Every string starting with the prefix sorts below the prefix followed by the largest char.
+    SortedMap<String, Set<String>> matches = sources.subMap(prefix, prefix + Character.MAX_VALUE);
+    for (Map.Entry<String, Set<String>> entry : matches.entrySet()) {
+      result.addAll(entry.getValue());
+    }
+    return result;
+  }
+
+  void clear() {
+    sources.clear();
+  }
+
+  static String sourceOf(String key) {
+    int separator = key.indexOf(KEY_SEPARATOR);
+    return separator == -1 ? key : key.substring(0, separator);
+  }
+}
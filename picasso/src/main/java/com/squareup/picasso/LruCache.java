@@ -18,37 +18,86 @@ package com.squareup.picasso;
 import android.content.Context;
 import android.graphics.Bitmap;
 
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.IdentityHashMap;
 import java.util.LinkedHashMap;
+import java.util.List;
 import java.util.Map;
+import java.util.Set;
+
+import static android.graphics.Bitmap.Config.ARGB_8888;
+import static android.graphics.Bitmap.Config.RGB_565;
 
 /**
  * A memory cache which uses a least-recently used eviction policy.
+ * <p>
+ * In degrade-before-evict mode {@link #trimToSize} first replaces the least recently used entries
+ * with copies of half their resolution, or in {@code RGB_565} if they can not be halved, and only
+ * evicts once there is nothing left to degrade. Copies are made without holding the cache's lock,
+ * so lookups are not blocked meanwhile. Since copying is slow, it is left to trims which run in
+ * the background, and {@link #set} only evicts. {@link #isDegraded} tells whether a bitmap is such
+ * a copy.
  */
-public class LruCache implements Cache {
+public class LruCache implements Cache, TrimmableCache, UriIndexedCache {
     final LinkedHashMap<String, Bitmap> map;
+    final KeyIndex keyIndex = new KeyIndex();
+    final BitmapPool bitmapPool;
+    final Set<Bitmap> degraded = Collections.newSetFromMap(new IdentityHashMap<Bitmap, Boolean>());
     private final int maxSize;
+    private final boolean degradeBeforeEvict;
 
     private int size;
+    /** Incremented whenever an entry is removed or replaced. */
+    private int version;
     private int putCount;
     private int evictionCount;
     private int hitCount;
     private int missCount;
+    private int degradeCount;
 
     /**
      * Create a cache using an appropriate portion of the available RAM as the maximum size.
      */
     public LruCache(Context context) {
-        this(Utils.calculateMemoryCacheSize(context));
+        this(context, null);
+    }
+
+    /**
+     * Create a cache using an appropriate portion of the available RAM as the maximum size which
+     * offers evicted bitmaps to {@code bitmapPool} for reuse.
+     */
+    public LruCache(Context context, BitmapPool bitmapPool) {
+        this(Utils.calculateMemoryCacheSize(context), bitmapPool);
     }
 
     /**
      * Create a cache with a given maximum size in bytes.
      */
     public LruCache(int maxSize) {
+        this(maxSize, null);
+    }
+
+    /**
+     * Create a cache with a given maximum size in bytes which holds a reference in {@code
+     * bitmapPool} to each cached bitmap until it is evicted. The pool may be {@code null}.
+     */
+    public LruCache(int maxSize, BitmapPool bitmapPool) {
+        this(maxSize, bitmapPool, false);
+    }
+
+    /**
+     * Create a cache with a given maximum size in bytes which, if {@code degradeBeforeEvict} is
+     * set, downsamples the least recently used entries to make room before evicting any. The pool
+     * may be {@code null}.
+     */
+    public LruCache(int maxSize, BitmapPool bitmapPool, boolean degradeBeforeEvict) {
         if (maxSize <= 0) {
             throw new IllegalArgumentException("Max size must be positive.");
         }
         this.maxSize = maxSize;
+        this.bitmapPool = bitmapPool;
+        this.degradeBeforeEvict = degradeBeforeEvict;
         this.map = new LinkedHashMap<String, Bitmap>(0, 0.75f, true);
     }
 
@@ -77,20 +126,43 @@ public class LruCache implements Cache {
             throw new NullPointerException("key == null || bitmap == null");
         }
 
+        if (bitmapPool != null) {
+            bitmapPool.acquire(bitmap);
+        }
+
         Bitmap previous;
         synchronized (this) {
             putCount++;
             size += Utils.getBitmapBytes(bitmap);
             previous = map.put(key, bitmap);
             if (previous != null) {
+                version++;
                 size -= Utils.getBitmapBytes(previous);
+                degraded.remove(previous);
+            } else {
+                keyIndex.add(key);
             }
         }
 
-        trimToSize(maxSize);
+        if (previous != null && bitmapPool != null) {
+            bitmapPool.release(previous);
+        }
+        evictToSize(maxSize);
     }
 
-    private void trimToSize(int maxSize) {
+    /**
+     * Shrink the cache to at most {@code maxSize} bytes. In degrade-before-evict mode this makes
+     * copies of bitmaps, so it should not be called from the main thread.
+     */
+    @Override
+    public void trimToSize(int maxSize) {
+        if (degradeBeforeEvict && maxSize > 0) {
+            degradeToSize(maxSize);
+        }
+        evictToSize(maxSize);
+    }
+
+    private void evictToSize(int maxSize) {
         while (true) {
             String key;
             Bitmap value;
@@ -108,12 +180,166 @@ public class LruCache implements Cache {
                 key = toEvict.getKey();
                 value = toEvict.getValue();
                 map.remove(key);
+                keyIndex.remove(key);
+                degraded.remove(value);
+                version++;
                 size -= Utils.getBitmapBytes(value);
                 evictionCount++;
             }
+
+            if (bitmapPool != null) {
+                bitmapPool.release(value);
+            }
+        }
+    }
+
+    /**
+     * Replace the least recently used entries which are not degraded yet with smaller copies
+     * until the size of the cache is at most {@code maxSize} bytes or nothing is left to degrade.
+     * The candidates are taken in a single pass, which stops early if entries are removed in the
+     * meantime.
+     */
+    private void degradeToSize(int maxSize) {
+        List<Map.Entry<String, Bitmap>> candidates = new ArrayList<Map.Entry<String, Bitmap>>();
+        int candidateVersion;
+        synchronized (this) {
+            if (size <= maxSize) {
+                return;
+            }
+            // Iterating does not change the access order, unlike get.
+            for (Map.Entry<String, Bitmap> entry : map.entrySet()) {
+                if (!degraded.contains(entry.getValue())) {
+                    candidates.add(entry);
+                }
+            }
+            candidateVersion = version;
+        }
+
+        for (int i = 0, n = candidates.size(); i < n; i++) {
+            Map.Entry<String, Bitmap> candidate = candidates.get(i);
+            Bitmap value;
+            synchronized (this) {
+                // Entries are only valid while none were removed or replaced in the meantime.
+                if (size <= maxSize || version != candidateVersion) {
+                    return;
+                }
+                value = candidate.getValue();
+                // Keep the bitmap out of the pool while it is copied, even if it is evicted.
+                if (bitmapPool != null) {
+                    bitmapPool.acquire(value);
+                }
+            }
+
+            Bitmap smaller = degrade(value);
+            if (smaller == null) {
+                if (bitmapPool != null) {
+                    bitmapPool.release(value);
+                }
+                continue;
+            }
+            if (bitmapPool != null) {
+                bitmapPool.acquire(smaller);
+            }
+
+            boolean replaced = false;
+            synchronized (this) {
+                if (version == candidateVersion) {
+                    candidate.setValue(smaller);
+                    degraded.add(smaller);
+                    size += Utils.getBitmapBytes(smaller) - Utils.getBitmapBytes(value);
+                    degradeCount++;
+                    replaced = true;
+                }
+            }
+
+            if (bitmapPool != null) {
+                bitmapPool.release(value);
+                bitmapPool.release(replaced ? value : smaller);
+            }
+            if (!replaced) {
+                return;
+            }
         }
     }
 
+    /**
+     * Returns a copy of {@code bitmap} with half its resolution, or in {@code RGB_565} if it is
+     * too small to be halved, or {@code null} if it can not be made smaller.
+     */
+    static Bitmap degrade(Bitmap bitmap) {
+        int width = bitmap.getWidth();
+        int height = bitmap.getHeight();
+        try {
+            if (width >= 2 && height >= 2) {
+                return Bitmap.createScaledBitmap(bitmap, width / 2, height / 2, true);
+            }
+            if (bitmap.getConfig() == ARGB_8888 && !bitmap.hasAlpha()) {
+                return bitmap.copy(RGB_565, false);
+            }
+        } catch (OutOfMemoryError ignored) {
+        }
+        return null;
+    }
+
+    @Override
+    public void clearKeyUri(String uri) {
+        List<Bitmap> removed;
+        synchronized (this) {
+            removed = remove(keyIndex.keysFor(uri));
+        }
+        release(removed);
+    }
+
+    @Override
+    public void clearKeyUriPrefix(String prefix) {
+        List<Bitmap> removed;
+        synchronized (this) {
+            removed = remove(keyIndex.keysWithPrefix(prefix));
+        }
+        release(removed);
+    }
+
+    private List<Bitmap> remove(List<String> keys) {
+        List<Bitmap> removed = new ArrayList<Bitmap>(keys.size());
+        for (int i = 0, n = keys.size(); i < n; i++) {
+            String key = keys.get(i);
+            Bitmap value = map.remove(key);
+            keyIndex.remove(key);
+            if (value != null) {
+                degraded.remove(value);
+                version++;
+                size -= Utils.getBitmapBytes(value);
+                removed.add(value);
+            }
+        }
+        return removed;
+    }
+
+    private void release(List<Bitmap> removed) {
+        if (bitmapPool == null) {
+            return;
+        }
+        for (int i = 0, n = removed.size(); i < n; i++) {
+            bitmapPool.release(removed.get(i));
+        }
+    }
+
+    /**
+     * Returns true if {@code bitmap} is a degraded copy stored in place of the original image.
+     * Callers which need the full quality can {@link Picasso#invalidate(android.net.Uri)
+     * invalidate} the image and load it again.
+     */
+    public final synchronized boolean isDegraded(Bitmap bitmap) {
+        return degraded.contains(bitmap);
+    }
+
+    /**
+     * Returns true if this cache degrades entries before evicting them.
+     */
+    public final boolean degradesBeforeEvict() {
+        return degradeBeforeEvict;
+    }
+
     /**
      * Clear the cache.
      */
@@ -166,4 +392,11 @@ public class LruCache implements Cache {
     public final synchronized int evictionCount() {
         return evictionCount;
     }
+
+    /**
+     * Returns the number of values that have been replaced by degraded copies.
+     */
+    public final synchronized int degradeCount() {
+        return degradeCount;
+    }
 }
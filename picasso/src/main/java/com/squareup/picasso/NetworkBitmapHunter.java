@@ -18,21 +18,34 @@ package com.squareup.picasso;
 import android.graphics.Bitmap;
 import android.graphics.BitmapFactory;
 import android.net.NetworkInfo;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
+import java.io.SequenceInputStream;
 
 import static com.squareup.picasso.Downloader.Response;
 import static com.squareup.picasso.Picasso.LoadedFrom.DISK;
+import static com.squareup.picasso.Picasso.LoadedFrom.MEMORY;
 import static com.squareup.picasso.Picasso.LoadedFrom.NETWORK;
 
 class NetworkBitmapHunter extends BitmapHunter {
   static final int DEFAULT_RETRY_COUNT = 2;
   private static final int MARKER = 65536*2;
+  /** Bodies larger than this, or than the encoded cache keeps, are streamed by the decode stage. */
+  static final int MAX_BUFFERED_BYTES = 1024 * 1024;
 
   private final Downloader downloader;
 
   int retryCount;
 
+  // Set by the fetch stage and consumed by the decode stage.
+  boolean fetched;
+  boolean fetchedFromEncodedCache;
+  byte[] fetchedBytes;
+  InputStream fetchedStream;
+  Bitmap fetchedBitmap;
+
   public NetworkBitmapHunter(Picasso picasso, Dispatcher dispatcher, Cache cache, Stats stats,
       Action action, Downloader downloader) {
     super(picasso, dispatcher, cache, stats, action);
@@ -40,7 +53,188 @@ class NetworkBitmapHunter extends BitmapHunter {
     this.retryCount = DEFAULT_RETRY_COUNT;
   }
 
+  @Override boolean needsFetch() {
+    return !fetched;
+  }
+
+  /**
+   * Read the response into memory, or take the bytes from the encoded cache. A body too large to
+   * buffer is left open for the decode stage to stream.
+   */
+  @Override void fetch() throws IOException {
+    fetchedBytes = null;
+    fetchedStream = null;
+    fetchedBitmap = null;
+    fetchedFromEncodedCache = false;
+
+    EncodedCache encodedCache = picasso.encodedCache;
+    if (encodedCache != null) {
+      byte[] bytes = encodedCache.get(data.uri.toString());
+      if (bytes != null) {
+        loadedFrom = MEMORY;
+        fetchedBytes = bytes;
+        fetchedFromEncodedCache = true;
+        fetched = true;
+        return;
+      }
+    }
+
+    Response response = load();
+    if (response != null) {
+      fetchedBitmap = response.getBitmap();
+      if (fetchedBitmap == null) {
+        InputStream is = response.getInputStream();
+        long contentLength = response.getContentLength();
+        int limit = bufferLimit(encodedCache);
+        if (contentLength > limit) {
+          fetchedStream = is;
+        } else {
+          boolean buffered = false;
+          try {
+            ByteArrayOutputStream output = new ByteArrayOutputStream();
+            buffered = readFully(is, contentLength, limit, output);
+            if (buffered) {
+              fetchedBytes = output.toByteArray();
+            } else {
+              fetchedStream = new SequenceInputStream(
+                  new ByteArrayInputStream(output.toByteArray()), is);
+            }
+          } finally {
+            if (fetchedStream == null) {
+              Utils.closeQuietly(is);
+            }
+          }
+        }
+      }
+    }
+    fetched = true;
+  }
+
+  /** Returns the most bytes of a body which are read into memory rather than streamed. */
+  private static int bufferLimit(EncodedCache encodedCache) {
+    if (encodedCache == null) {
+      return MAX_BUFFERED_BYTES;
+    }
+    return Math.max(MAX_BUFFERED_BYTES, encodedCache.maxEntrySize());
+  }
+
+  @Override void releaseFetched() {
+    Utils.closeQuietly(fetchedStream);
+    fetched = false;
+    fetchedBytes = null;
+    fetchedStream = null;
+    fetchedBitmap = null;
+  }
+
+  @Override void shareFetched(BitmapHunter source) {
+    if (!(source instanceof NetworkBitmapHunter)) {
+      return;
+    }
+    NetworkBitmapHunter other = (NetworkBitmapHunter) source;
+    // A bitmap from the downloader is not shared, since transforming it may recycle it.
+    if (!other.fetched || other.fetchedBytes == null) {
+      return;
+    }
+    loadedFrom = other.loadedFrom;
+    fetchedBytes = other.fetchedBytes;
+    fetchedFromEncodedCache = other.fetchedFromEncodedCache;
+    fetched = true;
+  }
+
+  @Override Bitmap hunt() throws IOException {
+    try {
+      return super.hunt();
+    } finally {
+      // A retry has to read the source again, and the bytes should not outlive the decode.
+      releaseFetched();
+    }
+  }
+
   @Override Bitmap decode(Request data) throws IOException {
+    EncodedCache encodedCache = picasso.encodedCache;
+    if (fetched) {
+      if (fetchedStream != null) {
+        InputStream is = fetchedStream;
+        fetchedStream = null;
+        // The stream can be read only once. A second decode, after the decoder refused a pooled
+        // bitmap, loads the source again.
+        fetched = false;
+        try {
+          return decodeStream(is, data);
+        } finally {
+          Utils.closeQuietly(is);
+        }
+      }
+      if (fetchedBitmap != null || fetchedBytes == null) {
+        return fetchedBitmap;
+      }
+      Bitmap bitmap = decodeBytes(fetchedBytes, data);
+      if (bitmap != null) {
+        if (!fetchedFromEncodedCache && encodedCache != null
+            && encodedCache.accepts(fetchedBytes.length)) {
+          encodedCache.set(data.uri.toString(), fetchedBytes);
+        }
+        return bitmap;
+      }
+      if (!fetchedFromEncodedCache) {
+        throw new IOException("Failed to decode stream.");
+      }
+      // Drop bytes which no longer decode and fall back to the downloader.
+      encodedCache.remove(data.uri.toString());
+      fetched = false;
+    } else if (encodedCache != null) {
+      byte[] bytes = encodedCache.get(data.uri.toString());
+      if (bytes != null) {
+        Bitmap bitmap = decodeBytes(bytes, data);
+        if (bitmap != null) {
+          loadedFrom = MEMORY;
+          return bitmap;
+        }
+        // Drop bytes which no longer decode and fall back to the downloader.
+        encodedCache.remove(data.uri.toString());
+      }
+    }
+
+    Response response = load();
+    if (response == null) {
+      return null;
+    }
+
+    Bitmap result = response.getBitmap();
+    if (result != null) {
+      return result;
+    }
+
+    InputStream is = response.getInputStream();
+    try {
+      // Bodies the encoded cache keeps are read in full, and oversized ones are only decoded. A
+      // body of unknown length is streamed once it turns out to be too large to cache.
+      long contentLength = response.getContentLength();
+      if (encodedCache != null && (contentLength < 0 || encodedCache.accepts(contentLength))) {
+        ByteArrayOutputStream output = new ByteArrayOutputStream();
+        if (!readFully(is, contentLength, encodedCache.maxEntrySize(), output)) {
+          InputStream rest = new ByteArrayInputStream(output.toByteArray());
+          return decodeStream(new SequenceInputStream(rest, is), data);
+        }
+        byte[] bytes = output.toByteArray();
+        Bitmap bitmap = decodeBytes(bytes, data);
+        if (bitmap == null) {
+          throw new IOException("Failed to decode stream.");
+        }
+        encodedCache.set(data.uri.toString(), bytes);
+        return bitmap;
+      }
+      return decodeStream(is, data);
+    } finally {
+      Utils.closeQuietly(is);
+    }
+  }
+
+  /**
+   * Returns the downloader's response with either a bitmap or a body to read, or {@code null} if
+   * it has neither.
+   */
+  private Response load() throws IOException {
     boolean loadFromLocalCacheOnly = retryCount == 0;
 
     Response response = downloader.load(data.uri, loadFromLocalCacheOnly);
@@ -50,9 +244,8 @@ class NetworkBitmapHunter extends BitmapHunter {
 
     loadedFrom = response.cached ? DISK : NETWORK;
 
-    Bitmap result = response.getBitmap();
-    if (result != null) {
-      return result;
+    if (response.getBitmap() != null) {
+      return response;
     }
 
     InputStream is = response.getInputStream();
@@ -68,11 +261,28 @@ class NetworkBitmapHunter extends BitmapHunter {
     if (loadedFrom == NETWORK && response.getContentLength() > 0) {
       stats.dispatchDownloadFinished(response.getContentLength());
     }
-    try {
-      return decodeStream(is, data);
-    } finally {
-      Utils.closeQuietly(is);
+    return response;
+  }
+
+  /**
+   * Read {@code stream} to its end into {@code output}, or return false as soon as more than
+   * {@code limit} bytes were read. Cancellation is checked after every buffer so that an abandoned
+   * download stops early, and whatever was read so far is dropped.
+   */
+  private boolean readFully(InputStream stream, long contentLength, int limit,
+      ByteArrayOutputStream output) throws IOException {
+    byte[] buffer = new byte[1024 * 4];
+    long read = 0;
+    int n;
+    while (-1 != (n = stream.read(buffer))) {
+      output.write(buffer, 0, n);
+      read += n;
+      checkCancelled(contentLength > read ? contentLength - read : 0);
+      if (read > limit) {
+        return false;
+      }
     }
+    return true;
   }
 
   @Override boolean shouldRetry(boolean airplaneMode, NetworkInfo info) {
@@ -94,7 +304,7 @@ class NetworkBitmapHunter extends BitmapHunter {
 
     long mark = markStream.savePosition(MARKER);
 
-    final BitmapFactory.Options options = createBitmapOptions(data);
+    final BitmapFactory.Options options = createDecodeOptions(data);
     final boolean calculateSize = requiresInSampleSize(options);
 
     boolean isWebPFile = Utils.isWebPFile(stream);
@@ -102,16 +312,11 @@ class NetworkBitmapHunter extends BitmapHunter {
     // When decode WebP network stream, BitmapFactory throw JNI Exception and make app crash.
     // Decode byte array instead
     if (isWebPFile) {
-      byte[] bytes = Utils.toByteArray(stream);
-      if (calculateSize) {
-        BitmapFactory.decodeByteArray(bytes, 0, bytes.length, options);
-        calculateInSampleSize(data.targetWidth, data.targetHeight, options);
-      }
-      return BitmapFactory.decodeByteArray(bytes, 0, bytes.length, options);
+      return decodeBytes(Utils.toByteArray(stream), data, options);
     } else {
       if (calculateSize) {
         BitmapFactory.decodeStream(stream, null, options);
-        calculateInSampleSize(data.targetWidth, data.targetHeight, options);
+        prepareDecodeOptions(data, options);
 
         markStream.reset(mark);
       }
@@ -123,4 +328,17 @@ class NetworkBitmapHunter extends BitmapHunter {
       return bitmap;
     }
   }
+
+  private Bitmap decodeBytes(byte[] bytes, Request data) throws IOException {
+    return decodeBytes(bytes, data, createDecodeOptions(data));
+  }
+
+  private Bitmap decodeBytes(byte[] bytes, Request data, BitmapFactory.Options options)
+      throws IOException {
+    if (requiresInSampleSize(options)) {
+      BitmapFactory.decodeByteArray(bytes, 0, bytes.length, options);
+      prepareDecodeOptions(data, options);
+    }
+    return BitmapFactory.decodeByteArray(bytes, 0, bytes.length, options);
+  }
 }
@@ -0,0 +1,165 @@
+/*
+ * Copyright (C) 2014 Square, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.squareup.picasso;
+
+import android.graphics.Bitmap;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
+import static com.squareup.picasso.KeyIndex.KEY_SEPARATOR;
+import static java.util.Collections.unmodifiableList;
+
+/**
+ * A memory cache which keeps the images of named partitions apart from all others, each within a
+ * byte budget of its own. Keys are routed by the partition line which {@link Utils#createKey}
+ * writes right after the source. Keys without one, or naming an unknown partition, are stored in
+ * the default cache.
+ */
+final class PartitionedCache implements Cache, TrimmableCache, UriIndexedCache {
+  static final String PARTITION_PREFIX = "partition:";
+
+  final Cache defaultCache;
+  final String[] names;
+  final LruCache[] partitions;
+
+  /**
+   * @param maxSizes the byte budget of each partition by name.
+   * @param degradeBeforeEvict whether partitions degrade their entries before evicting them.
+   */
+  PartitionedCache(Cache defaultCache, Map<String, Integer> maxSizes, BitmapPool bitmapPool,
+      boolean degradeBeforeEvict) {
+    this.defaultCache = defaultCache;
+    this.names = new String[maxSizes.size()];
+    this.partitions = new LruCache[maxSizes.size()];
+    int i = 0;
+    for (Map.Entry<String, Integer> entry : maxSizes.entrySet()) {
+      names[i] = entry.getKey();
+      partitions[i] = new LruCache(entry.getValue(), bitmapPool, degradeBeforeEvict);
+      i++;
+    }
+  }
+
+  @Override public Bitmap get(String key) {
+    return cacheFor(key).get(key);
+  }
+
+  @Override public void set(String key, Bitmap bitmap) {
+    if (key == null || bitmap == null) {
+      throw new NullPointerException("key == null || bitmap == null");
+    }
+    cacheFor(key).set(key, bitmap);
+  }
+
+  Cache cacheFor(String key) {
+    if (key == null) {
+      throw new NullPointerException("key == null");
+    }
+    int separator = key.indexOf(KEY_SEPARATOR);
+    if (separator == -1 || !key.startsWith(PARTITION_PREFIX, separator + 1)) {
+      return defaultCache;
+    }
+    int start = separator + 1 + PARTITION_PREFIX.length();
+    for (int i = 0; i < names.length; i++) {
+      String name = names[i];
+      int end = start + name.length();
+      if (key.regionMatches(start, name, 0, name.length())
+          && (end == key.length() || key.charAt(end) == KEY_SEPARATOR)) {
+        return partitions[i];
+      }
+    }
+    return defaultCache;
+  }
+
+  @Override public int size() {
+    int size = defaultCache.size();
+    for (LruCache partition : partitions) {
+      size += partition.size();
+    }
+    return size;
+  }
+
+  @Override public int maxSize() {
+    int maxSize = defaultCache.maxSize();
+    for (LruCache partition : partitions) {
+      maxSize += partition.maxSize();
+    }
+    return maxSize;
+  }
+
+  @Override public void clear() {
+    defaultCache.clear();
+    for (LruCache partition : partitions) {
+      partition.clear();
+    }
+  }
+
+  /** Shrink every partition and the default cache by the same share of their budgets. */
+  @Override public void trimToSize(int maxSize) {
+    int totalMaxSize = maxSize();
+    float fraction = totalMaxSize <= 0 ? 0f : Math.max(maxSize, 0) / (float) totalMaxSize;
+    Utils.trimCache(defaultCache, (int) (defaultCache.maxSize() * fraction));
+    for (LruCache partition : partitions) {
+      partition.trimToSize((int) (partition.maxSize() * fraction));
+    }
+  }
+
+  @Override public void clearKeyUri(String uri) {
+    Utils.clearKeyUri(defaultCache, uri);
+    for (LruCache partition : partitions) {
+      partition.clearKeyUri(uri);
+    }
+  }
+
+  @Override public void clearKeyUriPrefix(String prefix) {
+    Utils.clearKeyUriPrefix(defaultCache, prefix);
+    for (LruCache partition : partitions) {
+      partition.clearKeyUriPrefix(prefix);
+    }
+  }
+
+  /** Returns true if {@code bitmap} is a degraded copy in the default cache or a partition. */
+  boolean isDegraded(Bitmap bitmap) {
+    if (defaultCache instanceof LruCache && ((LruCache) defaultCache).isDegraded(bitmap)) {
+      return true;
+    }
+    for (LruCache partition : partitions) {
+      if (partition.isDegraded(bitmap)) {
+        return true;
+      }
+    }
+    return false;
+  }
+
+  /** Returns true if the default cache or any partition degrades entries before evicting. */
+  boolean degradesBeforeEvict() {
+    if (defaultCache instanceof LruCache && ((LruCache) defaultCache).degradesBeforeEvict()) {
+      return true;
+    }
+    return partitions.length > 0 && partitions[0].degradesBeforeEvict();
+  }
+
+  List<StatsSnapshot.PartitionStats> createPartitionStats() {
+    List<StatsSnapshot.PartitionStats> stats =
+        new ArrayList<StatsSnapshot.PartitionStats>(partitions.length);
+    for (int i = 0; i < partitions.length; i++) {
+      LruCache partition = partitions[i];
+      stats.add(new StatsSnapshot.PartitionStats(names[i], partition.maxSize(), partition.size(),
+          partition.hitCount(), partition.missCount(), partition.evictionCount()));
+    }
+    return unmodifiableList(stats);
+  }
+}
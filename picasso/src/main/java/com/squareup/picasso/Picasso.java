@@ -15,7 +15,10 @@
  */
 package com.squareup.picasso;
 
+import android.annotation.TargetApi;
+import android.content.ComponentCallbacks2;
 import android.content.Context;
+import android.content.res.Configuration;
 import android.graphics.Bitmap;
 import android.graphics.Color;
 import android.net.Uri;
@@ -26,15 +29,28 @@ import android.os.Process;
 import android.widget.ImageView;
 import java.io.File;
 import java.lang.ref.ReferenceQueue;
+import java.util.Collections;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.WeakHashMap;
 import java.util.concurrent.ExecutorService;
-
+import java.util.concurrent.TimeoutException;
+
+import static android.content.ComponentCallbacks2.TRIM_MEMORY_BACKGROUND;
+import static android.content.ComponentCallbacks2.TRIM_MEMORY_COMPLETE;
+import static android.content.ComponentCallbacks2.TRIM_MEMORY_MODERATE;
+import static android.content.ComponentCallbacks2.TRIM_MEMORY_RUNNING_CRITICAL;
+import static android.content.ComponentCallbacks2.TRIM_MEMORY_RUNNING_LOW;
+import static android.content.ComponentCallbacks2.TRIM_MEMORY_RUNNING_MODERATE;
+import static android.content.ComponentCallbacks2.TRIM_MEMORY_UI_HIDDEN;
+import static android.os.Build.VERSION.SDK_INT;
+import static android.os.Build.VERSION_CODES.ICE_CREAM_SANDWICH;
 import static android.os.Process.THREAD_PRIORITY_BACKGROUND;
 import static com.squareup.picasso.Action.RequestWeakReference;
 import static com.squareup.picasso.Dispatcher.HUNTER_BATCH_COMPLETE;
 import static com.squareup.picasso.Dispatcher.REQUEST_GCED;
+import static com.squareup.picasso.Dispatcher.REQUEST_TIMED_OUT;
 import static com.squareup.picasso.Utils.OWNER_MAIN;
 import static com.squareup.picasso.Utils.THREAD_PREFIX;
 import static com.squareup.picasso.Utils.VERB_COMPLETED;
@@ -103,6 +119,11 @@ public class Picasso {
           action.picasso.cancelExistingRequest(action.getTarget());
           break;
         }
+        case REQUEST_TIMED_OUT: {
+          Action action = (Action) msg.obj;
+          action.picasso.timedOut(action);
+          break;
+        }
         default:
           throw new AssertionError("Unknown handler message received: " + msg.what);
       }
@@ -118,32 +139,51 @@ public class Picasso {
   final Context context;
   final Dispatcher dispatcher;
   final Cache cache;
+  final BitmapPool bitmapPool;
+  final EncodedCache encodedCache;
+  final HotKeyManifest hotKeys;
   final Stats stats;
+  final ActiveResources activeResources;
+  final CompactKeyFactory keyFactory;
   final Map<Object, Action> targetToAction;
   final Map<ImageView, DeferredRequestCreator> targetToDeferredRequestCreator;
   final ReferenceQueue<Object> referenceQueue;
+  final MemoryCallbacks memoryCallbacks;
 
   boolean indicatorsEnabled;
   volatile boolean loggingEnabled;
 
   boolean shutdown;
 
-  Picasso(Context context, Dispatcher dispatcher, Cache cache, Listener listener,
-      RequestTransformer requestTransformer, Stats stats, boolean indicatorsEnabled,
-      boolean loggingEnabled) {
+  Picasso(Context context, Dispatcher dispatcher, Cache cache, BitmapPool bitmapPool,
+      EncodedCache encodedCache, HotKeyManifest hotKeys, Listener listener,
+      RequestTransformer requestTransformer, Stats stats, boolean compactKeys,
+      boolean indicatorsEnabled, boolean loggingEnabled) {
     this.context = context;
     this.dispatcher = dispatcher;
     this.cache = cache;
+    this.bitmapPool = bitmapPool;
+    this.encodedCache = encodedCache;
+    this.hotKeys = hotKeys;
     this.listener = listener;
     this.requestTransformer = requestTransformer;
     this.stats = stats;
-    this.targetToAction = new WeakHashMap<Object, Action>();
+    this.activeResources = new ActiveResources();
+    this.keyFactory = compactKeys ? new CompactKeyFactory() : null;
+    // Targets may be bound from any thread, while results are delivered on the main thread.
+    this.targetToAction = Collections.synchronizedMap(new WeakHashMap<Object, Action>());
     this.targetToDeferredRequestCreator = new WeakHashMap<ImageView, DeferredRequestCreator>();
     this.indicatorsEnabled = indicatorsEnabled;
     this.loggingEnabled = loggingEnabled;
     this.referenceQueue = new ReferenceQueue<Object>();
     this.cleanupThread = new CleanupThread(referenceQueue, HANDLER);
     this.cleanupThread.start();
+    if (SDK_INT >= ICE_CREAM_SANDWICH) {
+      this.memoryCallbacks = new MemoryCallbacks(this);
+      context.registerComponentCallbacks(memoryCallbacks);
+    } else {
+      this.memoryCallbacks = null;
+    }
   }
 
   /** Cancel any existing requests for the specified target {@link ImageView}. */
@@ -151,11 +191,91 @@ public class Picasso {
     cancelExistingRequest(view);
   }
 
-  /** Cancel any existing requests for the specified {@link Target} instance. */
+  /**
+   * Cancel any existing requests for the specified {@link Target} instance. Safe to call from any
+   * thread.
+   */
   public void cancelRequest(Target target) {
     cancelExistingRequest(target);
   }
 
+  /**
+   * Hold back requests with {@code tag} until {@link #resumeTag(Object)} is called with the same
+   * tag. Requests which have not started loading yet are parked, for example while a list is
+   * flung, so that the frames are drawn without competing for CPU and I/O.
+   *
+   * @see RequestCreator#tag(Object)
+   */
+  public void pauseTag(Object tag) {
+    if (tag == null) {
+      throw new IllegalArgumentException("tag == null");
+    }
+    dispatcher.dispatchPauseTag(tag);
+  }
+
+  /**
+   * Let requests with {@code tag} through again, highest priority first.
+   *
+   * @see #pauseTag(Object)
+   */
+  public void resumeTag(Object tag) {
+    if (tag == null) {
+      throw new IllegalArgumentException("tag == null");
+    }
+    dispatcher.dispatchResumeTag(tag);
+  }
+
+  /**
+   * Remove every size and transformation of {@code uri} from the memory cache, so that it is
+   * loaded again the next time it is requested.
+   */
+  public void invalidate(Uri uri) {
+    if (uri == null) {
+      throw new IllegalArgumentException("uri == null");
+    }
+    invalidateSource(uri.toString());
+    if (encodedCache != null) {
+      encodedCache.remove(uri.toString());
+    }
+    if (keyFactory != null) {
+      invalidateSource(CompactKeyFactory.createSource(uri));
+    }
+  }
+
+  /**
+   * Remove every image whose URI starts with {@code prefix} from the memory cache.
+   * <p>
+   * <em>Note:</em> Compact keys do not contain the URI, so images cached while {@link
+   * Builder#compactKeys(boolean)} is enabled can only be removed with {@link #invalidate(Uri)}.
+   */
+  public void invalidate(String prefix) {
+    if (prefix == null) {
+      throw new IllegalArgumentException("prefix == null");
+    }
+    Utils.clearKeyUriPrefix(cache, prefix);
+    activeResources.removeKeyUriPrefix(prefix);
+    if (encodedCache != null) {
+      encodedCache.removePrefix(prefix);
+    }
+  }
+
+  /**
+   * Returns true if {@code bitmap} was delivered from the memory cache as a degraded copy, which
+   * only happens when {@link Builder#degradeBeforeEvict(boolean)} is enabled. Callers which need
+   * full quality can {@link #invalidate(Uri) invalidate} the image and load it again.
+   */
+  public boolean isDegraded(Bitmap bitmap) {
+    if (cache instanceof PartitionedCache) {
+      return ((PartitionedCache) cache).isDegraded(bitmap);
+    }
+    return cache instanceof LruCache && ((LruCache) cache).isDegraded(bitmap);
+  }
+
+  private void invalidateSource(String source) {
+    Utils.clearKeyUri(cache, source);
+    activeResources.removeKeyUri(source);
+  }
+
   /**
    * Start an image request using the specified URI.
    * <p>
@@ -293,7 +413,17 @@ public class Picasso {
       return;
     }
     cache.clear();
+    activeResources.clear();
+    if (bitmapPool != null) {
+      bitmapPool.clear();
+    }
+    if (encodedCache != null) {
+      encodedCache.clear();
+    }
     cleanupThread.shutdown();
+    if (memoryCallbacks != null) {
+      context.unregisterComponentCallbacks(memoryCallbacks);
+    }
     stats.shutdown();
     dispatcher.shutdown();
     for (DeferredRequestCreator deferredRequestCreator : targetToDeferredRequestCreator.values()) {
@@ -321,7 +451,7 @@ public class Picasso {
   void enqueueAndSubmit(Action action) {
     Object target = action.getTarget();
     if (target != null) {
-      // This will also check we are on the main thread.
+      // This will also check we are on the main thread if the target is a view.
       cancelExistingRequest(target);
       targetToAction.put(target, action);
     }
@@ -334,15 +464,105 @@ public class Picasso {
 
   Bitmap quickMemoryCacheCheck(String key) {
     Bitmap cached = cache.get(key);
+    if (cached == null) {
+      // The cache may have evicted an image which is still displayed somewhere. Reuse it instead
+      // of decoding it again. It is not put back into the cache here, since inserting may evict
+      // on the main thread.
+      cached = activeResources.get(key);
+      if (cached != null && bitmapPool != null && !bitmapPool.isAcquired(cached)) {
+        // Its last owner released it into the pool, where it may already have been reused.
+        cached = null;
+      }
+    }
     if (cached != null) {
       stats.dispatchCacheHit();
+      if (hotKeys != null) {
+        hotKeys.recordHit(key);
+      }
     } else {
       stats.dispatchCacheMiss();
     }
     return cached;
   }
 
+  /**
+   * Give up memory according to a {@link ComponentCallbacks2} trim {@code level}: shrink the
+   * memory cache and the bitmap pool and drop queued prefetches, each proportionally.
+   */
+  void trimMemory(int level) {
+    if (hotKeys != null && level >= TRIM_MEMORY_UI_HIDDEN) {
+      // The process may be killed from here on, keep what was hot in this session.
+      hotKeys.saveInBackground();
+    }
+    float fraction = getTrimFraction(level);
+    if (fraction >= 1f) {
+      return;
+    }
+    int trimmedSize = 0;
+    if (fraction == 0f || !Utils.degradesBeforeEvict(cache)) {
+      trimmedSize = cache.size();
+      Utils.trimCache(cache, (int) (cache.maxSize() * fraction));
+      trimmedSize -= cache.size();
+    } // Otherwise the dispatcher degrades entries off the main thread.
+    if (bitmapPool != null) {
+      int poolSize = bitmapPool.size();
+      bitmapPool.trimToSize((int) (bitmapPool.maxSize() * fraction));
+      trimmedSize += poolSize - bitmapPool.size();
+    }
+    if (encodedCache != null) {
+      int encodedSize = encodedCache.size();
+      encodedCache.trimToSize((int) (encodedCache.maxSize() * fraction));
+      trimmedSize += encodedSize - encodedCache.size();
+    }
+    dispatcher.dispatchTrimMemory(fraction);
+    stats.dispatchMemoryTrimmed(Math.max(trimmedSize, 0));
+  }
+
+  /** Returns the share of the memory budgets which may be kept at the given trim level. */
+  static float getTrimFraction(int level) {
+    if (level >= TRIM_MEMORY_MODERATE || level == TRIM_MEMORY_RUNNING_CRITICAL) {
+      return 0f;
+    }
+    if (level >= TRIM_MEMORY_BACKGROUND || level == TRIM_MEMORY_RUNNING_LOW) {
+      return 0.5f;
+    }
+    if (level >= TRIM_MEMORY_UI_HIDDEN || level == TRIM_MEMORY_RUNNING_MODERATE) {
+      return 0.75f;
+    }
+    return 1f;
+  }
+
+  /**
+   * Prefetch requests saved by a previous run. They were transformed by the {@link
+   * RequestTransformer} before they were saved, so they are submitted as they are.
+   */
+  void warmUp(List<Request> requests) {
+    if (shutdown) {
+      return;
+    }
+    for (int i = 0, n = requests.size(); i < n; i++) {
+      Request request = requests.get(i);
+      request.id = RequestCreator.getRequestId();
+      request.started = System.nanoTime();
+      String key = keyFactory != null
+          ? keyFactory.createKey(request) : Utils.createKey(request, new StringBuilder());
+      submit(new FetchAction(this, request, false, key, null, 0));
+    }
+  }
+
   void complete(BitmapHunter hunter) {
+    Bitmap result = hunter.getResult();
+    try {
+      deliver(hunter, result);
+    } finally {
+      // Drop the owner which the hunter recorded to keep the result out of the pool until now.
+      if (result != null && bitmapPool != null) {
+        bitmapPool.release(result);
+      }
+    }
+  }
+
+  private void deliver(BitmapHunter hunter, Bitmap result) {
     Action single = hunter.getAction();
     List<Action> joined = hunter.getActions();
 
@@ -355,18 +575,17 @@ public class Picasso {
 
     Uri uri = hunter.getData().uri;
     Exception exception = hunter.getException();
-    Bitmap result = hunter.getResult();
     LoadedFrom from = hunter.getLoadedFrom();
 
     if (single != null) {
-      deliverAction(result, from, single);
+      deliverAction(result, from, single, false);
     }
 
     if (hasMultiple) {
       //noinspection ForLoopReplaceableByForEach
       for (int i = 0, n = joined.size(); i < n; i++) {
         Action join = joined.get(i);
-        deliverAction(result, from, join);
+        deliverAction(result, from, join, false);
       }
     }
 
@@ -375,34 +594,72 @@ public class Picasso {
     }
   }
 
-  private void deliverAction(Bitmap result, LoadedFrom from, Action action) {
+  /**
+   * Deliver the error of {@code action}, whose deadline passed before it completed. Its callback
+   * or target hears about the timeout if it is a {@link TimeoutListener}, and the listener is told
+   * with a {@link TimeoutException}, to tell these apart from failed loads.
+   */
+  void timedOut(Action action) {
     if (action.isCancelled()) {
       return;
     }
-    if (!action.willReplay()) {
-      targetToAction.remove(action.getTarget());
+    deliverAction(null, null, action, true);
+    if (listener != null) {
+      Request request = action.getRequest();
+      listener.onImageLoadFailed(this, request.uri,
+          new TimeoutException("Deadline passed before " + request.logId() + " completed."));
     }
-    if (result != null) {
-      if (from == null) {
-        throw new AssertionError("LoadedFrom cannot be null.");
+  }
+
+  private void deliverAction(Bitmap result, LoadedFrom from, Action action, boolean timedOut) {
+    // Targets may be rebound from any thread. Holding the map's lock keeps a new request for the
+    // same target from slipping in between the check and the delivery of this stale one.
+    synchronized (targetToAction) {
+      if (action.isCancelled()) {
+        return;
       }
-      action.complete(result, from);
-      if (loggingEnabled) {
-        log(OWNER_MAIN, VERB_COMPLETED, action.request.logId(), "from " + from);
+      if (!action.willReplay()) {
+        Object target = action.getTarget();
+        if (targetToAction.get(target) == action) {
+          targetToAction.remove(target);
+        }
       }
-    } else {
-      action.error();
-      if (loggingEnabled) {
-        log(OWNER_MAIN, VERB_ERRORED, action.request.logId());
+      if (result != null) {
+        if (from == null) {
+          throw new AssertionError("LoadedFrom cannot be null.");
+        }
+        if (!action.skipCache) {
+          activeResources.put(action.getKey(), result);
+        }
+        action.complete(result, from);
+        if (loggingEnabled) {
+          log(OWNER_MAIN, VERB_COMPLETED, action.request.logId(), "from " + from);
+        }
+      } else {
+        if (timedOut) {
+          action.timedOut();
+        } else {
+          action.error();
+        }
+        if (loggingEnabled) {
+          log(OWNER_MAIN, VERB_ERRORED, action.request.logId());
+        }
       }
     }
   }
 
   private void cancelExistingRequest(Object target) {
-    checkMain();
-    Action action = targetToAction.remove(target);
+    if (target instanceof ImageView) {
+      checkMain();
+    }
+    Action action;
+    synchronized (targetToAction) {
+      action = targetToAction.remove(target);
+      if (action != null) {
+        action.cancel();
+      }
+    }
     if (action != null) {
-      action.cancel();
       dispatcher.dispatchCancel(action);
     }
     if (target instanceof ImageView) {
@@ -415,6 +672,26 @@ public class Picasso {
     }
   }
 
+  @TargetApi(ICE_CREAM_SANDWICH)
+  static class MemoryCallbacks implements ComponentCallbacks2 {
+    private final Picasso picasso;
+
+    MemoryCallbacks(Picasso picasso) {
+      this.picasso = picasso;
+    }
+
+    @Override public void onTrimMemory(int level) {
+      picasso.trimMemory(level);
+    }
+
+    @Override public void onLowMemory() {
+      picasso.trimMemory(TRIM_MEMORY_COMPLETE);
+    }
+
+    @Override public void onConfigurationChanged(Configuration newConfig) {
+    }
+  }
+
   private static class CleanupThread extends Thread {
     private final ReferenceQueue<?> referenceQueue;
     private final Handler handler;
@@ -484,9 +761,17 @@ public class Picasso {
     private Downloader downloader;
     private ExecutorService service;
     private Cache cache;
+    private BitmapPool bitmapPool;
+    private int encodedCacheSize;
+    private int warmUpSize;
+    private int dispatcherShards;
     private Listener listener;
     private RequestTransformer transformer;
+    private Map<String, Integer> cachePartitions;
 
+    private boolean compactKeys;
+    private boolean degradeBeforeEvict;
+    private boolean lifoScheduling;
     private boolean indicatorsEnabled;
     private boolean loggingEnabled;
 
@@ -510,7 +795,13 @@ public class Picasso {
       return this;
     }
 
-    /** Specify the executor service for loading images in the background. */
+    /**
+     * Specify the executor service for loading images in the background.
+     * <p>
+     * By default network sources are fetched on a pool sized for the current network, and all
+     * images are decoded on a second pool with one thread per CPU core. A custom executor runs
+     * both stages.
+     */
     public Builder executor(ExecutorService executorService) {
       if (executorService == null) {
         throw new IllegalArgumentException("Executor service must not be null.");
@@ -534,6 +825,99 @@ public class Picasso {
       return this;
     }
 
+    /**
+     * Specify a pool of bitmaps which decodes will reuse instead of allocating new bitmaps.
+     * <p>
+     * A bitmap enters the pool once it is neither in the memory cache nor displayed by an
+     * {@link ImageView} through Picasso. Bitmaps delivered to a {@link Target}, to remote views or
+     * returned by {@link RequestCreator#get()} are never pooled. When no memory cache is specified
+     * the default cache takes part in this reference counting.
+     */
+    public Builder bitmapPool(BitmapPool bitmapPool) {
+      if (bitmapPool == null) {
+        throw new IllegalArgumentException("Bitmap pool must not be null.");
+      }
+      if (this.bitmapPool != null) {
+        throw new IllegalStateException("Bitmap pool already set.");
+      }
+      this.bitmapPool = bitmapPool;
+      return this;
+    }
+
+    /**
+     * Keep up to {@code maxSize} bytes of downloaded images in memory in their encoded form. A
+     * memory cache miss then decodes these bytes instead of loading the image from the disk cache
+     * again. Encoded images are many times smaller than bitmaps, so a small budget goes far.
+     */
+    public Builder encodedCacheSize(int maxSize) {
+      if (maxSize <= 0) {
+        throw new IllegalArgumentException("Encoded cache size must be positive.");
+      }
+      if (encodedCacheSize != 0) {
+        throw new IllegalStateException("Encoded cache size already set.");
+      }
+      this.encodedCacheSize = maxSize;
+      return this;
+    }
+
+    /**
+     * Spread requests over {@code count} dispatcher threads instead of one. Requests for the same
+     * image are always handled by the same thread. Useful when many requests are made at once.
+     */
+    public Builder dispatcherShards(int count) {
+      if (count <= 0) {
+        throw new IllegalArgumentException("Dispatcher shard count must be positive.");
+      }
+      if (dispatcherShards != 0) {
+        throw new IllegalStateException("Dispatcher shard count already set.");
+      }
+      this.dispatcherShards = count;
+      return this;
+    }
+
+    /**
+     * Remember which images are used most and load up to {@code maxSize} bytes of them into the
+     * memory cache in the background when the next instance is built. The list is saved
+     * periodically and when the application's UI is hidden.
+     * <p>
+     * Images with custom transformations or loaded from resources are not remembered.
+     */
+    public Builder warmUpSize(int maxSize) {
+      if (maxSize <= 0) {
+        throw new IllegalArgumentException("Warm up size must be positive.");
+      }
+      if (warmUpSize != 0) {
+        throw new IllegalStateException("Warm up size already set.");
+      }
+      this.warmUpSize = maxSize;
+      return this;
+    }
+
+    /**
+     * Add a memory cache partition with a budget of {@code maxSize} bytes, which is kept apart
+     * from the main memory cache. Requests opt in with {@link RequestCreator#cachePartition}, so
+     * for example a full-screen viewer does not evict the avatars shown elsewhere.
+     */
+    public Builder cachePartition(String name, int maxSize) {
+      if (name == null || name.length() == 0) {
+        throw new IllegalArgumentException("Cache partition name must not be empty.");
+      }
+      if (name.indexOf('\n') != -1) {
+        throw new IllegalArgumentException("Cache partition name must not contain line breaks.");
+      }
+      if (maxSize <= 0) {
+        throw new IllegalArgumentException("Cache partition size must be positive.");
+      }
+      if (cachePartitions == null) {
+        cachePartitions = new LinkedHashMap<String, Integer>();
+      }
+      if (cachePartitions.containsKey(name)) {
+        throw new IllegalStateException("Cache partition " + name + " already set.");
+      }
+      cachePartitions.put(name, maxSize);
+      return this;
+    }
+
     /** Specify a listener for interesting events. */
     public Builder listener(Listener listener) {
       if (listener == null) {
@@ -563,6 +947,38 @@ public class Picasso {
       return this;
     }
 
+    /**
+     * Toggle whether memory cache keys replace the image URI with a fixed-size fingerprint. This
+     * saves memory and hashing time when URLs are long. Keys of repeated requests are reused
+     * without allocation.
+     */
+    public Builder compactKeys(boolean enabled) {
+      this.compactKeys = enabled;
+      return this;
+    }
+
+    /**
+     * Toggle whether the default memory cache and its partitions keep cold images as copies of
+     * half their resolution under memory pressure, and only evict images which are already
+     * degraded. Has no effect on a cache set with {@link #memoryCache(Cache)}.
+     *
+     * @see Picasso#isDegraded(Bitmap)
+     */
+    public Builder degradeBeforeEvict(boolean enabled) {
+      this.degradeBeforeEvict = enabled;
+      return this;
+    }
+
+    /**
+     * Toggle whether waiting requests of equal priority start newest first. When a list is flung
+     * this loads the images of the rows now on screen before those which scrolled past. Has no
+     * effect on an executor set with {@link #executor(ExecutorService)}.
+     */
+    public Builder lifoScheduling(boolean enabled) {
+      this.lifoScheduling = enabled;
+      return this;
+    }
+
     /**
      * @deprecated Use {@link #indicatorsEnabled(boolean)} instead.
      * Whether debugging is enabled or not.
@@ -596,24 +1012,56 @@ public class Picasso {
         downloader = Utils.createDefaultDownloader(context);
       }
       if (cache == null) {
-        cache = new LruCache(context);
+        cache = new LruCache(Utils.calculateMemoryCacheSize(context), bitmapPool,
+            degradeBeforeEvict);
       }
+      ExecutorService decodeService = service;
       if (service == null) {
-        service = new PicassoExecutorService();
+        service = new PicassoExecutorService(lifoScheduling);
+        decodeService = PicassoExecutorService.forDecoding(lifoScheduling);
       }
       if (transformer == null) {
         transformer = RequestTransformer.IDENTITY;
       }
 
-      Stats stats = new Stats(cache);
+      Cache cache = this.cache;
+      if (cachePartitions != null) {
+        cache = new PartitionedCache(cache, cachePartitions, bitmapPool, degradeBeforeEvict);
+      }
+
+      EncodedCache encodedCache = encodedCacheSize > 0 ? new EncodedCache(encodedCacheSize) : null;
+
+      HotKeyManifest hotKeys = null;
+      if (warmUpSize > 0) {
+        File file = new File(context.getCacheDir(), HotKeyManifest.FILE_NAME);
+        hotKeys = new HotKeyManifest(file, warmUpSize);
+      }
+
+      Stats stats = new Stats(cache, bitmapPool, encodedCache, service, decodeService);
 
-      Dispatcher dispatcher = new Dispatcher(context, service, HANDLER, downloader, cache, stats);
+      int shardCount = dispatcherShards > 0 ? dispatcherShards : 1;
+      Dispatcher dispatcher = new Dispatcher(context, service, decodeService, HANDLER, downloader,
+          cache, stats, shardCount);
 
-      return new Picasso(context, dispatcher, cache, listener, transformer, stats,
-          indicatorsEnabled, loggingEnabled);
+      Picasso picasso = new Picasso(context, dispatcher, cache, bitmapPool, encodedCache, hotKeys,
+          listener, transformer, stats, compactKeys, indicatorsEnabled, loggingEnabled);
+      if (hotKeys != null) {
+        dispatcher.dispatchWarmUp(picasso);
+      }
+      return picasso;
     }
   }
 
+  /**
+   * The priority of a request. Waiting requests of higher priority are started first, and those
+   * of equal priority in the order they were submitted.
+   */
+  public enum Priority {
+    LOW,
+    NORMAL,
+    HIGH
+  }
+
   /** Describes where the image was loaded from. */
   public enum LoadedFrom {
     MEMORY(Color.GREEN),
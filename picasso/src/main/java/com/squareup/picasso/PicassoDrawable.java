@@ -44,14 +44,19 @@ final class PicassoDrawable extends BitmapDrawable {
    * image.
    */
   static void setBitmap(ImageView target, Context context, Bitmap bitmap,
-      Picasso.LoadedFrom loadedFrom, boolean noFade, boolean forceFade, boolean debugging) {
+      Picasso.LoadedFrom loadedFrom, boolean noFade, boolean forceFade, boolean debugging,
+      BitmapPool pool) {
     Drawable placeholder = target.getDrawable();
     if (placeholder instanceof AnimationDrawable) {
       ((AnimationDrawable) placeholder).stop();
     }
-    PicassoDrawable drawable =
-        new PicassoDrawable(context, bitmap, placeholder, loadedFrom, noFade, forceFade, debugging);
+    PicassoDrawable drawable = new PicassoDrawable(context, bitmap, placeholder, loadedFrom,
+        noFade, forceFade, debugging, pool);
     target.setImageDrawable(drawable);
+    if (!drawable.animating) {
+      // Otherwise the placeholder is released once the fade completes.
+      releaseBitmap(placeholder);
+    }
   }
 
   /**
@@ -59,6 +64,7 @@ final class PicassoDrawable extends BitmapDrawable {
    * placeholder image.
    */
   static void setPlaceholder(ImageView target, int placeholderResId, Drawable placeholderDrawable) {
+    Drawable previous = target.getDrawable();
     if (placeholderResId != 0) {
       target.setImageResource(placeholderResId);
     } else {
@@ -67,13 +73,28 @@ final class PicassoDrawable extends BitmapDrawable {
     if (target.getDrawable() instanceof AnimationDrawable) {
       ((AnimationDrawable) target.getDrawable()).start();
     }
+    releaseBitmap(previous);
+  }
+
+  /**
+   * Give up the reference a drawable created by Picasso holds on its bitmap once the drawable is
+   * no longer displayed. Other drawables are ignored.
+   */
+  static void releaseBitmap(Drawable drawable) {
+    if (drawable instanceof PicassoDrawable) {
+      ((PicassoDrawable) drawable).release();
+    } else if (drawable instanceof PicassoRoundDrawable) {
+      ((PicassoRoundDrawable) drawable).release();
+    }
   }
 
   private final boolean debugging;
   private final float density;
   private final Picasso.LoadedFrom loadedFrom;
+  private final BitmapPool pool;
 
   Drawable placeholder;
+  boolean released;
 
   long startTimeMillis;
   boolean animating;
@@ -81,13 +102,18 @@ final class PicassoDrawable extends BitmapDrawable {
 
   @SuppressLint("NewApi")
   PicassoDrawable(Context context, Bitmap bitmap, Drawable placeholder,
-      Picasso.LoadedFrom loadedFrom, boolean noFade, boolean forceFace, boolean debugging) {
+      Picasso.LoadedFrom loadedFrom, boolean noFade, boolean forceFace, boolean debugging,
+      BitmapPool pool) {
     super(context.getResources(), bitmap);
 
     this.debugging = debugging;
     this.density = context.getResources().getDisplayMetrics().density;
 
     this.loadedFrom = loadedFrom;
+    this.pool = pool;
+    if (pool != null) {
+      pool.acquire(bitmap);
+    }
 
     boolean fade = loadedFrom != MEMORY && !noFade;
     if (forceFace) {
@@ -107,6 +133,7 @@ final class PicassoDrawable extends BitmapDrawable {
       float normalized = (SystemClock.uptimeMillis() - startTimeMillis) / FADE_DURATION;
       if (normalized >= 1f) {
         animating = false;
+        releaseBitmap(placeholder);
         placeholder = null;
         super.draw(canvas);
       } else {
@@ -129,6 +156,20 @@ final class PicassoDrawable extends BitmapDrawable {
     }
   }
 
+  /** Release this drawable's bitmap and, if it is still fading in, the placeholder's bitmap. */
+  void release() {
+    if (released) {
+      return;
+    }
+    released = true;
+    if (pool != null) {
+      pool.release(getBitmap());
+    }
+    if (animating) {
+      releaseBitmap(placeholder);
+    }
+  }
+
   @Override public void setAlpha(int alpha) {
     this.alpha = alpha;
     if (placeholder != null) {
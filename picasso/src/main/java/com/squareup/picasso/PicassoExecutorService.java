@@ -17,9 +17,12 @@ package com.squareup.picasso;
 
 import android.net.ConnectivityManager;
 import android.net.NetworkInfo;
+import android.os.SystemClock;
 import android.telephony.TelephonyManager;
 
-import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.PriorityBlockingQueue;
 import java.util.concurrent.ThreadPoolExecutor;
 import java.util.concurrent.TimeUnit;
 
@@ -27,14 +30,104 @@ import java.util.concurrent.TimeUnit;
  * The default {@link java.util.concurrent.ExecutorService} used for new {@link Picasso} instances.
  * <p>
  * Exists as a custom type so that we can differentiate the use of defaults versus a user-supplied
- * instance.
+ * instance. Waiting hunters are started in order of {@link Picasso.Priority}, and in the order
+ * they were created among equal priorities, or newest first in LIFO mode.
+ * <p>
+ * Network fetches and decodes run in separate instances so that slow downloads do not hold up
+ * decoding of bytes which are already available, and each instance keeps its own queue metrics.
+ * <p>
+ * Tasks other than hunters are accepted as well. They run at {@link Picasso.Priority#NORMAL}.
  */
 class PicassoExecutorService extends ThreadPoolExecutor {
     private static final int DEFAULT_THREAD_COUNT = 3;
 
+    private final boolean lifo;
+
+    private int startedCount;
+    private long totalWaitTime;
+
     PicassoExecutorService() {
-        super(DEFAULT_THREAD_COUNT, DEFAULT_THREAD_COUNT, 0, TimeUnit.MILLISECONDS,
-                new LinkedBlockingQueue<Runnable>(), new Utils.PicassoThreadFactory());
+        this(false);
+    }
+
+    PicassoExecutorService(boolean lifo) {
+        this(DEFAULT_THREAD_COUNT, lifo);
+    }
+
+    PicassoExecutorService(int threadCount, boolean lifo) {
+        super(threadCount, threadCount, 0, TimeUnit.MILLISECONDS,
+                new PriorityBlockingQueue<Runnable>(), new Utils.PicassoThreadFactory());
+        this.lifo = lifo;
+    }
+
+    /** Returns a pool for CPU bound work with one thread per available core. */
+    static PicassoExecutorService forDecoding(boolean lifo) {
+        return new PicassoExecutorService(Runtime.getRuntime().availableProcessors(), lifo);
+    }
+
+    @Override
+    public Future<?> submit(Runnable task) {
+        if (!(task instanceof BitmapHunter)) {
+            return super.submit(task);
+        }
+        PicassoFutureTask ftask = new PicassoFutureTask((BitmapHunter) task, lifo);
+        execute(ftask);
+        return ftask;
+    }
+
+    /** Queue {@code command}, wrapped so that the priority queue can order it if needed. */
+    @Override
+    public void execute(Runnable command) {
+        if (!(command instanceof PicassoFutureTask)) {
+            command = new PicassoFutureTask(command, lifo);
+        }
+        super.execute(command);
+    }
+
+    @Override
+    protected void beforeExecute(Thread t, Runnable r) {
+        super.beforeExecute(t, r);
+        if (r instanceof PicassoFutureTask) {
+            long waitTime = SystemClock.uptimeMillis() - ((PicassoFutureTask) r).submitTime;
+            synchronized (this) {
+                startedCount++;
+                totalWaitTime += waitTime;
+            }
+        }
+    }
+
+    /** Returns the number of tasks which were taken from the queue and started. */
+    synchronized int startedCount() {
+        return startedCount;
+    }
+
+    /** Returns the average time in milliseconds a started task waited in the queue. */
+    synchronized long averageWaitTime() {
+        return startedCount == 0 ? 0 : totalWaitTime / startedCount;
+    }
+
+    /**
+     * Move the waiting task {@code future} to the place of its hunter's current priority. Does
+     * nothing if it already started.
+     */
+    void requeue(Future<?> future) {
+        if (!(future instanceof PicassoFutureTask)) {
+            return;
+        }
+        PicassoFutureTask task = (PicassoFutureTask) future;
+        // The queue keeps its order only if a task's priority changes while it is outside.
+        if (getQueue().remove(task)) {
+            task.priority = task.getHunterPriority();
+            getQueue().offer(task);
+        }
+    }
+
+    /**
+     * Drop the cancelled task {@code future} from the queue so no worker thread picks it up.
+     * Returns true if it was still queued.
+     */
+    boolean discard(Future<?> future) {
+        return future instanceof PicassoFutureTask && remove((PicassoFutureTask) future);
     }
 
     void adjustThreadCount(NetworkInfo info) {
@@ -79,4 +172,50 @@ class PicassoExecutorService extends ThreadPoolExecutor {
         setCorePoolSize(threadCount);
         setMaximumPoolSize(threadCount);
     }
+
+    static final class PicassoFutureTask extends FutureTask<BitmapHunter>
+            implements Comparable<PicassoFutureTask> {
+        /** The hunter to run, or {@code null} for other tasks. */
+        final BitmapHunter hunter;
+        final int sequence;
+        final boolean lifo;
+        final long submitTime;
+        /** The priority the queue orders this task by, updated only by {@link #requeue}. */
+        Picasso.Priority priority;
+
+        PicassoFutureTask(BitmapHunter hunter, boolean lifo) {
+            this(hunter, hunter, hunter.sequence, lifo);
+        }
+
+        PicassoFutureTask(Runnable task, boolean lifo) {
+            this(task, null, BitmapHunter.nextSequence(), lifo);
+        }
+
+        private PicassoFutureTask(Runnable task, BitmapHunter hunter, int sequence, boolean lifo) {
+            super(task, null);
+            this.hunter = hunter;
+            this.sequence = sequence;
+            this.lifo = lifo;
+            this.submitTime = SystemClock.uptimeMillis();
+            this.priority = getHunterPriority();
+        }
+
+        private Picasso.Priority getHunterPriority() {
+            return hunter != null ? hunter.getPriority() : Picasso.Priority.NORMAL;
+        }
+
+        @Override
+        public int compareTo(PicassoFutureTask other) {
+            Picasso.Priority p1 = priority;
+            Picasso.Priority p2 = other.priority;
+
+            // High-priority requests are "lesser" so they are sorted to the front.
+            // Equal priorities are sorted by sequence number to provide FIFO or LIFO ordering.
+            if (p1 != p2) {
+                return p2.ordinal() - p1.ordinal();
+            }
+            int order = sequence - other.sequence;
+            return lifo ? -order : order;
+        }
+    }
 }
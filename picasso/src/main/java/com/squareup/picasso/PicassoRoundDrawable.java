@@ -55,7 +55,7 @@ final class PicassoRoundDrawable extends BitmapDrawable {
   @SuppressLint("NewApi")
   static void setBitmap(ImageView target, Context context, Bitmap bitmap,
       Picasso.LoadedFrom loadedFrom, boolean noFade, boolean forceFade, boolean debugging,
-      int borderSize, int borderColor, int roundSize) {
+      int borderSize, int borderColor, int roundSize, BitmapPool pool) {
 
     int minMeasure = Math.min(bitmap.getHeight(), bitmap.getWidth());
 
@@ -64,7 +64,7 @@ final class PicassoRoundDrawable extends BitmapDrawable {
       ((AnimationDrawable) placeholder).stop();
     }
     PicassoRoundDrawable drawable =
-        new PicassoRoundDrawable(context, bitmap, placeholder, loadedFrom, noFade, forceFade, debugging, target);
+        new PicassoRoundDrawable(context, bitmap, placeholder, loadedFrom, noFade, forceFade, debugging, target, pool);
 
     if (borderSize > 0) {
       drawable.setBorder(borderSize, borderColor);
@@ -82,6 +82,10 @@ final class PicassoRoundDrawable extends BitmapDrawable {
     }
 
     target.setImageDrawable(drawable);
+    if (!drawable.animating) {
+      // Otherwise the placeholder is released once the fade completes.
+      PicassoDrawable.releaseBitmap(placeholder);
+    }
   }
 
   static StateListDrawable createStateListDrawable(Context context, int size, PicassoRoundDrawable drawable) {
@@ -116,6 +120,7 @@ final class PicassoRoundDrawable extends BitmapDrawable {
    * placeholder image.
    */
   static void setPlaceholder(ImageView target, int placeholderResId, Drawable placeholderDrawable) {
+    Drawable previous = target.getDrawable();
     if (placeholderResId != 0) {
       target.setImageResource(placeholderResId);
     } else {
@@ -124,6 +129,7 @@ final class PicassoRoundDrawable extends BitmapDrawable {
     if (target.getDrawable() instanceof AnimationDrawable) {
       ((AnimationDrawable) target.getDrawable()).start();
     }
+    PicassoDrawable.releaseBitmap(previous);
   }
 
   public void setBorder(int borderSize, int borderColor) {
@@ -138,8 +144,10 @@ final class PicassoRoundDrawable extends BitmapDrawable {
   private final boolean debugging;
   private final float density;
   private final Picasso.LoadedFrom loadedFrom;
+  private final BitmapPool pool;
 
   Drawable placeholder;
+  boolean released;
 
   long startTimeMillis;
   boolean animating;
@@ -147,13 +155,18 @@ final class PicassoRoundDrawable extends BitmapDrawable {
 
   @SuppressLint("NewApi")
   PicassoRoundDrawable(Context context, Bitmap bitmap, Drawable placeholder,
-                       Picasso.LoadedFrom loadedFrom, boolean noFade, boolean forceFade, boolean debugging, final ImageView target) {
+                       Picasso.LoadedFrom loadedFrom, boolean noFade, boolean forceFade, boolean debugging, final ImageView target,
+                       BitmapPool pool) {
     super(context.getResources(), bitmap);
 
     this.debugging = debugging;
     this.density = context.getResources().getDisplayMetrics().density;
 
     this.loadedFrom = loadedFrom;
+    this.pool = pool;
+    if (pool != null) {
+      pool.acquire(bitmap);
+    }
 
     targetWidth = bitmap.getWidth();
     targetHeight = bitmap.getHeight();
@@ -193,6 +206,7 @@ final class PicassoRoundDrawable extends BitmapDrawable {
       float normalized = (SystemClock.uptimeMillis() - startTimeMillis) / FADE_DURATION;
       if (normalized >= 1f) {
         animating = false;
+        PicassoDrawable.releaseBitmap(placeholder);
         placeholder = null;
         if (roundSize > 0) {
           canvas.drawRoundRect(mRect, mCornerRadius, mCornerRadius, mPaint);
@@ -220,6 +234,20 @@ final class PicassoRoundDrawable extends BitmapDrawable {
     }
   }
 
+  /** Release this drawable's bitmap and, if it is still fading in, the placeholder's bitmap. */
+  void release() {
+    if (released) {
+      return;
+    }
+    released = true;
+    if (pool != null) {
+      pool.release(getBitmap());
+    }
+    if (animating) {
+      PicassoDrawable.releaseBitmap(placeholder);
+    }
+  }
+
   @Override public void setAlpha(int alpha) {
     if (placeholder != null) {
       placeholder.setAlpha(alpha);
@@ -21,6 +21,7 @@ import java.util.ArrayList;
 import java.util.List;
 import java.util.concurrent.TimeUnit;
 
+import static com.squareup.picasso.Picasso.Priority;
 import static java.util.Collections.unmodifiableList;
 
 /** Immutable data about an image and the transformations that will be applied to it. */
@@ -72,10 +73,15 @@ public final class Request {
   public final boolean hasRotationPivot;
   /** Target image config for decoding. */
   public final Bitmap.Config config;
+  /** Name of the memory cache partition holding the image, or {@code null} for the default. */
+  public final String cachePartition;
+  /** The priority of this request. */
+  public final Priority priority;
 
   private Request(Uri uri, int resourceId, List<Transformation> transformations, int targetWidth,
       int targetHeight, boolean centerCrop, boolean centerInside, float rotationDegrees,
-      float rotationPivotX, float rotationPivotY, boolean hasRotationPivot, Bitmap.Config config) {
+      float rotationPivotX, float rotationPivotY, boolean hasRotationPivot, Bitmap.Config config,
+      String cachePartition, Priority priority) {
     this.uri = uri;
     this.resourceId = resourceId;
     if (transformations == null) {
@@ -92,6 +98,8 @@ public final class Request {
     this.rotationPivotY = rotationPivotY;
     this.hasRotationPivot = hasRotationPivot;
     this.config = config;
+    this.cachePartition = cachePartition;
+    this.priority = priority;
   }
 
   @Override public String toString() {
@@ -125,6 +133,9 @@ public final class Request {
     if (config != null) {
       sb.append(' ').append(config);
     }
+    if (cachePartition != null) {
+      sb.append(" partition(").append(cachePartition).append(')');
+    }
     sb.append('}');
 
     return sb.toString();
@@ -183,6 +194,8 @@ public final class Request {
     private boolean hasRotationPivot;
     private List<Transformation> transformations;
     private Bitmap.Config config;
+    private String cachePartition;
+    private Priority priority;
 
     /** Start building a request using the specified {@link Uri}. */
     public Builder(Uri uri) {
@@ -214,6 +227,8 @@ public final class Request {
         transformations = new ArrayList<Transformation>(request.transformations);
       }
       config = request.config;
+      cachePartition = request.cachePartition;
+      priority = request.priority;
     }
 
     boolean hasImage() {
@@ -341,6 +356,28 @@ public final class Request {
       return this;
     }
 
+    /**
+     * Keep the image in the memory cache partition {@code name}, which must have been configured
+     * with {@link Picasso.Builder#cachePartition(String, int)}. Unknown names use the default
+     * memory cache.
+     */
+    public Builder cachePartition(String name) {
+      if (name == null || name.length() == 0) {
+        throw new IllegalArgumentException("Cache partition name must not be empty.");
+      }
+      if (name.indexOf('\n') != -1) {
+        throw new IllegalArgumentException("Cache partition name must not contain line breaks.");
+      }
+      cachePartition = name;
+      return this;
+    }
+
+    /** Clear the cache partition, storing the image in the default memory cache. */
+    public Builder clearCachePartition() {
+      cachePartition = null;
+      return this;
+    }
+
     /**
      * Add a custom transformation to be applied to the image.
      * <p>
@@ -357,6 +394,22 @@ public final class Request {
       return this;
     }
 
+    boolean hasPriority() {
+      return priority != null;
+    }
+
+    /** Execute request with the specified priority. */
+    public Builder priority(Priority priority) {
+      if (priority == null) {
+        throw new IllegalArgumentException("Priority must not be null.");
+      }
+      if (this.priority != null) {
+        throw new IllegalStateException("Priority already set.");
+      }
+      this.priority = priority;
+      return this;
+    }
+
     /** Create the immutable {@link Request} object. */
     public Request build() {
       if (centerInside && centerCrop) {
@@ -369,7 +422,8 @@ public final class Request {
         throw new IllegalStateException("Center inside requires calling resize.");
       }
       return new Request(uri, resourceId, transformations, targetWidth, targetHeight, centerCrop,
-          centerInside, rotationDegrees, rotationPivotX, rotationPivotY, hasRotationPivot, config);
+          centerInside, rotationDegrees, rotationPivotX, rotationPivotY, hasRotationPivot, config,
+          cachePartition, priority != null ? priority : Priority.NORMAL);
     }
   }
 }
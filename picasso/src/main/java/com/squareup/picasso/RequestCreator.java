@@ -24,12 +24,14 @@ import android.net.Uri;
 import android.widget.ImageView;
 import android.widget.RemoteViews;
 import java.io.IOException;
-import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
 import java.util.concurrent.atomic.AtomicInteger;
 import org.jetbrains.annotations.TestOnly;
 
 import static com.squareup.picasso.BitmapHunter.forRequest;
 import static com.squareup.picasso.Picasso.LoadedFrom.MEMORY;
+import static com.squareup.picasso.Picasso.Priority;
 import static com.squareup.picasso.PicassoDrawable.setBitmap;
 import static com.squareup.picasso.PicassoDrawable.setPlaceholder;
 import static com.squareup.picasso.RemoteViewsAction.AppWidgetAction;
@@ -41,37 +43,16 @@ import static com.squareup.picasso.Utils.VERB_CREATED;
 import static com.squareup.picasso.Utils.checkMain;
 import static com.squareup.picasso.Utils.checkNotMain;
 import static com.squareup.picasso.Utils.createKey;
-import static com.squareup.picasso.Utils.isMain;
 import static com.squareup.picasso.Utils.log;
 
 /** Fluent API for building an image download request. */
 @SuppressWarnings("UnusedDeclaration") // Public API.
 public class RequestCreator {
-  private static int nextId = 0;
+  private static final AtomicInteger ID_GENERATOR = new AtomicInteger();
 
-  private static int getRequestId() {
-    if (isMain()) {
-      return nextId++;
-    }
-
-    final CountDownLatch latch = new CountDownLatch(1);
-    final AtomicInteger id = new AtomicInteger();
-    Picasso.HANDLER.post(new Runnable() {
-      @Override public void run() {
-        id.set(getRequestId());
-        latch.countDown();
-      }
-    });
-    try {
-      latch.await();
-    } catch (final InterruptedException e) {
-      Picasso.HANDLER.post(new Runnable() {
-        @Override public void run() {
-          throw new RuntimeException(e);
-        }
-      });
-    }
-    return id.get();
+  /** Returns a new request ID. Safe to call from any thread. */
+  static int getRequestId() {
+    return ID_GENERATOR.getAndIncrement();
   }
 
   private final Picasso picasso;
@@ -84,6 +65,8 @@ public class RequestCreator {
   private int errorResId;
   private Drawable placeholderDrawable;
   private Drawable errorDrawable;
+  private Object tag;
+  private long deadlineNanos;
 
   /** new parameters **/
   private boolean useRoundDrawables;
@@ -278,6 +261,62 @@ public class RequestCreator {
     return this;
   }
 
+  /**
+   * Keep the image in the memory cache partition {@code name}, which has a byte budget of its own.
+   * Partitions are set up with {@link Picasso.Builder#cachePartition(String, int)}.
+   */
+  public RequestCreator cachePartition(String name) {
+    data.cachePartition(name);
+    return this;
+  }
+
+  /**
+   * Set the priority of this request. Waiting requests of higher priority are started first.
+   * Requests default to {@link Priority#NORMAL}, except {@link #fetch()} which defaults to
+   * {@link Priority#LOW}.
+   */
+  public RequestCreator priority(Priority priority) {
+    data.priority(priority);
+    return this;
+  }
+
+  /**
+   * Assign a tag to this request. Tagged requests can be held back with {@link
+   * Picasso#pauseTag(Object)}, for example while a list is flung, and let through again with
+   * {@link Picasso#resumeTag(Object)}. Tags are compared with {@link Object#equals(Object)}.
+   */
+  public RequestCreator tag(Object tag) {
+    if (tag == null) {
+      throw new IllegalArgumentException("Tag invalid.");
+    }
+    if (this.tag != null) {
+      throw new IllegalStateException("Tag already set.");
+    }
+    this.tag = tag;
+    return this;
+  }
+
+  /**
+   * Give up on this request if it has not completed {@code duration} after it was made. A request
+   * waiting to run is dropped and a running one is cancelled, and the error is delivered as for a
+   * failed load. A {@link Picasso.Listener} receives a {@link TimeoutException} for it.
+   * <p>
+   * Has no effect on {@link #get()}.
+   */
+  public RequestCreator deadline(long duration, TimeUnit unit) {
+    if (duration <= 0) {
+      throw new IllegalArgumentException("Deadline must be positive.");
+    }
+    if (unit == null) {
+      throw new IllegalArgumentException("Time unit must not be null.");
+    }
+    if (deadlineNanos != 0) {
+      throw new IllegalStateException("Deadline already set.");
+    }
+    this.deadlineNanos = unit.toNanos(duration);
+    return this;
+  }
+
   /**
    * Indicate that this action should not use the memory cache for attempting to load or save the
    * image. This can be useful when you know an image will only ever be used once (e.g., loading
@@ -320,16 +359,20 @@ public class RequestCreator {
     }
 
     Request finalData = createRequest(started);
-    String key = createKey(finalData, new StringBuilder());
+    String key = requestKey(finalData);
 
     Action action = new GetAction(picasso, finalData, skipMemoryCache, key);
-    return forRequest(picasso.context, picasso, picasso.dispatcher, picasso.cache, picasso.stats,
-        action, picasso.dispatcher.downloader).hunt();
+    Bitmap result = forRequest(picasso.context, picasso, picasso.dispatcher, picasso.cache,
+        picasso.stats, action, picasso.dispatcher.downloader).hunt();
+    // The hunter recorded an owner for the caller, which is never released, so the result stays
+    // out of the bitmap pool.
+    return result;
   }
 
   /**
    * Asynchronously fulfills the request without a {@link ImageView} or {@link Target}. This is
-   * useful when you want to warm up the cache with an image.
+   * useful when you want to warm up the cache with an image. Unless another {@link #priority} is
+   * set the request has {@link Priority#LOW}, so it does not hold up images on screen.
    * <p>
    * <em>Note:</em> It is safe to invoke this method from any thread.
    */
@@ -340,10 +383,14 @@ public class RequestCreator {
       throw new IllegalStateException("Fit cannot be used with fetch.");
     }
     if (data.hasImage()) {
+      if (!data.hasPriority()) {
+        data.priority(Priority.LOW);
+      }
       Request request = createRequest(started);
-      String key = createKey(request, new StringBuilder());
+      String key = requestKey(request);
 
-      Action action = new FetchAction(picasso, request, skipMemoryCache, key);
+      Action action =
+          new FetchAction(picasso, request, skipMemoryCache, key, tag, deadlineFor(request));
       picasso.submit(action);
     }
   }
@@ -392,10 +439,13 @@ public class RequestCreator {
    * <em>Note:</em> This method keeps a weak reference to the {@link Target} instance and will be
    * garbage collected if you do not keep a strong reference to it. To receive callbacks when an
    * image is loaded use {@link #into(android.widget.ImageView, Callback)}.
+   * <p>
+   * It is safe to invoke this method from any thread. {@link Target#onPrepareLoad} and results
+   * found in the memory cache are delivered on the calling thread, and all other results on the
+   * main thread.
    */
   public void into(Target target) {
     long started = System.nanoTime();
-    checkMain();
 
     if (target == null) {
       throw new IllegalArgumentException("Target must not be null.");
@@ -415,12 +465,15 @@ public class RequestCreator {
     }
 
     Request request = createRequest(started);
-    String requestKey = createKey(request);
+    String requestKey = requestKey(request);
 
     if (!skipMemoryCache) {
       Bitmap bitmap = picasso.quickMemoryCacheCheck(requestKey);
       if (bitmap != null) {
         picasso.cancelRequest(target);
+        if (picasso.bitmapPool != null) {
+          picasso.bitmapPool.acquire(bitmap);
+        }
         target.onBitmapLoaded(bitmap, MEMORY);
         return;
       }
@@ -430,7 +483,7 @@ public class RequestCreator {
 
     Action action =
         new TargetAction(picasso, target, request, skipMemoryCache, errorResId, errorDrawable,
-            requestKey);
+            requestKey, tag, deadlineFor(request));
     picasso.enqueueAndSubmit(action);
   }
 
@@ -458,11 +511,11 @@ public class RequestCreator {
     }
 
     Request request = createRequest(started);
-    String key = createKey(request);
+    String key = requestKey(request);
 
     RemoteViewsAction action =
         new NotificationAction(picasso, request, remoteViews, viewId, notificationId, notification,
-            skipMemoryCache, errorResId, key);
+            skipMemoryCache, errorResId, key, tag, deadlineFor(request));
 
     performRemoteViewInto(action);
   }
@@ -490,11 +543,11 @@ public class RequestCreator {
     }
 
     Request request = createRequest(started);
-    String key = createKey(request);
+    String key = requestKey(request);
 
     RemoteViewsAction action =
         new AppWidgetAction(picasso, request, remoteViews, viewId, appWidgetIds, skipMemoryCache,
-            errorResId, key);
+            errorResId, key, tag, deadlineFor(request));
 
     performRemoteViewInto(action);
   }
@@ -555,16 +608,16 @@ public class RequestCreator {
     }
 
     Request request = createRequest(started);
-    String requestKey = createKey(request);
+    String requestKey = requestKey(request);
 
     if (!skipMemoryCache) {
       Bitmap bitmap = picasso.quickMemoryCacheCheck(requestKey);
       if (bitmap != null) {
         picasso.cancelRequest(target);
         if (useRoundDrawables) {
-          PicassoRoundDrawable.setBitmap(target, picasso.context, bitmap, MEMORY, noFade, forceFade, picasso.indicatorsEnabled, borderSize, borderColor, roundSize);
+          PicassoRoundDrawable.setBitmap(target, picasso.context, bitmap, MEMORY, noFade, forceFade, picasso.indicatorsEnabled, borderSize, borderColor, roundSize, picasso.bitmapPool);
         } else {
-          PicassoDrawable.setBitmap(target, picasso.context, bitmap, MEMORY, noFade, forceFade, picasso.indicatorsEnabled);
+          PicassoDrawable.setBitmap(target, picasso.context, bitmap, MEMORY, noFade, forceFade, picasso.indicatorsEnabled, picasso.bitmapPool);
           if (picasso.loggingEnabled) {
             log(OWNER_MAIN, VERB_COMPLETED, request.plainId(), "from " + MEMORY);
           }
@@ -584,11 +637,17 @@ public class RequestCreator {
 
     Action action =
         new ImageViewAction(picasso, target, request, skipMemoryCache, noFade, forceFade, errorResId,
-            errorDrawable, requestKey, callback, useRoundDrawables, borderSize, borderColor, roundSize);
+            errorDrawable, requestKey, callback, useRoundDrawables, borderSize, borderColor,
+            roundSize, tag, deadlineFor(request));
 
     picasso.enqueueAndSubmit(action);
   }
 
+  /** Returns the {@link System#nanoTime()} at which {@code request} is given up, or 0. */
+  private long deadlineFor(Request request) {
+    return deadlineNanos != 0 ? request.started + deadlineNanos : 0;
+  }
+
   /** Create the request optionally passing it through the request transformer. */
   private Request createRequest(long started) {
     int id = getRequestId();
@@ -616,6 +675,12 @@ public class RequestCreator {
     return transformed;
   }
 
+  /** Create the memory cache key for {@code request}. Safe to call from any thread. */
+  private String requestKey(Request request) {
+    CompactKeyFactory keyFactory = picasso.keyFactory;
+    return keyFactory != null ? keyFactory.createKey(request) : createKey(request);
+  }
+
   private void performRemoteViewInto(RemoteViewsAction action) {
     if (!skipMemoryCache) {
       Bitmap bitmap = picasso.quickMemoryCacheCheck(action.getKey());
@@ -42,11 +42,11 @@ class ResourceBitmapHunter extends BitmapHunter {
     return DISK;
   }
 
-  private Bitmap decodeResource(Resources resources, int id, Request data) {
-    final BitmapFactory.Options options = createBitmapOptions(data);
+  private Bitmap decodeResource(Resources resources, int id, Request data) throws IOException {
+    final BitmapFactory.Options options = createDecodeOptions(data);
     if (requiresInSampleSize(options)) {
       BitmapFactory.decodeResource(resources, id, options);
-      calculateInSampleSize(data.targetWidth, data.targetHeight, options);
+      prepareDecodeOptions(data, options);
     }
     return BitmapFactory.decodeResource(resources, id, options);
   }
@@ -0,0 +1,314 @@
+/*
+ * Copyright (C) 2014 Square, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.squareup.picasso;
+
+import android.content.Context;
+import android.graphics.Bitmap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * A memory cache which splits its entries across independently locked segments, each of which
+ * keeps its own least-recently used ordering.
+ * <p>
+ * Lookups never block: values are read from a concurrent map and the access order of the owning
+ * segment is only updated if its lock is free. Writers lock a single segment at a time and evict
+ * one entry per lock acquisition, so a long eviction on one thread does not stall readers. The
+ * byte budget is shared by all segments and the eviction order across segments is approximate.
+ */
+public class SegmentedLruCache implements Cache, TrimmableCache, UriIndexedCache {
+  static final int DEFAULT_SEGMENT_COUNT = 4;
+
+  final Segment[] segments;
+  final BitmapPool bitmapPool;
+  private final int maxSize;
+  private final AtomicInteger size = new AtomicInteger();
+  private final AtomicInteger putCount = new AtomicInteger();
+  private final AtomicInteger evictionCount = new AtomicInteger();
+  private final AtomicInteger hitCount = new AtomicInteger();
+  private final AtomicInteger missCount = new AtomicInteger();
+
+  /** Create a cache using an appropriate portion of the available RAM as the maximum size. */
+  public SegmentedLruCache(Context context) {
+    this(Utils.calculateMemoryCacheSize(context), DEFAULT_SEGMENT_COUNT, null);
+  }
+
+  /**
+   * Create a cache using an appropriate portion of the available RAM as the maximum size which
+   * offers evicted bitmaps to {@code bitmapPool} for reuse.
+   */
+  public SegmentedLruCache(Context context, BitmapPool bitmapPool) {
+    this(Utils.calculateMemoryCacheSize(context), DEFAULT_SEGMENT_COUNT, bitmapPool);
+  }
+
+  /** Create a cache with a given maximum size in bytes. */
+  public SegmentedLruCache(int maxSize) {
+    this(maxSize, DEFAULT_SEGMENT_COUNT, null);
+  }
+
+  /**
+   * Create a cache with a given maximum size in bytes, split into {@code segmentCount} segments
+   * (rounded up to a power of two). Evicted bitmaps are offered to {@code bitmapPool} for reuse.
+   * The pool may be {@code null}.
+   */
+  public SegmentedLruCache(int maxSize, int segmentCount, BitmapPool bitmapPool) {
+    if (maxSize <= 0) {
+      throw new IllegalArgumentException("Max size must be positive.");
+    }
+    if (segmentCount <= 0) {
+      throw new IllegalArgumentException("Segment count must be positive.");
+    }
+    this.maxSize = maxSize;
+    this.bitmapPool = bitmapPool;
+    int count = Integer.highestOneBit(segmentCount);
+    if (count < segmentCount) {
+      count <<= 1;
+    }
+    this.segments = new Segment[count];
+    for (int i = 0; i < count; i++) {
+      segments[i] = new Segment();
+    }
+  }
+
+  @Override public Bitmap get(String key) {
+    if (key == null) {
+      throw new NullPointerException("key == null");
+    }
+
+    Segment segment = segmentFor(key);
+    Bitmap value = segment.values.get(key);
+    if (value == null) {
+      missCount.incrementAndGet();
+      return null;
+    }
+    hitCount.incrementAndGet();
+    // Recency is best effort; never wait for a writer to finish just to reorder an entry.
+    if (segment.lock.tryLock()) {
+      try {
+        segment.order.get(key);
+      } finally {
+        segment.lock.unlock();
+      }
+    }
+    return value;
+  }
+
+  @Override public void set(String key, Bitmap bitmap) {
+    if (key == null || bitmap == null) {
+      throw new NullPointerException("key == null || bitmap == null");
+    }
+
+    if (bitmapPool != null) {
+      bitmapPool.acquire(bitmap);
+    }
+
+    Segment segment = segmentFor(key);
+    int bitmapSize = Utils.getBitmapBytes(bitmap);
+    Bitmap previous;
+    segment.lock.lock();
+    try {
+      putCount.incrementAndGet();
+      previous = segment.values.put(key, bitmap);
+      segment.order.put(key, bitmapSize);
+      segment.size += bitmapSize;
+      size.addAndGet(bitmapSize);
+      if (previous != null) {
+        int previousSize = Utils.getBitmapBytes(previous);
+        segment.size -= previousSize;
+        size.addAndGet(-previousSize);
+      } else {
+        segment.keys.add(key);
+      }
+    } finally {
+      segment.lock.unlock();
+    }
+
+    if (previous != null && bitmapPool != null) {
+      bitmapPool.release(previous);
+    }
+    trimToSize(maxSize, indexFor(key));
+  }
+
+  @Override public void trimToSize(int maxSize) {
+    trimToSize(maxSize, 0);
+  }
+
+  /**
+   * Evict entries until the total size is at most {@code maxSize}, starting with the segment at
+   * {@code start} and moving on to the next segment once it is empty.
+   */
+  private void trimToSize(int maxSize, int start) {
+    int index = start;
+    int emptySegments = 0;
+    while (size.get() > maxSize && emptySegments < segments.length) {
+      Bitmap evicted = segments[index].evictEldest(size);
+      if (evicted == null) {
+        emptySegments++;
+        index = (index + 1) & (segments.length - 1);
+        continue;
+      }
+      emptySegments = 0;
+      evictionCount.incrementAndGet();
+      if (bitmapPool != null) {
+        bitmapPool.release(evicted);
+      }
+    }
+  }
+
+  @Override public void clearKeyUri(String uri) {
+    for (Segment segment : segments) {
+      List<String> keys;
+      segment.lock.lock();
+      try {
+        keys = segment.keys.keysFor(uri);
+      } finally {
+        segment.lock.unlock();
+      }
+      remove(segment, keys);
+    }
+  }
+
+  @Override public void clearKeyUriPrefix(String prefix) {
+    for (Segment segment : segments) {
+      List<String> keys;
+      segment.lock.lock();
+      try {
+        keys = segment.keys.keysWithPrefix(prefix);
+      } finally {
+        segment.lock.unlock();
+      }
+      remove(segment, keys);
+    }
+  }
+
+  private void remove(Segment segment, List<String> keys) {
+    for (int i = 0, n = keys.size(); i < n; i++) {
+      Bitmap removed = segment.remove(keys.get(i), size);
+      if (removed != null && bitmapPool != null) {
+        bitmapPool.release(removed);
+      }
+    }
+  }
+
+  private Segment segmentFor(String key) {
+    return segments[indexFor(key)];
+  }
+
+  private int indexFor(String key) {
+    int h = key.hashCode();
+    // Spread the higher bits down since only the low bits select a segment.
+    h ^= (h >>> 20) ^ (h >>> 12);
+    h ^= (h >>> 7) ^ (h >>> 4);
+    return h & (segments.length - 1);
+  }
+
+  /** Clear the cache. */
+  public final void evictAll() {
+    trimToSize(-1, 0); // -1 will evict 0-sized elements
+  }
+
+  /** Returns the approximate sum of the sizes of the entries in this cache. */
+  @Override public final int size() {
+    return size.get();
+  }
+
+  /** Returns the maximum sum of the sizes of the entries in this cache. */
+  @Override public final int maxSize() {
+    return maxSize;
+  }
+
+  @Override public final void clear() {
+    evictAll();
+  }
+
+  /** Returns the number of times {@link #get} returned a value. */
+  public final int hitCount() {
+    return hitCount.get();
+  }
+
+  /** Returns the number of times {@link #get} returned {@code null}. */
+  public final int missCount() {
+    return missCount.get();
+  }
+
+  /** Returns the number of times {@link #set(String, Bitmap)} was called. */
+  public final int putCount() {
+    return putCount.get();
+  }
+
+  /** Returns the number of values that have been evicted. */
+  public final int evictionCount() {
+    return evictionCount.get();
+  }
+
+  static final class Segment {
+    final ReentrantLock lock = new ReentrantLock();
+    /** Values for lock-free reads. Only modified while holding {@link #lock}. */
+    final ConcurrentHashMap<String, Bitmap> values = new ConcurrentHashMap<String, Bitmap>();
+    /** Keys to their sizes in access order. Guarded by {@link #lock}. */
+    final LinkedHashMap<String, Integer> order = new LinkedHashMap<String, Integer>(0, 0.75f, true);
+    /** Keys of this segment by source. Guarded by {@link #lock}. */
+    final KeyIndex keys = new KeyIndex();
+    /** Guarded by {@link #lock}. */
+    int size;
+
+    /** Remove the least-recently used entry of this segment, or return {@code null} if empty. */
+    Bitmap evictEldest(AtomicInteger totalSize) {
+      lock.lock();
+      try {
+        if (size < 0 || (order.isEmpty() && size != 0)) {
+          throw new IllegalStateException(
+              getClass().getName() + ".sizeOf() is reporting inconsistent results!");
+        }
+        Iterator<Map.Entry<String, Integer>> iterator = order.entrySet().iterator();
+        if (!iterator.hasNext()) {
+          return null;
+        }
+        Map.Entry<String, Integer> eldest = iterator.next();
+        iterator.remove();
+        int evictedSize = eldest.getValue();
+        size -= evictedSize;
+        totalSize.addAndGet(-evictedSize);
+        keys.remove(eldest.getKey());
+        return values.remove(eldest.getKey());
+      } finally {
+        lock.unlock();
+      }
+    }
+
+    /** Remove the entry for {@code key}, or return {@code null} if there is none. */
+    Bitmap remove(String key, AtomicInteger totalSize) {
+      lock.lock();
+      try {
+        Integer removedSize = order.remove(key);
+        if (removedSize == null) {
+          return null;
+        }
+        size -= removedSize;
+        totalSize.addAndGet(-removedSize);
+        keys.remove(key);
+        return values.remove(key);
+      } finally {
+        lock.unlock();
+      }
+    }
+  }
+}
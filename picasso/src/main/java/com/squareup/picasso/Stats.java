@@ -20,6 +20,10 @@ import android.os.Handler;
 import android.os.HandlerThread;
 import android.os.Looper;
 import android.os.Message;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
 
 import static android.os.Process.THREAD_PRIORITY_BACKGROUND;
 
@@ -29,11 +33,18 @@ class Stats {
   private static final int BITMAP_DECODE_FINISHED = 2;
   private static final int BITMAP_TRANSFORMED_FINISHED = 3;
   private static final int DOWNLOAD_FINISHED = 4;
+  private static final int MEMORY_TRIMMED = 5;
+  private static final int BATCH_DELIVERED = 6;
+  private static final int HUNTER_ABANDONED = 7;
 
   private static final String STATS_THREAD_NAME = Utils.THREAD_PREFIX + "Stats";
 
   final HandlerThread statsThread;
   final Cache cache;
+  final BitmapPool bitmapPool;
+  final EncodedCache encodedCache;
+  final ExecutorService fetchService;
+  final ExecutorService decodeService;
   final Handler handler;
 
   long cacheHits;
@@ -47,9 +58,23 @@ class Stats {
   int downloadCount;
   int originalBitmapCount;
   int transformedBitmapCount;
+  int memoryTrimCount;
+  long totalTrimmedSize;
+  int batchCount;
+  long totalBatchedCount;
+  long totalBatchDelay;
+  float averageBatchSize;
+  long averageBatchDelay;
+  int abandonedCount;
+  long totalWastedBytesAvoided;
 
-  Stats(Cache cache) {
+  Stats(Cache cache, BitmapPool bitmapPool, EncodedCache encodedCache,
+      ExecutorService fetchService, ExecutorService decodeService) {
     this.cache = cache;
+    this.bitmapPool = bitmapPool;
+    this.encodedCache = encodedCache;
+    this.fetchService = fetchService;
+    this.decodeService = decodeService;
     this.statsThread = new HandlerThread(STATS_THREAD_NAME, THREAD_PRIORITY_BACKGROUND);
     this.statsThread.start();
     this.handler = new StatsHandler(statsThread.getLooper(), this);
@@ -75,6 +100,23 @@ class Stats {
     handler.sendEmptyMessage(CACHE_MISS);
   }
 
+  void dispatchMemoryTrimmed(int trimmedSize) {
+    handler.sendMessage(handler.obtainMessage(MEMORY_TRIMMED, trimmedSize, 0));
+  }
+
+  /** Record a batch of {@code size} results which waited {@code delay} ms to be delivered. */
+  void dispatchBatchDelivered(int size, long delay) {
+    handler.sendMessage(handler.obtainMessage(BATCH_DELIVERED, size, (int) delay));
+  }
+
+  /**
+   * Record a hunter which stopped because it was cancelled while running, sparing roughly {@code
+   * avoidedBytes} of reading and allocation.
+   */
+  void dispatchHunterAbandoned(long avoidedBytes) {
+    handler.sendMessage(handler.obtainMessage(HUNTER_ABANDONED, avoidedBytes));
+  }
+
   void shutdown() {
     statsThread.quit();
   }
@@ -105,11 +147,74 @@ class Stats {
     averageTransformedBitmapSize = getAverage(originalBitmapCount, totalTransformedBitmapSize);
   }
 
+  void performMemoryTrimmed(int trimmedSize) {
+    memoryTrimCount++;
+    totalTrimmedSize += trimmedSize;
+  }
+
+  void performBatchDelivered(int size, long delay) {
+    batchCount++;
+    totalBatchedCount += size;
+    totalBatchDelay += delay;
+    averageBatchSize = (float) totalBatchedCount / batchCount;
+    averageBatchDelay = getAverage(batchCount, totalBatchDelay);
+  }
+
+  void performHunterAbandoned(Long avoidedBytes) {
+    abandonedCount++;
+    totalWastedBytesAvoided += avoidedBytes;
+  }
+
   StatsSnapshot createSnapshot() {
-    return new StatsSnapshot(cache.maxSize(), cache.size(), cacheHits, cacheMisses,
+    Cache mainCache = cache;
+    List<StatsSnapshot.PartitionStats> partitions = Collections.emptyList();
+    if (cache instanceof PartitionedCache) {
+      mainCache = ((PartitionedCache) cache).defaultCache;
+      partitions = ((PartitionedCache) cache).createPartitionStats();
+    }
+    long cacheRejects = 0;
+    if (mainCache instanceof TinyLfuCache) {
+      cacheRejects = ((TinyLfuCache) mainCache).rejectCount();
+    }
+    StatsSnapshot.StoreStats pool = StatsSnapshot.StoreStats.EMPTY;
+    if (bitmapPool != null) {
+      pool = new StatsSnapshot.StoreStats(bitmapPool.maxSize(), bitmapPool.size(),
+          bitmapPool.hitCount(), bitmapPool.missCount());
+    }
+    StatsSnapshot.StoreStats encoded = StatsSnapshot.StoreStats.EMPTY;
+    if (encodedCache != null) {
+      encoded = new StatsSnapshot.StoreStats(encodedCache.maxSize(), encodedCache.size(),
+          encodedCache.hitCount(), encodedCache.missCount());
+    }
+    StatsSnapshot.DeliveryStats delivery =
+        new StatsSnapshot.DeliveryStats(batchCount, averageBatchSize, averageBatchDelay);
+    return new StatsSnapshot(cache.maxSize(), cache.size(), cacheHits, cacheMisses, cacheRejects,
         totalDownloadSize, totalOriginalBitmapSize, totalTransformedBitmapSize, averageDownloadSize,
         averageOriginalBitmapSize, averageTransformedBitmapSize, downloadCount, originalBitmapCount,
-        transformedBitmapCount, System.currentTimeMillis());
+        transformedBitmapCount, pool, encoded, memoryTrimCount, totalTrimmedSize, delivery,
+        abandonedCount, totalWastedBytesAvoided, partitions, createStageStats(),
+        System.currentTimeMillis());
+  }
+
+  private List<StatsSnapshot.StageStats> createStageStats() {
+    List<StatsSnapshot.StageStats> stages = new ArrayList<StatsSnapshot.StageStats>(2);
+    if (fetchService == decodeService) {
+      addStageStats(stages, "hunt", fetchService);
+    } else {
+      addStageStats(stages, "fetch", fetchService);
+      addStageStats(stages, "decode", decodeService);
+    }
+    return stages;
+  }
+
+  private static void addStageStats(List<StatsSnapshot.StageStats> stages, String name,
+      ExecutorService service) {
+    if (service instanceof PicassoExecutorService) {
+      PicassoExecutorService executor = (PicassoExecutorService) service;
+      stages.add(new StatsSnapshot.StageStats(name, executor.getCorePoolSize(),
+          executor.getActiveCount(), executor.getQueue().size(), executor.startedCount(),
+          executor.averageWaitTime()));
+    }
   }
 
   private void processBitmap(Bitmap bitmap, int what) {
@@ -148,6 +253,15 @@ class Stats {
         case DOWNLOAD_FINISHED:
           stats.performDownloadFinished((Long) msg.obj);
           break;
+        case MEMORY_TRIMMED:
+          stats.performMemoryTrimmed(msg.arg1);
+          break;
+        case BATCH_DELIVERED:
+          stats.performBatchDelivered(msg.arg1, msg.arg2);
+          break;
+        case HUNTER_ABANDONED:
+          stats.performHunterAbandoned((Long) msg.obj);
+          break;
         default:
           Picasso.HANDLER.post(new Runnable() {
             @Override public void run() {
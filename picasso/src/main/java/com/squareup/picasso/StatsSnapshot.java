@@ -18,6 +18,8 @@ package com.squareup.picasso;
 import android.util.Log;
 import java.io.PrintWriter;
 import java.io.StringWriter;
+import java.util.Collections;
+import java.util.List;
 
 import static com.squareup.picasso.Picasso.TAG;
 
@@ -27,6 +29,7 @@ public class StatsSnapshot {
   public final int size;
   public final long cacheHits;
   public final long cacheMisses;
+  public final long cacheRejects;
   public final long totalDownloadSize;
   public final long totalOriginalBitmapSize;
   public final long totalTransformedBitmapSize;
@@ -36,6 +39,23 @@ public class StatsSnapshot {
   public final int downloadCount;
   public final int originalBitmapCount;
   public final int transformedBitmapCount;
+  public final int bitmapPoolMaxSize;
+  public final int bitmapPoolSize;
+  public final long bitmapPoolHits;
+  public final long bitmapPoolMisses;
+  public final int encodedCacheMaxSize;
+  public final int encodedCacheSize;
+  public final long encodedCacheHits;
+  public final long encodedCacheMisses;
+  public final int memoryTrimCount;
+  public final long totalTrimmedSize;
+  public final int batchCount;
+  public final float averageBatchSize;
+  public final long averageBatchDelay;
+  public final int abandonedCount;
+  public final long wastedBytesAvoided;
+  public final List<PartitionStats> partitions;
+  public final List<StageStats> stages;
 
   public final long timeStamp;
 
@@ -43,10 +63,25 @@ public class StatsSnapshot {
       long totalDownloadSize, long totalOriginalBitmapSize, long totalTransformedBitmapSize,
       long averageDownloadSize, long averageOriginalBitmapSize, long averageTransformedBitmapSize,
       int downloadCount, int originalBitmapCount, int transformedBitmapCount, long timeStamp) {
+    this(maxSize, size, cacheHits, cacheMisses, 0, totalDownloadSize, totalOriginalBitmapSize,
+        totalTransformedBitmapSize, averageDownloadSize, averageOriginalBitmapSize,
+        averageTransformedBitmapSize, downloadCount, originalBitmapCount, transformedBitmapCount,
+        StoreStats.EMPTY, StoreStats.EMPTY, 0, 0, DeliveryStats.EMPTY, 0, 0,
+        Collections.<PartitionStats>emptyList(), Collections.<StageStats>emptyList(), timeStamp);
+  }
+
+  StatsSnapshot(int maxSize, int size, long cacheHits, long cacheMisses, long cacheRejects,
+      long totalDownloadSize, long totalOriginalBitmapSize, long totalTransformedBitmapSize,
+      long averageDownloadSize, long averageOriginalBitmapSize, long averageTransformedBitmapSize,
+      int downloadCount, int originalBitmapCount, int transformedBitmapCount,
+      StoreStats bitmapPool, StoreStats encodedCache, int memoryTrimCount, long totalTrimmedSize,
+      DeliveryStats delivery, int abandonedCount, long wastedBytesAvoided,
+      List<PartitionStats> partitions, List<StageStats> stages, long timeStamp) {
     this.maxSize = maxSize;
     this.size = size;
     this.cacheHits = cacheHits;
     this.cacheMisses = cacheMisses;
+    this.cacheRejects = cacheRejects;
     this.totalDownloadSize = totalDownloadSize;
     this.totalOriginalBitmapSize = totalOriginalBitmapSize;
     this.totalTransformedBitmapSize = totalTransformedBitmapSize;
@@ -56,6 +91,23 @@ public class StatsSnapshot {
     this.downloadCount = downloadCount;
     this.originalBitmapCount = originalBitmapCount;
     this.transformedBitmapCount = transformedBitmapCount;
+    this.bitmapPoolMaxSize = bitmapPool.maxSize;
+    this.bitmapPoolSize = bitmapPool.size;
+    this.bitmapPoolHits = bitmapPool.hits;
+    this.bitmapPoolMisses = bitmapPool.misses;
+    this.encodedCacheMaxSize = encodedCache.maxSize;
+    this.encodedCacheSize = encodedCache.size;
+    this.encodedCacheHits = encodedCache.hits;
+    this.encodedCacheMisses = encodedCache.misses;
+    this.memoryTrimCount = memoryTrimCount;
+    this.totalTrimmedSize = totalTrimmedSize;
+    this.batchCount = delivery.batchCount;
+    this.averageBatchSize = delivery.averageBatchSize;
+    this.averageBatchDelay = delivery.averageBatchDelay;
+    this.abandonedCount = abandonedCount;
+    this.wastedBytesAvoided = wastedBytesAvoided;
+    this.partitions = partitions;
+    this.stages = stages;
     this.timeStamp = timeStamp;
   }
 
@@ -80,6 +132,8 @@ public class StatsSnapshot {
     writer.println(cacheHits);
     writer.print("  Cache Misses: ");
     writer.println(cacheMisses);
+    writer.print("  Cache Admission Rejects: ");
+    writer.println(cacheRejects);
     writer.println("Network Stats");
     writer.print("  Download Count: ");
     writer.println(downloadCount);
@@ -100,6 +154,69 @@ public class StatsSnapshot {
     writer.println(averageOriginalBitmapSize);
     writer.print("  Average Transformed Bitmap Size: ");
     writer.println(averageTransformedBitmapSize);
+    writer.println("Bitmap Pool Stats");
+    writer.print("  Max Pool Size: ");
+    writer.println(bitmapPoolMaxSize);
+    writer.print("  Pool Size: ");
+    writer.println(bitmapPoolSize);
+    writer.print("  Pool Hits: ");
+    writer.println(bitmapPoolHits);
+    writer.print("  Pool Misses: ");
+    writer.println(bitmapPoolMisses);
+    writer.println("Encoded Cache Stats");
+    writer.print("  Max Encoded Cache Size: ");
+    writer.println(encodedCacheMaxSize);
+    writer.print("  Encoded Cache Size: ");
+    writer.println(encodedCacheSize);
+    writer.print("  Encoded Cache Hits: ");
+    writer.println(encodedCacheHits);
+    writer.print("  Encoded Cache Misses: ");
+    writer.println(encodedCacheMisses);
+    writer.println("Memory Trim Stats");
+    writer.print("  Trim Count: ");
+    writer.println(memoryTrimCount);
+    writer.print("  Total Trimmed Size: ");
+    writer.println(totalTrimmedSize);
+    writer.println("Delivery Stats");
+    writer.print("  Batch Count: ");
+    writer.println(batchCount);
+    writer.print("  Average Batch Size: ");
+    writer.println(averageBatchSize);
+    writer.print("  Average Batch Delay (ms): ");
+    writer.println(averageBatchDelay);
+    writer.println("Cancellation Stats");
+    writer.print("  Abandoned Hunters: ");
+    writer.println(abandonedCount);
+    writer.print("  Wasted Bytes Avoided: ");
+    writer.println(wastedBytesAvoided);
+    for (PartitionStats partition : partitions) {
+      writer.print("Cache Partition Stats: ");
+      writer.println(partition.name);
+      writer.print("  Max Size: ");
+      writer.println(partition.maxSize);
+      writer.print("  Size: ");
+      writer.println(partition.size);
+      writer.print("  Hits: ");
+      writer.println(partition.hitCount);
+      writer.print("  Misses: ");
+      writer.println(partition.missCount);
+      writer.print("  Evictions: ");
+      writer.println(partition.evictionCount);
+    }
+    for (StageStats stage : stages) {
+      writer.print("Pipeline Stage Stats: ");
+      writer.println(stage.name);
+      writer.print("  Threads: ");
+      writer.println(stage.threadCount);
+      writer.print("  Active: ");
+      writer.println(stage.activeCount);
+      writer.print("  Queued: ");
+      writer.println(stage.queueSize);
+      writer.print("  Started: ");
+      writer.println(stage.startedCount);
+      writer.print("  Average Queue Wait (ms): ");
+      writer.println(stage.averageWaitTime);
+    }
     writer.println("===============END PICASSO STATS ===============");
     writer.flush();
   }
@@ -114,6 +231,8 @@ public class StatsSnapshot {
         + cacheHits
         + ", cacheMisses="
         + cacheMisses
+        + ", cacheRejects="
+        + cacheRejects
         + ", downloadCount="
         + downloadCount
         + ", totalDownloadSize="
@@ -132,8 +251,148 @@ public class StatsSnapshot {
         + originalBitmapCount
         + ", transformedBitmapCount="
         + transformedBitmapCount
+        + ", bitmapPoolMaxSize="
+        + bitmapPoolMaxSize
+        + ", bitmapPoolSize="
+        + bitmapPoolSize
+        + ", bitmapPoolHits="
+        + bitmapPoolHits
+        + ", bitmapPoolMisses="
+        + bitmapPoolMisses
+        + ", encodedCacheMaxSize="
+        + encodedCacheMaxSize
+        + ", encodedCacheSize="
+        + encodedCacheSize
+        + ", encodedCacheHits="
+        + encodedCacheHits
+        + ", encodedCacheMisses="
+        + encodedCacheMisses
+        + ", memoryTrimCount="
+        + memoryTrimCount
+        + ", totalTrimmedSize="
+        + totalTrimmedSize
+        + ", batchCount="
+        + batchCount
+        + ", averageBatchSize="
+        + averageBatchSize
+        + ", averageBatchDelay="
+        + averageBatchDelay
+        + ", abandonedCount="
+        + abandonedCount
+        + ", wastedBytesAvoided="
+        + wastedBytesAvoided
+        + ", partitions="
+        + partitions
+        + ", stages="
+        + stages
         + ", timeStamp="
         + timeStamp
         + '}';
   }
+
+  /** Stats of one memory cache partition. */
+  public static final class PartitionStats {
+    public final String name;
+    public final int maxSize;
+    public final int size;
+    public final int hitCount;
+    public final int missCount;
+    public final int evictionCount;
+
+    public PartitionStats(String name, int maxSize, int size, int hitCount, int missCount,
+        int evictionCount) {
+      this.name = name;
+      this.maxSize = maxSize;
+      this.size = size;
+      this.hitCount = hitCount;
+      this.missCount = missCount;
+      this.evictionCount = evictionCount;
+    }
+
+    @Override public String toString() {
+      return "PartitionStats{"
+          + "name="
+          + name
+          + ", maxSize="
+          + maxSize
+          + ", size="
+          + size
+          + ", hitCount="
+          + hitCount
+          + ", missCount="
+          + missCount
+          + ", evictionCount="
+          + evictionCount
+          + '}';
+    }
+  }
+
+  /** Queue stats of one pipeline stage, such as network fetching or decoding. */
+  public static final class StageStats {
+    public final String name;
+    public final int threadCount;
+    public final int activeCount;
+    public final int queueSize;
+    public final int startedCount;
+    public final long averageWaitTime;
+
+    public StageStats(String name, int threadCount, int activeCount, int queueSize,
+        int startedCount, long averageWaitTime) {
+      this.name = name;
+      this.threadCount = threadCount;
+      this.activeCount = activeCount;
+      this.queueSize = queueSize;
+      this.startedCount = startedCount;
+      this.averageWaitTime = averageWaitTime;
+    }
+
+    @Override public String toString() {
+      return "StageStats{"
+          + "name="
+          + name
+          + ", threadCount="
+          + threadCount
+          + ", activeCount="
+          + activeCount
+          + ", queueSize="
+          + queueSize
+          + ", startedCount="
+          + startedCount
+          + ", averageWaitTime="
+          + averageWaitTime
+          + '}';
+    }
+  }
+
+  /** Size and lookups of a store which is not the memory cache, such as the bitmap pool. */
+  static final class StoreStats {
+    static final StoreStats EMPTY = new StoreStats(0, 0, 0, 0);
+
+    final int maxSize;
+    final int size;
+    final long hits;
+    final long misses;
+
+    StoreStats(int maxSize, int size, long hits, long misses) {
+      this.maxSize = maxSize;
+      this.size = size;
+      this.hits = hits;
+      this.misses = misses;
+    }
+  }
+
+  /** Batching of completed requests on their way to the main thread. */
+  static final class DeliveryStats {
+    static final DeliveryStats EMPTY = new DeliveryStats(0, 0, 0);
+
+    final int batchCount;
+    final float averageBatchSize;
+    final long averageBatchDelay;
+
+    DeliveryStats(int batchCount, float averageBatchSize, long averageBatchDelay) {
+      this.batchCount = batchCount;
+      this.averageBatchSize = averageBatchSize;
+      this.averageBatchDelay = averageBatchDelay;
+    }
+  }
 }
@@ -21,8 +21,8 @@ import android.graphics.drawable.Drawable;
 final class TargetAction extends Action<Target> {
 
   TargetAction(Picasso picasso, Target target, Request data, boolean skipCache,
-        int errorResId, Drawable errorDrawable, String key) {
-    super(picasso, target, data, skipCache, false, errorResId, errorDrawable, key);
+        int errorResId, Drawable errorDrawable, String key, Object tag, long deadline) {
+    super(picasso, target, data, skipCache, false, errorResId, errorDrawable, key, tag, deadline);
   }
 
   @Override void complete(Bitmap result, Picasso.LoadedFrom from) {
@@ -32,6 +32,7 @@ final class TargetAction extends Action<Target> {
     }
     Target target = getTarget();
     if (target != null) {
+      retain(result);
       target.onBitmapLoaded(result, from);
       if (result.isRecycled()) {
         throw new IllegalStateException("Target callback must not recycle bitmap!");
@@ -0,0 +1,28 @@
+/*
+ * Copyright (C) 2014 Square, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.squareup.picasso;
+
+/**
+ * Implemented by a {@link Callback} or {@link Target} which wants to tell a request whose
+ * {@link RequestCreator#deadline deadline} passed apart from one which failed to load.
+ */
+public interface TimeoutListener {
+  /**
+   * Invoked when the deadline passed before the image was loaded, right before {@link
+   * Callback#onError()} or {@link Target#onBitmapFailed}.
+   */
+  void onTimeout();
+}
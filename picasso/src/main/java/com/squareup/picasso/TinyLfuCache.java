@@ -0,0 +1,350 @@
+/*
+ * Copyright (C) 2014 Square, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.squareup.picasso;
+
+import android.content.Context;
+import android.graphics.Bitmap;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * A memory cache which only keeps new images at the expense of existing ones when they are likely
+ * to be requested again.
+ * <p>
+ * New entries land in a small least-recently used window. When the window overflows its eldest
+ * entry becomes a candidate for the main area and is admitted only if a {@link FrequencySketch}
+ * estimates it has been requested more often than the entry it would replace. A burst of one-off
+ * images therefore cycles through the window without flushing frequently used images.
+ */
+public class TinyLfuCache implements Cache, TrimmableCache, UriIndexedCache {
+  /** Percentage of the byte budget given to the admission window. */
+  static final int WINDOW_PERCENT = 10;
+  /** Assumed average entry size, used to size the frequency sketch. */
+  static final int AVERAGE_ENTRY_BYTES = 32 * 1024;
+
+  final LinkedHashMap<String, Bitmap> window;
+  final LinkedHashMap<String, Bitmap> main;
+  final FrequencySketch sketch;
+  final KeyIndex keyIndex = new KeyIndex();
+  final BitmapPool bitmapPool;
+  private final int maxSize;
+  private final int maxWindowSize;
+  private final int maxMainSize;
+
+  private int windowSize;
+  private int mainSize;
+  private int putCount;
+  private int evictionCount;
+  private int rejectCount;
+  private int hitCount;
+  private int missCount;
+
+  /** Create a cache using an appropriate portion of the available RAM as the maximum size. */
+  public TinyLfuCache(Context context) {
+    this(Utils.calculateMemoryCacheSize(context), null);
+  }
+
+  /** Create a cache with a given maximum size in bytes. */
+  public TinyLfuCache(int maxSize) {
+    this(maxSize, null);
+  }
+
+  /**
+   * Create a cache with a given maximum size in bytes which offers evicted and rejected bitmaps
+   * to {@code bitmapPool} for reuse. The pool may be {@code null}.
+   */
+  public TinyLfuCache(int maxSize, BitmapPool bitmapPool) {
+    if (maxSize <= 0) {
+      throw new IllegalArgumentException("Max size must be positive.");
+    }
+    this.maxSize = maxSize;
+    this.maxWindowSize = Math.max(1, (int) ((long) maxSize * WINDOW_PERCENT / 100));
+    this.maxMainSize = Math.max(1, maxSize - maxWindowSize);
+    this.bitmapPool = bitmapPool;
+    this.window = new LinkedHashMap<String, Bitmap>(0, 0.75f, true);
+    this.main = new LinkedHashMap<String, Bitmap>(0, 0.75f, true);
+    this.sketch = new FrequencySketch(Math.max(maxSize / AVERAGE_ENTRY_BYTES, 16));
+  }
+
+  @Override public Bitmap get(String key) {
+    if (key == null) {
+      throw new NullPointerException("key == null");
+    }
+
+    synchronized (this) {
+      sketch.increment(key.hashCode());
+      Bitmap value = main.get(key);
+      if (value == null) {
+        value = window.get(key);
+      }
+      if (value != null) {
+        hitCount++;
+        return value;
+      }
+      missCount++;
+    }
+    return null;
+  }
+
+  @Override public void set(String key, Bitmap bitmap) {
+    if (key == null || bitmap == null) {
+      throw new NullPointerException("key == null || bitmap == null");
+    }
+
+    if (bitmapPool != null) {
+      bitmapPool.acquire(bitmap);
+    }
+
+    List<Bitmap> removed;
+    synchronized (this) {
+      putCount++;
+      sketch.increment(key.hashCode());
+      int bitmapSize = Utils.getBitmapBytes(bitmap);
+      Bitmap previous;
+      if (main.containsKey(key)) {
+        previous = main.put(key, bitmap);
+        mainSize += bitmapSize - Utils.getBitmapBytes(previous);
+        removed = trimMain();
+      } else {
+        previous = window.put(key, bitmap);
+        windowSize += bitmapSize;
+        if (previous != null) {
+          windowSize -= Utils.getBitmapBytes(previous);
+        } else {
+          keyIndex.add(key);
+        }
+        removed = trimWindow();
+      }
+      if (previous != null) {
+        removed = add(removed, previous);
+      }
+    }
+
+    release(removed);
+  }
+
+  /** Move entries out of the window until it fits, offering each to the main area. */
+  private List<Bitmap> trimWindow() {
+    List<Bitmap> removed = null;
+    while (windowSize > maxWindowSize && !window.isEmpty()) {
+      Map.Entry<String, Bitmap> eldest = window.entrySet().iterator().next();
+      String candidateKey = eldest.getKey();
+      Bitmap candidate = eldest.getValue();
+      window.remove(candidateKey);
+      windowSize -= Utils.getBitmapBytes(candidate);
+      removed = admit(candidateKey, candidate, removed);
+    }
+    return removed;
+  }
+
+  /**
+   * Make room for {@code candidate} in the main area by evicting entries which are used less
+   * frequently. If an entry at least as popular stands in the way the candidate is rejected, and
+   * nothing is evicted for it.
+   */
+  private List<Bitmap> admit(String key, Bitmap candidate, List<Bitmap> removed) {
+    int candidateSize = Utils.getBitmapBytes(candidate);
+    int candidateFrequency = sketch.frequency(key.hashCode());
+    if (candidateSize <= maxMainSize) {
+      // Count the victims first, so that none are lost if the candidate is rejected anyway.
+      int victims = 0;
+      int freed = 0;
+      Iterator<Map.Entry<String, Bitmap>> iterator = main.entrySet().iterator();
+      while (mainSize - freed + candidateSize > maxMainSize && iterator.hasNext()) {
+        Map.Entry<String, Bitmap> victim = iterator.next();
+        if (sketch.frequency(victim.getKey().hashCode()) >= candidateFrequency) {
+          break;
+        }
+        freed += Utils.getBitmapBytes(victim.getValue());
+        victims++;
+      }
+      if (mainSize - freed + candidateSize <= maxMainSize) {
+        iterator = main.entrySet().iterator();
+        for (int i = 0; i < victims; i++) {
+          Map.Entry<String, Bitmap> victim = iterator.next();
+          iterator.remove();
+          keyIndex.remove(victim.getKey());
+          mainSize -= Utils.getBitmapBytes(victim.getValue());
+          evictionCount++;
+          removed = add(removed, victim.getValue());
+        }
+        main.put(key, candidate);
+        mainSize += candidateSize;
+        return removed;
+      }
+    }
+    rejectCount++;
+    keyIndex.remove(key);
+    return add(removed, candidate);
+  }
+
+  private List<Bitmap> trimMain() {
+    List<Bitmap> removed = null;
+    Iterator<Map.Entry<String, Bitmap>> iterator = main.entrySet().iterator();
+    while (mainSize > maxMainSize && iterator.hasNext()) {
+      Map.Entry<String, Bitmap> eldest = iterator.next();
+      Bitmap value = eldest.getValue();
+      iterator.remove();
+      keyIndex.remove(eldest.getKey());
+      mainSize -= Utils.getBitmapBytes(value);
+      evictionCount++;
+      removed = add(removed, value);
+    }
+    return removed;
+  }
+
+  private static List<Bitmap> add(List<Bitmap> list, Bitmap bitmap) {
+    if (list == null) {
+      list = new ArrayList<Bitmap>(2);
+    }
+    list.add(bitmap);
+    return list;
+  }
+
+  private void release(List<Bitmap> removed) {
+    if (removed == null || bitmapPool == null) {
+      return;
+    }
+    for (int i = 0, n = removed.size(); i < n; i++) {
+      bitmapPool.release(removed.get(i));
+    }
+  }
+
+  /** Evict from the main area first and the window last, each in least-recently used order. */
+  @Override public void trimToSize(int maxSize) {
+    List<Bitmap> removed = null;
+    synchronized (this) {
+      removed = evict(main, maxSize, removed, true);
+      removed = evict(window, maxSize, removed, false);
+    }
+    release(removed);
+  }
+
+  private List<Bitmap> evict(LinkedHashMap<String, Bitmap> map, int maxSize, List<Bitmap> removed,
+      boolean isMain) {
+    Iterator<Map.Entry<String, Bitmap>> iterator = map.entrySet().iterator();
+    while (windowSize + mainSize > maxSize && iterator.hasNext()) {
+      Map.Entry<String, Bitmap> eldest = iterator.next();
+      Bitmap value = eldest.getValue();
+      iterator.remove();
+      keyIndex.remove(eldest.getKey());
+      int valueSize = Utils.getBitmapBytes(value);
+      if (isMain) {
+        mainSize -= valueSize;
+      } else {
+        windowSize -= valueSize;
+      }
+      evictionCount++;
+      removed = add(removed, value);
+    }
+    return removed;
+  }
+
+  @Override public void clearKeyUri(String uri) {
+    List<Bitmap> removed;
+    synchronized (this) {
+      removed = remove(keyIndex.keysFor(uri));
+    }
+    release(removed);
+  }
+
+  @Override public void clearKeyUriPrefix(String prefix) {
+    List<Bitmap> removed;
+    synchronized (this) {
+      removed = remove(keyIndex.keysWithPrefix(prefix));
+    }
+    release(removed);
+  }
+
+  private List<Bitmap> remove(List<String> keys) {
+    List<Bitmap> removed = null;
+    for (int i = 0, n = keys.size(); i < n; i++) {
+      String key = keys.get(i);
+      keyIndex.remove(key);
+      Bitmap value = main.remove(key);
+      if (value != null) {
+        mainSize -= Utils.getBitmapBytes(value);
+        removed = add(removed, value);
+        continue;
+      }
+      value = window.remove(key);
+      if (value != null) {
+        windowSize -= Utils.getBitmapBytes(value);
+        removed = add(removed, value);
+      }
+    }
+    return removed;
+  }
+
+  /** Clear the cache. */
+  public final void evictAll() {
+    List<Bitmap> removed;
+    synchronized (this) {
+      removed = new ArrayList<Bitmap>(window.size() + main.size());
+      removed.addAll(window.values());
+      removed.addAll(main.values());
+      evictionCount += removed.size();
+      window.clear();
+      main.clear();
+      keyIndex.clear();
+      windowSize = 0;
+      mainSize = 0;
+    }
+    release(removed);
+  }
+
+  /** Returns the sum of the sizes of the entries in this cache. */
+  @Override public final synchronized int size() {
+    return windowSize + mainSize;
+  }
+
+  /** Returns the maximum sum of the sizes of the entries in this cache. */
+  @Override public final synchronized int maxSize() {
+    return maxSize;
+  }
+
+  @Override public final synchronized void clear() {
+    evictAll();
+  }
+
+  /** Returns the number of times {@link #get} returned a value. */
+  public final synchronized int hitCount() {
+    return hitCount;
+  }
+
+  /** Returns the number of times {@link #get} returned {@code null}. */
+  public final synchronized int missCount() {
+    return missCount;
+  }
+
+  /** Returns the number of times {@link #set(String, Bitmap)} was called. */
+  public final synchronized int putCount() {
+    return putCount;
+  }
+
+  /** Returns the number of values that have been evicted from the main area. */
+  public final synchronized int evictionCount() {
+    return evictionCount;
+  }
+
+  /** Returns the number of window entries which were not admitted to the main area. */
+  public final synchronized int rejectCount() {
+    return rejectCount;
+  }
+}
@@ -0,0 +1,28 @@
+/*
+ * Copyright (C) 2014 Square, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.squareup.picasso;
+
+/**
+ * A {@link Cache} which can give up part of its contents when the system is low on memory. Other
+ * caches are only cleared, and only when nothing may be kept.
+ */
+interface TrimmableCache {
+  /**
+   * Remove the least valuable entries until the size of the cache is at most {@code maxSize}
+   * bytes.
+   */
+  void trimToSize(int maxSize);
+}
@@ -0,0 +1,31 @@
+/*
+ * Copyright (C) 2014 Square, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.squareup.picasso;
+
+/**
+ * A {@link Cache} which can remove entries by the source they were loaded from. Other caches are
+ * cleared entirely when an image is invalidated.
+ */
+interface UriIndexedCache {
+  /**
+   * Remove every entry stored for the source {@code uri}, whatever its size or transformations.
+   * The source is the part of a key before its first line break.
+   */
+  void clearKeyUri(String uri);
+
+  /** Remove every entry whose source starts with {@code prefix}. */
+  void clearKeyUriPrefix(String prefix);
+}
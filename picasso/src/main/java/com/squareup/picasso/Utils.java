@@ -55,8 +55,12 @@ final class Utils {
   private static final int MIN_DISK_CACHE_SIZE = 5 * 1024 * 1024; // 5MB
   private static final int MAX_DISK_CACHE_SIZE = 50 * 1024 * 1024; // 50MB
 
-  /** Thread confined to main thread for key creation. */
-  static final StringBuilder MAIN_THREAD_KEY_BUILDER = new StringBuilder();
+  /** Reused by {@link #createKey(Request)} so that keys can be built without allocating. */
+  static final ThreadLocal<StringBuilder> KEY_BUILDER = new ThreadLocal<StringBuilder>() {
+    @Override protected StringBuilder initialValue() {
+      return new StringBuilder();
+    }
+  };
 
   /** Logging */
   static final String OWNER_MAIN = "Main";
@@ -67,9 +71,11 @@ final class Utils {
   static final String VERB_IGNORED = "ignored";
   static final String VERB_ENQUEUED = "enqueued";
   static final String VERB_CANCELED = "canceled";
+  static final String VERB_TIMED_OUT = "timed out";
   static final String VERB_BATCHED = "batched";
   static final String VERB_RETRYING = "retrying";
   static final String VERB_EXECUTING = "executing";
+  static final String VERB_FETCHED = "fetched";
   static final String VERB_DECODED = "decoded";
   static final String VERB_TRANSFORMED = "transformed";
   static final String VERB_JOINED = "joined";
@@ -78,6 +84,8 @@ final class Utils {
   static final String VERB_REPLAYING = "replaying";
   static final String VERB_COMPLETED = "completed";
   static final String VERB_ERRORED = "errored";
+  static final String VERB_PAUSED = "paused";
+  static final String VERB_RESUMED = "resumed";
 
   /* WebP file header
      0                   1                   2                   3
@@ -156,8 +164,9 @@ final class Utils {
   }
 
   static String createKey(Request data) {
-    String result = createKey(data, MAIN_THREAD_KEY_BUILDER);
-    MAIN_THREAD_KEY_BUILDER.setLength(0);
+    StringBuilder builder = KEY_BUILDER.get();
+    String result = createKey(data, builder);
+    builder.setLength(0);
     return result;
   }
 
@@ -171,7 +180,16 @@ final class Utils {
       builder.append(data.resourceId);
     }
     builder.append('\n');
+    appendKeyOptions(data, builder);
+    return builder.toString();
+  }
 
+  /** Append one line per option of {@code data} which affects the resulting image. */
+  static void appendKeyOptions(Request data, StringBuilder builder) {
+    if (data.cachePartition != null) {
+      // Always the first option, so the cache finds it right after the source.
+      builder.append(PartitionedCache.PARTITION_PREFIX).append(data.cachePartition).append('\n');
+    }
     if (data.rotationDegrees != 0) {
       builder.append("rotation:").append(data.rotationDegrees);
       if (data.hasRotationPivot) {
@@ -196,8 +214,6 @@ final class Utils {
         builder.append('\n');
       }
     }
-
-    return builder.toString();
   }
 
   static void closeQuietly(InputStream is) {
@@ -280,6 +296,50 @@ final class Utils {
     return Math.max(Math.min(size, MAX_DISK_CACHE_SIZE), MIN_DISK_CACHE_SIZE);
   }
 
+  /**
+   * Shrink {@code cache} to at most {@code maxSize} bytes if it is a {@link TrimmableCache}.
+   * Other caches are cleared when nothing may be kept and left alone otherwise.
+   */
+  static void trimCache(Cache cache, int maxSize) {
+    if (cache instanceof TrimmableCache) {
+      ((TrimmableCache) cache).trimToSize(maxSize);
+    } else if (maxSize <= 0) {
+      cache.clear();
+    }
+  }
+
+  /**
+   * Remove the entries for the source {@code uri} from {@code cache}, or everything if it is not a
+   * {@link UriIndexedCache}.
+   */
+  static void clearKeyUri(Cache cache, String uri) {
+    if (cache instanceof UriIndexedCache) {
+      ((UriIndexedCache) cache).clearKeyUri(uri);
+    } else {
+      cache.clear();
+    }
+  }
+
+  /**
+   * Remove the entries whose source starts with {@code prefix} from {@code cache}, or everything
+   * if it is not a {@link UriIndexedCache}.
+   */
+  static void clearKeyUriPrefix(Cache cache, String prefix) {
+    if (cache instanceof UriIndexedCache) {
+      ((UriIndexedCache) cache).clearKeyUriPrefix(prefix);
+    } else {
+      cache.clear();
+    }
+  }
+
+  /** Returns true if {@code cache} degrades entries before evicting them when it is trimmed. */
+  static boolean degradesBeforeEvict(Cache cache) {
+    if (cache instanceof PartitionedCache) {
+      return ((PartitionedCache) cache).degradesBeforeEvict();
+    }
+    return cache instanceof LruCache && ((LruCache) cache).degradesBeforeEvict();
+  }
+
   static int calculateMemoryCacheSize(Context context) {
     ActivityManager am = getService(context, ACTIVITY_SERVICE);
     boolean largeHeap = (context.getApplicationInfo().flags & FLAG_LARGE_HEAP) != 0;
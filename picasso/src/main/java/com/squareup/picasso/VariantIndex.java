@@ -0,0 +1,149 @@
+/*
+ * Copyright (C) 2014 Square, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.squareup.picasso;
+
+import android.graphics.Bitmap;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Remembers which plain variants of each source URI were put into the memory cache, so that a
+ * request for a smaller size can be scaled from a larger variant instead of being decoded again.
+ * <p>
+ * Only variants without rotation, cropping or custom transformations are recorded, since scaling
+ * one of them yields the same image as scaling the source. The index is not told about evictions;
+ * callers must verify a variant is still cached and {@link #remove} it otherwise.
+ */
+final class VariantIndex {
+  /** Maximum number of source URIs remembered. */
+  static final int MAX_SOURCES = 256;
+  /** Maximum number of variants remembered per source URI. */
+  static final int MAX_VARIANTS = 4;
+
+  final Map<String, List<Variant>> sources =
+      new LinkedHashMap<String, List<Variant>>(0, 0.75f, true) {
+        @Override protected boolean removeEldestEntry(Map.Entry<String, List<Variant>> eldest) {
+          return size() > MAX_SOURCES;
+        }
+      };
+
+  /** Record that {@code bitmap}, created for {@code data}, is cached under {@code key}. */
+  synchronized void put(String key, Request data, Bitmap bitmap) {
+    if (data.uri == null || data.rotationDegrees != 0 || data.centerCrop || data.centerInside
+        || data.hasCustomTransformations()) {
+      return;
+    }
+    String source = data.uri.toString();
+    List<Variant> variants = sources.get(source);
+    if (variants == null) {
+      variants = new ArrayList<Variant>(2);
+      sources.put(source, variants);
+    }
+    for (int i = 0, n = variants.size(); i < n; i++) {
+      if (variants.get(i).key.equals(key)) {
+        variants.remove(i);
+        break;
+      }
+    }
+    if (variants.size() == MAX_VARIANTS) {
+      variants.remove(0);
+    }
+    variants.add(new Variant(key, bitmap.getWidth(), bitmap.getHeight(), !data.hasSize()));
+  }
+
+  /**
+   * Returns the keys of the cached variants {@code data} can be scaled from, smallest first. The
+   * list is empty if the request has no target size, rotates or uses custom transformations.
+   */
+  synchronized List<String> candidates(Request data) {
+    if (!canScaleTo(data)) {
+      return new ArrayList<String>(0);
+    }
+    List<Variant> variants = sources.get(data.uri.toString());
+    if (variants == null) {
+      return new ArrayList<String>(0);
+    }
+    boolean keepsAspectRatio = data.centerCrop || data.centerInside;
+    List<Variant> matches = new ArrayList<Variant>(variants.size());
+    for (int i = 0, n = variants.size(); i < n; i++) {
+      Variant variant = variants.get(i);
+      // A resized variant has been stretched to its target, so it can not be cropped or fitted.
+      if (keepsAspectRatio && !variant.original) {
+        continue;
+      }
+      if (variant.width < data.targetWidth || variant.height < data.targetHeight) {
+        continue;
+      }
+      int index = matches.size();
+      while (index > 0 && matches.get(index - 1).pixels() > variant.pixels()) {
+        index--;
+      }
+      matches.add(index, variant);
+    }
+    List<String> keys = new ArrayList<String>(matches.size());
+    for (int i = 0, n = matches.size(); i < n; i++) {
+      keys.add(matches.get(i).key);
+    }
+    return keys;
+  }
+
+  /** Forget the variant of {@code source} cached under {@code key}. */
+  synchronized void remove(String source, String key) {
+    List<Variant> variants = sources.get(source);
+    if (variants == null) {
+      return;
+    }
+    for (int i = 0, n = variants.size(); i < n; i++) {
+      if (variants.get(i).key.equals(key)) {
+        variants.remove(i);
+        break;
+      }
+    }
+    if (variants.isEmpty()) {
+      sources.remove(source);
+    }
+  }
+
+  synchronized void clear() {
+    sources.clear();
+  }
+
+  static boolean canScaleTo(Request data) {
+    return data.uri != null && data.hasSize() && data.rotationDegrees == 0
+        && !data.hasCustomTransformations();
+  }
+
+  static final class Variant {
+    final String key;
+    final int width;
+    final int height;
+    /** True if the variant was decoded without a target size. */
+    final boolean original;
+
+    Variant(String key, int width, int height, boolean original) {
+      this.key = key;
+      this.width = width;
+      this.height = height;
+      this.original = original;
+    }
+
+    long pixels() {
+      return (long) width * height;
+    }
+  }
+}
@@ -22,7 +22,10 @@ import android.graphics.Matrix;
 import android.net.Uri;
 import java.io.File;
 import java.io.IOException;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Future;
 import java.util.concurrent.FutureTask;
+import java.util.concurrent.PriorityBlockingQueue;
 import org.junit.Before;
 import org.junit.Test;
 import org.junit.runner.RunWith;
@@ -35,10 +38,15 @@ import org.robolectric.shadows.ShadowMatrix;
 import static android.graphics.Bitmap.Config.ARGB_8888;
 import static android.graphics.Bitmap.Config.RGB_565;
 import static com.squareup.picasso.BitmapHunter.createBitmapOptions;
+import static com.squareup.picasso.BitmapHunter.estimateTransformBytes;
 import static com.squareup.picasso.BitmapHunter.forRequest;
 import static com.squareup.picasso.BitmapHunter.requiresInSampleSize;
 import static com.squareup.picasso.BitmapHunter.transformResult;
 import static com.squareup.picasso.Picasso.LoadedFrom.MEMORY;
+import static com.squareup.picasso.Picasso.Priority.HIGH;
+import static com.squareup.picasso.Picasso.Priority.LOW;
+import static com.squareup.picasso.Picasso.Priority.NORMAL;
+import static com.squareup.picasso.PicassoExecutorService.PicassoFutureTask;
 import static com.squareup.picasso.TestUtils.ASSET_KEY_1;
 import static com.squareup.picasso.TestUtils.ASSET_URI_1;
 import static com.squareup.picasso.TestUtils.BITMAP_1;
@@ -63,10 +71,13 @@ import static com.squareup.picasso.TestUtils.mockImageViewTarget;
 import static org.fest.assertions.api.ANDROID.assertThat;
 import static org.fest.assertions.api.Assertions.assertThat;
 import static org.fest.assertions.api.Assertions.entry;
+import static org.mockito.Matchers.any;
+import static org.mockito.Matchers.anyLong;
 import static org.mockito.Mockito.mock;
 import static org.mockito.Mockito.never;
 import static org.mockito.Mockito.spy;
 import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.verifyZeroInteractions;
 import static org.mockito.Mockito.when;
 import static org.mockito.MockitoAnnotations.initMocks;
 import static org.robolectric.Robolectric.shadowOf;
@@ -116,6 +127,43 @@ public class BitmapHunterTest {
     verify(dispatcher).dispatchFailed(hunter);
   }
 
+  @Test public void cancelledHunterStopsBeforeTransforming() throws Exception {
+    Bitmap decoded = Bitmap.createBitmap(10, 10, ARGB_8888);
+    Transformation transformation = mock(Transformation.class);
+    Request data = new Request.Builder(URI_1).transform(transformation).build();
+    Action action = mockAction(URI_KEY_1, data);
+    BitmapHunter hunter =
+        new TestableBitmapHunter(picasso, dispatcher, cache, stats, action, decoded);
+    hunter.future = new FutureTask<Object>(mock(Runnable.class), null);
+    hunter.future.cancel(false);
+    hunter.run();
+    verify(transformation, never()).transform(any(Bitmap.class));
+    verify(stats).dispatchHunterAbandoned(estimateTransformBytes(data, decoded, 0));
+    verifyZeroInteractions(dispatcher);
+    assertThat(decoded.isRecycled()).isTrue();
+  }
+
+  @Test public void cancelledHunterSkipsRemainingTransformations() throws Exception {
+    final BitmapHunter[] hunter = new BitmapHunter[1];
+    Transformation cancelling = new TestTransformation("cancel") {
+      @Override public Bitmap transform(Bitmap source) {
+        hunter[0].future.cancel(false);
+        return super.transform(source);
+      }
+    };
+    Transformation skipped = mock(Transformation.class);
+    Request data =
+        new Request.Builder(URI_1).transform(cancelling).transform(skipped).build();
+    Action action = mockAction(URI_KEY_1, data);
+    hunter[0] = new TestableBitmapHunter(picasso, dispatcher, cache, stats, action,
+        Bitmap.createBitmap(10, 10, ARGB_8888));
+    hunter[0].future = new FutureTask<Object>(mock(Runnable.class), null);
+    hunter[0].run();
+    verify(skipped, never()).transform(any(Bitmap.class));
+    verify(stats).dispatchHunterAbandoned(anyLong());
+    verifyZeroInteractions(dispatcher);
+  }
+
   @Test public void outOfMemoryDispatchFailed() throws Exception {
     when(stats.createSnapshot()).thenReturn(mock(StatsSnapshot.class));
 
@@ -201,6 +249,118 @@ public class BitmapHunterTest {
     assertThat(hunter.action).isNull();
   }
 
+  @Test public void attachRaisesPriority() throws Exception {
+    Action action1 = mockAction(URI_KEY_1, new Request.Builder(URI_1).priority(LOW).build());
+    Action action2 = mockAction(URI_KEY_1, new Request.Builder(URI_1).priority(HIGH).build());
+    BitmapHunter hunter = new TestableBitmapHunter(picasso, dispatcher, cache, stats, action1);
+    assertThat(hunter.getPriority()).isEqualTo(LOW);
+    hunter.attach(action2);
+    assertThat(hunter.getPriority()).isEqualTo(HIGH);
+  }
+
+  @Test public void detachRestoresHighestRemainingPriority() throws Exception {
+    Action action1 = mockAction(URI_KEY_1, new Request.Builder(URI_1).build());
+    Action action2 = mockAction(URI_KEY_1, new Request.Builder(URI_1).priority(HIGH).build());
+    Action action3 = mockAction(URI_KEY_1, new Request.Builder(URI_1).priority(LOW).build());
+    BitmapHunter hunter = new TestableBitmapHunter(picasso, dispatcher, cache, stats, action1);
+    hunter.attach(action2);
+    hunter.attach(action3);
+    hunter.detach(action2);
+    assertThat(hunter.getPriority()).isEqualTo(NORMAL);
+  }
+
+  @Test public void queuedHuntersAreOrderedByPriorityThenSubmission() throws Exception {
+    BitmapHunter low = new TestableBitmapHunter(picasso, dispatcher, cache, stats,
+        mockAction(URI_KEY_1, new Request.Builder(URI_1).priority(LOW).build()));
+    BitmapHunter normal1 = new TestableBitmapHunter(picasso, dispatcher, cache, stats,
+        mockAction(URI_KEY_1, new Request.Builder(URI_1).build()));
+    BitmapHunter high = new TestableBitmapHunter(picasso, dispatcher, cache, stats,
+        mockAction(URI_KEY_1, new Request.Builder(URI_1).priority(HIGH).build()));
+    BitmapHunter normal2 = new TestableBitmapHunter(picasso, dispatcher, cache, stats,
+        mockAction(URI_KEY_1, new Request.Builder(URI_1).build()));
+
+    PriorityBlockingQueue<PicassoFutureTask> queue =
+        new PriorityBlockingQueue<PicassoFutureTask>();
+    queue.add(new PicassoFutureTask(low, false));
+    queue.add(new PicassoFutureTask(normal1, false));
+    queue.add(new PicassoFutureTask(high, false));
+    queue.add(new PicassoFutureTask(normal2, false));
+
+    assertThat(queue.poll().hunter).isSameAs(high);
+    assertThat(queue.poll().hunter).isSameAs(normal1);
+    assertThat(queue.poll().hunter).isSameAs(normal2);
+    assertThat(queue.poll().hunter).isSameAs(low);
+  }
+
+  @Test public void queuedPlainTasksRunAtNormalPriority() throws Exception {
+    BitmapHunter low = new TestableBitmapHunter(picasso, dispatcher, cache, stats,
+        mockAction(URI_KEY_1, new Request.Builder(URI_1).priority(LOW).build()));
+    BitmapHunter high = new TestableBitmapHunter(picasso, dispatcher, cache, stats,
+        mockAction(URI_KEY_1, new Request.Builder(URI_1).priority(HIGH).build()));
+
+    PriorityBlockingQueue<PicassoFutureTask> queue =
+        new PriorityBlockingQueue<PicassoFutureTask>();
+    queue.add(new PicassoFutureTask(low, false));
+    queue.add(new PicassoFutureTask(mock(Runnable.class), false));
+    queue.add(new PicassoFutureTask(high, false));
+
+    assertThat(queue.poll().hunter).isSameAs(high);
+    assertThat(queue.poll().hunter).isNull();
+    assertThat(queue.poll().hunter).isSameAs(low);
+  }
+
+  @Test public void queuedHunterMovesOnlyWhenRequeued() throws Exception {
+    BitmapHunter low = new TestableBitmapHunter(picasso, dispatcher, cache, stats,
+        mockAction(URI_KEY_1, new Request.Builder(URI_1).priority(LOW).build()));
+    BitmapHunter normal = new TestableBitmapHunter(picasso, dispatcher, cache, stats,
+        mockAction(URI_KEY_1, new Request.Builder(URI_1).build()));
+
+    PicassoExecutorService service = new PicassoExecutorService(1, false);
+    final CountDownLatch busy = new CountDownLatch(1);
+    service.execute(new Runnable() {
+      @Override public void run() {
+        try {
+          busy.await();
+        } catch (InterruptedException ignored) {
+        }
+      }
+    });
+    try {
+      Future<?> lowTask = service.submit(low);
+      Future<?> normalTask = service.submit(normal);
+
+      low.priority = HIGH;
+      assertThat(((PicassoFutureTask) lowTask).priority).isEqualTo(LOW);
+      assertThat(service.getQueue().peek()).isSameAs(normalTask);
+
+      service.requeue(lowTask);
+      assertThat(((PicassoFutureTask) lowTask).priority).isEqualTo(HIGH);
+      assertThat(service.getQueue().peek()).isSameAs(lowTask);
+    } finally {
+      busy.countDown();
+      service.shutdownNow();
+    }
+  }
+
+  @Test public void lifoQueuesStartNewestHuntersFirst() throws Exception {
+    BitmapHunter first = new TestableBitmapHunter(picasso, dispatcher, cache, stats,
+        mockAction(URI_KEY_1, new Request.Builder(URI_1).build()));
+    BitmapHunter second = new TestableBitmapHunter(picasso, dispatcher, cache, stats,
+        mockAction(URI_KEY_1, new Request.Builder(URI_1).build()));
+    BitmapHunter low = new TestableBitmapHunter(picasso, dispatcher, cache, stats,
+        mockAction(URI_KEY_1, new Request.Builder(URI_1).priority(LOW).build()));
+
+    PriorityBlockingQueue<PicassoFutureTask> queue =
+        new PriorityBlockingQueue<PicassoFutureTask>();
+    queue.add(new PicassoFutureTask(first, true));
+    queue.add(new PicassoFutureTask(second, true));
+    queue.add(new PicassoFutureTask(low, true));
+
+    assertThat(queue.poll().hunter).isSameAs(second);
+    assertThat(queue.poll().hunter).isSameAs(first);
+    assertThat(queue.poll().hunter).isSameAs(low);
+  }
+
   @Test public void cancelSingleRequest() throws Exception {
     Action action1 = mockAction(URI_KEY_1, URI_1, mockImageViewTarget());
     BitmapHunter hunter = new TestableBitmapHunter(picasso, dispatcher, cache, stats, action1);
@@ -298,6 +458,19 @@ public class BitmapHunterTest {
     assertThat(hunter).isInstanceOf(FileBitmapHunter.class);
   }
 
+  @Test public void estimateTransformBytesUsesTargetSize() throws Exception {
+    Bitmap source = Bitmap.createBitmap(100, 100, ARGB_8888);
+    Request data = new Request.Builder(URI_1).resize(10, 20).centerCrop().build();
+    assertThat(estimateTransformBytes(data, source, 0)).isEqualTo(10 * 20 * 4);
+  }
+
+  @Test public void estimateTransformBytesCountsCustomTransformations() throws Exception {
+    Bitmap source = Bitmap.createBitmap(100, 100, ARGB_8888);
+    Request data = new Request.Builder(URI_1).transform(new TestTransformation("test")).build();
+    assertThat(estimateTransformBytes(data, source, 0)).isEqualTo(100 * 100 * 4);
+    assertThat(estimateTransformBytes(data, source, 90)).isEqualTo(2 * 100 * 100 * 4);
+  }
+
   @Test public void exifRotation() throws Exception {
     Request data = new Request.Builder(URI_1).rotate(-45).build();
     Bitmap source = Bitmap.createBitmap(10, 10, ARGB_8888);
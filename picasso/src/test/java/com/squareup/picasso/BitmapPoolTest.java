@@ -0,0 +1,175 @@
+/*
+ * Copyright (C) 2014 Square, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.squareup.picasso;
+
+import android.graphics.Bitmap;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.annotation.Config;
+
+import static android.graphics.Bitmap.Config.ALPHA_8;
+import static android.graphics.Bitmap.Config.ARGB_8888;
+import static junit.framework.Assert.fail;
+import static org.fest.assertions.api.Assertions.assertThat;
+import static org.robolectric.Robolectric.shadowOf;
+
+@RunWith(RobolectricTestRunner.class)
+@Config(manifest = Config.NONE)
+public class BitmapPoolTest {
+  // The use of ALPHA_8 simplifies the size math in tests since only one byte is used per-pixel.
+  private final Bitmap A = mutableBitmap(1, 1);
+  private final Bitmap B = mutableBitmap(1, 1);
+  private final Bitmap C = mutableBitmap(2, 1);
+
+  @Test public void constructorDoesNotAllowZeroPoolSize() {
+    try {
+      new BitmapPool(0);
+      fail();
+    } catch (IllegalArgumentException expected) {
+    }
+  }
+
+  @Test public void cannotPutNullBitmap() {
+    BitmapPool pool = new BitmapPool(3);
+    try {
+      pool.put(null);
+      fail();
+    } catch (NullPointerException expected) {
+    }
+  }
+
+  @Test public void getReturnsBitmapOfMatchingSizeAndConfig() {
+    BitmapPool pool = new BitmapPool(3);
+    pool.put(A);
+    assertThat(pool.get(1, 1, ARGB_8888)).isNull();
+    assertThat(pool.get(2, 1, ALPHA_8)).isNull();
+    assertThat(pool.get(1, 1, ALPHA_8)).isSameAs(A);
+    assertThat(pool.get(1, 1, ALPHA_8)).isNull();
+    assertThat(pool.size()).isEqualTo(0);
+    assertThat(pool.hitCount()).isEqualTo(1);
+    assertThat(pool.missCount()).isEqualTo(3);
+  }
+
+  @Test public void immutableBitmapsAreIgnored() {
+    BitmapPool pool = new BitmapPool(3);
+    pool.put(Bitmap.createBitmap(1, 1, ALPHA_8));
+    assertThat(pool.putCount()).isEqualTo(0);
+    assertThat(pool.size()).isEqualTo(0);
+  }
+
+  @Test public void samePutTwiceIsIgnored() {
+    BitmapPool pool = new BitmapPool(3);
+    pool.put(A);
+    pool.put(A);
+    assertThat(pool.putCount()).isEqualTo(1);
+    assertThat(pool.size()).isEqualTo(1);
+  }
+
+  @Test public void evictsLeastRecentlyUsedGroup() {
+    BitmapPool pool = new BitmapPool(3);
+    pool.put(A);
+    pool.put(C);
+    pool.put(B);
+    assertThat(pool.size()).isEqualTo(2);
+    assertThat(pool.evictionCount()).isEqualTo(1);
+    assertThat(pool.get(2, 1, ALPHA_8)).isNull();
+    assertThat(pool.get(1, 1, ALPHA_8)).isSameAs(B);
+    assertThat(pool.get(1, 1, ALPHA_8)).isSameAs(A);
+  }
+
+  @Test public void evictAll() {
+    BitmapPool pool = new BitmapPool(4);
+    pool.put(A);
+    pool.put(C);
+    pool.evictAll();
+    assertThat(pool.size()).isEqualTo(0);
+    assertThat(pool.groups).isEmpty();
+  }
+
+  @Test public void cacheEvictionsFeedPool() {
+    BitmapPool pool = new BitmapPool(4);
+    LruCache cache = new LruCache(1, pool);
+    cache.set("a", A);
+    cache.set("b", B);
+    assertThat(pool.size()).isEqualTo(1);
+    assertThat(pool.get(1, 1, ALPHA_8)).isSameAs(A);
+  }
+
+  @Test public void releasingLastReferencePutsBitmapInPool() {
+    BitmapPool pool = new BitmapPool(4);
+    pool.acquire(A);
+    pool.acquire(A);
+    pool.release(A);
+    assertThat(pool.size()).isEqualTo(0);
+    assertThat(pool.isAcquired(A)).isTrue();
+    pool.release(A);
+    assertThat(pool.isAcquired(A)).isFalse();
+    assertThat(pool.get(1, 1, ALPHA_8)).isSameAs(A);
+  }
+
+  @Test public void releasingUntrackedBitmapIsIgnored() {
+    BitmapPool pool = new BitmapPool(4);
+    pool.release(A);
+    assertThat(pool.size()).isEqualTo(0);
+  }
+
+  @Test public void acquiredBitmapIsNotAccepted() {
+    BitmapPool pool = new BitmapPool(4);
+    pool.acquire(A);
+    assertThat(pool.put(A)).isFalse();
+    assertThat(pool.size()).isEqualTo(0);
+  }
+
+  @Test public void tryAcquireFailsOnceBitmapWentToPool() {
+    BitmapPool pool = new BitmapPool(4);
+    pool.acquire(A);
+    pool.release(A);
+    assertThat(pool.tryAcquire(A)).isFalse();
+    // Still unowned while it is the destination of a decode.
+    assertThat(pool.get(1, 1, ALPHA_8)).isSameAs(A);
+    assertThat(pool.tryAcquire(A)).isFalse();
+    pool.acquire(A);
+    assertThat(pool.tryAcquire(A)).isTrue();
+  }
+
+  @Test public void tryAcquireKeepsCachedBitmapOutOfPool() {
+    BitmapPool pool = new BitmapPool(4);
+    LruCache cache = new LruCache(4, pool);
+    cache.set("a", A);
+    assertThat(pool.tryAcquire(cache.get("a"))).isTrue();
+    cache.set("a", B);
+    assertThat(pool.size()).isEqualTo(0);
+    pool.release(A);
+    assertThat(pool.get(1, 1, ALPHA_8)).isSameAs(A);
+  }
+
+  @Test public void cacheReplacementReleasesPreviousBitmap() {
+    BitmapPool pool = new BitmapPool(4);
+    LruCache cache = new LruCache(4, pool);
+    cache.set("a", A);
+    assertThat(pool.isAcquired(A)).isTrue();
+    cache.set("a", B);
+    assertThat(pool.isAcquired(A)).isFalse();
+    assertThat(pool.get(1, 1, ALPHA_8)).isSameAs(A);
+  }
+
+  private static Bitmap mutableBitmap(int width, int height) {
+    Bitmap bitmap = Bitmap.createBitmap(width, height, ALPHA_8);
+    shadowOf(bitmap).setMutable(true);
+    return bitmap;
+  }
+}
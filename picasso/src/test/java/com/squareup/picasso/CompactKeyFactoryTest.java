@@ -0,0 +1,82 @@
+/*
+ * Copyright (C) 2014 Square, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.squareup.picasso;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.annotation.Config;
+
+import static com.squareup.picasso.TestUtils.URI_1;
+import static com.squareup.picasso.TestUtils.URI_2;
+import static junit.framework.Assert.fail;
+import static org.fest.assertions.api.Assertions.assertThat;
+
+@RunWith(RobolectricTestRunner.class)
+@Config(manifest = Config.NONE)
+public class CompactKeyFactoryTest {
+  @Test public void tableSizeMustBePowerOfTwo() {
+    try {
+      new CompactKeyFactory(3);
+      fail();
+    } catch (IllegalArgumentException expected) {
+    }
+  }
+
+  @Test public void keyReplacesUriWithFingerprint() {
+    CompactKeyFactory factory = new CompactKeyFactory();
+    Request request = new Request.Builder(URI_1).resize(20, 10).centerCrop().build();
+    String key = factory.createKey(request);
+    assertThat(key).startsWith("#");
+    assertThat(key).doesNotContain(URI_1.toString());
+    assertThat(key.indexOf('\n')).isEqualTo(33);
+    assertThat(key).endsWith("\nresize:20x10\ncenterCrop\n");
+  }
+
+  @Test public void repeatedRequestReusesKeyInstance() {
+    CompactKeyFactory factory = new CompactKeyFactory();
+    String key1 = factory.createKey(new Request.Builder(URI_1).resize(20, 10).build());
+    String key2 = factory.createKey(new Request.Builder(URI_1).resize(20, 10).build());
+    assertThat(key2).isSameAs(key1);
+  }
+
+  @Test public void differentRequestsProduceDifferentKeys() {
+    CompactKeyFactory factory = new CompactKeyFactory();
+    String key1 = factory.createKey(new Request.Builder(URI_1).build());
+    String key2 = factory.createKey(new Request.Builder(URI_2).build());
+    String key3 = factory.createKey(new Request.Builder(URI_1).resize(20, 10).build());
+    String key4 = factory.createKey(
+        new Request.Builder(URI_1).transform(new TestTransformation("foo", null)).build());
+    assertThat(key1).isNotEqualTo(key2);
+    assertThat(key1).isNotEqualTo(key3);
+    assertThat(key1).isNotEqualTo(key4);
+  }
+
+  @Test public void tableEntryIsVerifiedAgainstRequest() {
+    // A single slot guarantees that every request maps to the same table entry.
+    CompactKeyFactory factory = new CompactKeyFactory(1);
+    String key1 = factory.createKey(new Request.Builder(URI_1).build());
+    String key2 = factory.createKey(new Request.Builder(URI_2).build());
+    assertThat(key2).isNotEqualTo(key1);
+    assertThat(factory.createKey(new Request.Builder(URI_1).build())).isEqualTo(key1);
+  }
+
+  @Test public void resourceRequestsUseRegularKey() {
+    CompactKeyFactory factory = new CompactKeyFactory();
+    Request request = new Request.Builder(123).build();
+    assertThat(factory.createKey(request)).isEqualTo(Utils.createKey(request));
+  }
+}
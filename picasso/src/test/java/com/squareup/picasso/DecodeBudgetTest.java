@@ -0,0 +1,101 @@
+/*
+ * Copyright (C) 2014 Square, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.squareup.picasso;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.annotation.Config;
+
+import static junit.framework.Assert.fail;
+import static org.fest.assertions.api.Assertions.assertThat;
+
+@RunWith(RobolectricTestRunner.class)
+@Config(manifest = Config.NONE)
+public class DecodeBudgetTest {
+  @Test public void constructorDoesNotAllowZeroBudget() {
+    try {
+      new DecodeBudget(0);
+      fail();
+    } catch (IllegalArgumentException expected) {
+    }
+  }
+
+  @Test public void reservationsWithinBudgetDoNotWait() {
+    DecodeBudget budget = new DecodeBudget(100);
+    budget.acquire(40);
+    budget.acquire(60);
+    assertThat(budget.reserved()).isEqualTo(100);
+    assertThat(budget.fits(1)).isFalse();
+    budget.release(60);
+    assertThat(budget.fits(60)).isTrue();
+  }
+
+  @Test public void oversizedReservationPassesWhenIdle() {
+    DecodeBudget budget = new DecodeBudget(100);
+    assertThat(budget.fits(500)).isTrue();
+    budget.acquire(500);
+    assertThat(budget.reserved()).isEqualTo(500);
+  }
+
+  @Test public void reservationWaitsForRelease() throws Exception {
+    final DecodeBudget budget = new DecodeBudget(100);
+    budget.acquire(80);
+    final CountDownLatch acquired = new CountDownLatch(1);
+    Thread thread = new Thread(new Runnable() {
+      @Override public void run() {
+        budget.acquire(40);
+        acquired.countDown();
+      }
+    });
+    thread.start();
+    assertThat(acquired.await(100, TimeUnit.MILLISECONDS)).isFalse();
+    budget.release(80);
+    assertThat(acquired.await(1, TimeUnit.SECONDS)).isTrue();
+    assertThat(budget.reserved()).isEqualTo(40);
+  }
+
+  @Test public void waitingReservationIsNotOvertaken() throws Exception {
+    final DecodeBudget budget = new DecodeBudget(100);
+    budget.acquire(50);
+    final CountDownLatch largeAcquired = new CountDownLatch(1);
+    new Thread(new Runnable() {
+      @Override public void run() {
+        budget.acquire(80);
+        largeAcquired.countDown();
+      }
+    }).start();
+    while (budget.fits(10)) {
+      Thread.sleep(10);
+    }
+
+    final CountDownLatch smallAcquired = new CountDownLatch(1);
+    new Thread(new Runnable() {
+      @Override public void run() {
+        budget.acquire(10);
+        smallAcquired.countDown();
+      }
+    }).start();
+    assertThat(smallAcquired.await(100, TimeUnit.MILLISECONDS)).isFalse();
+
+    budget.release(50);
+    assertThat(largeAcquired.await(1, TimeUnit.SECONDS)).isTrue();
+    assertThat(smallAcquired.await(1, TimeUnit.SECONDS)).isTrue();
+    assertThat(budget.reserved()).isEqualTo(90);
+  }
+}
@@ -20,10 +20,17 @@ import android.content.Intent;
 import android.net.ConnectivityManager;
 import android.net.NetworkInfo;
 import android.os.Handler;
+import android.os.Message;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
 import java.util.concurrent.ExecutorService;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.TimeUnit;
 import org.junit.Before;
 import org.junit.Test;
 import org.junit.runner.RunWith;
+import org.mockito.ArgumentCaptor;
 import org.mockito.Mock;
 import org.robolectric.RobolectricTestRunner;
 import org.robolectric.annotation.Config;
@@ -35,6 +42,9 @@ import static android.content.pm.PackageManager.PERMISSION_GRANTED;
 import static android.net.ConnectivityManager.CONNECTIVITY_ACTION;
 import static com.squareup.picasso.Dispatcher.NetworkBroadcastReceiver;
 import static com.squareup.picasso.Dispatcher.NetworkBroadcastReceiver.EXTRA_AIRPLANE_STATE;
+import static com.squareup.picasso.Picasso.LoadedFrom.NETWORK;
+import static com.squareup.picasso.Picasso.Priority.HIGH;
+import static com.squareup.picasso.Picasso.Priority.LOW;
 import static com.squareup.picasso.TestUtils.BITMAP_1;
 import static com.squareup.picasso.TestUtils.BITMAP_2;
 import static com.squareup.picasso.TestUtils.URI_1;
@@ -48,7 +58,10 @@ import static com.squareup.picasso.TestUtils.mockTarget;
 import static org.fest.assertions.api.Assertions.assertThat;
 import static org.mockito.Matchers.any;
 import static org.mockito.Matchers.anyBoolean;
+import static org.mockito.Matchers.anyLong;
 import static org.mockito.Matchers.anyString;
+import static org.mockito.Matchers.eq;
+import static org.mockito.Mockito.atLeast;
 import static org.mockito.Mockito.mock;
 import static org.mockito.Mockito.never;
 import static org.mockito.Mockito.times;
@@ -110,6 +123,216 @@ public class DispatcherTest {
     verify(service).submit(any(BitmapHunter.class));
   }
 
+  @Test public void performSubmitQueuesNetworkHunterForFetching() throws Exception {
+    ExecutorService decodeService = mock(ExecutorService.class);
+    dispatcher = new Dispatcher(context, service, decodeService, mainThreadHandler, downloader,
+        cache, stats);
+    Action action = mockAction(URI_KEY_1, URI_1);
+    dispatcher.performSubmit(action);
+    verify(service).submit(any(BitmapHunter.class));
+    verifyZeroInteractions(decodeService);
+  }
+
+  @Test public void performFetchedQueuesHunterForDecoding() throws Exception {
+    ExecutorService decodeService = mock(ExecutorService.class);
+    dispatcher = new Dispatcher(context, service, decodeService, mainThreadHandler, downloader,
+        cache, stats);
+    BitmapHunter hunter = mockHunter(URI_KEY_1, BITMAP_1, false);
+    dispatcher.performFetched(hunter);
+    verify(decodeService).submit(hunter);
+    verifyZeroInteractions(service);
+  }
+
+  @Test public void shutdownStopsDecodeService() throws Exception {
+    ExecutorService decodeService = mock(ExecutorService.class);
+    dispatcher = new Dispatcher(context, service, decodeService, mainThreadHandler, downloader,
+        cache, stats);
+    dispatcher.shutdown();
+    verify(service).shutdown();
+    verify(decodeService).shutdown();
+  }
+
+  @Test public void performSubmitWithOtherVariantFollowsFetchingHunter() throws Exception {
+    Action action1 = mockAction(URI_KEY_1, URI_1);
+    Action action2 = mockAction(URI_KEY_1 + "100x100", URI_1);
+    dispatcher.performSubmit(action1);
+    dispatcher.performSubmit(action2);
+    BitmapHunter leader = dispatcher.hunterMap.get(URI_KEY_1);
+    assertThat(dispatcher.hunterMap).hasSize(1);
+    assertThat(dispatcher.sourceMap).containsValue(leader);
+    assertThat(leader.getFollowers()).containsOnly(action2);
+    verify(service).submit(any(BitmapHunter.class));
+  }
+
+  @Test public void performFetchedSharesSourceWithFollowers() throws Exception {
+    Action action1 = mockAction(URI_KEY_1, URI_1);
+    Action action2 = mockAction(URI_KEY_1 + "100x100", URI_1);
+    dispatcher.performSubmit(action1);
+    dispatcher.performSubmit(action2);
+    NetworkBitmapHunter leader = (NetworkBitmapHunter) dispatcher.hunterMap.get(URI_KEY_1);
+    leader.fetched = true;
+    leader.fetchedBytes = new byte[] { 1, 2, 3 };
+    dispatcher.performFetched(leader);
+    NetworkBitmapHunter follower =
+        (NetworkBitmapHunter) dispatcher.hunterMap.get(URI_KEY_1 + "100x100");
+    assertThat(follower.needsFetch()).isFalse();
+    assertThat(follower.fetchedBytes).isSameAs(leader.fetchedBytes);
+    assertThat(leader.getFollowers()).isNull();
+    assertThat(dispatcher.sourceMap).isEmpty();
+    verify(service, times(3)).submit(any(BitmapHunter.class));
+  }
+
+  @Test public void performCancelRemovesFollower() throws Exception {
+    Action action1 = mockAction(URI_KEY_1, URI_1);
+    Action action2 = mockAction(URI_KEY_1 + "100x100", URI_1);
+    dispatcher.performSubmit(action1);
+    dispatcher.performSubmit(action2);
+    dispatcher.performCancel(action2);
+    assertThat(dispatcher.hunterMap.get(URI_KEY_1).getFollowers()).isEmpty();
+  }
+
+  @Test public void performCancelOfLastFollowerCancelsUnusedLeader() throws Exception {
+    Action action1 = mockAction(URI_KEY_1, URI_1);
+    Action action2 = mockAction(URI_KEY_1 + "100x100", URI_1);
+    dispatcher.performSubmit(action1);
+    dispatcher.performSubmit(action2);
+    BitmapHunter leader = dispatcher.hunterMap.get(URI_KEY_1);
+    leader.future = new FutureTask<Object>(mock(Runnable.class), mock(Object.class));
+    dispatcher.performCancel(action1);
+    assertThat(leader.isCancelled()).isFalse();
+    dispatcher.performCancel(action2);
+    assertThat(leader.isCancelled()).isTrue();
+    assertThat(dispatcher.hunterMap).isEmpty();
+    assertThat(dispatcher.sourceMap).isEmpty();
+  }
+
+  @Test public void performCancelRemovesHunterFromServiceQueue() throws Exception {
+    PicassoExecutorService service = new PicassoExecutorService(1, false);
+    final CountDownLatch busy = new CountDownLatch(1);
+    service.execute(new Runnable() {
+      @Override public void run() {
+        try {
+          busy.await();
+        } catch (InterruptedException ignored) {
+        }
+      }
+    });
+    try {
+      Dispatcher dispatcher = createDispatcher(service);
+      Action action = mockAction(URI_KEY_1, URI_1);
+      dispatcher.performSubmit(action);
+      BitmapHunter hunter = dispatcher.hunterMap.get(URI_KEY_1);
+      assertThat(service.getQueue()).containsOnly(hunter.future);
+      dispatcher.performCancel(action);
+      assertThat(service.getQueue()).isEmpty();
+      assertThat(hunter.isCancelled()).isTrue();
+    } finally {
+      busy.countDown();
+      service.shutdown();
+    }
+  }
+
+  @Test public void performDeadlineDropsHunterAndDeliversTimeout() throws Exception {
+    Action action = mockAction(URI_KEY_1, URI_1);
+    dispatcher.performSubmit(action);
+    BitmapHunter hunter = dispatcher.hunterMap.get(URI_KEY_1);
+    hunter.future = new FutureTask<Object>(mock(Runnable.class), mock(Object.class));
+    dispatcher.performDeadline(action);
+    assertThat(dispatcher.hunterMap).isEmpty();
+    assertThat(hunter.isCancelled()).isTrue();
+    assertThat(timedOutActions()).containsExactly(action);
+  }
+
+  @Test public void performDeadlineKeepsHunterForOtherActions() throws Exception {
+    Action action1 = mockAction(URI_KEY_1, URI_1);
+    Action action2 = mockAction(URI_KEY_1, URI_1);
+    dispatcher.performSubmit(action1);
+    dispatcher.performSubmit(action2);
+    dispatcher.performDeadline(action1);
+    assertThat(dispatcher.hunterMap.get(URI_KEY_1).holds(action1)).isFalse();
+    assertThat(dispatcher.hunterMap.get(URI_KEY_1).holds(action2)).isTrue();
+    assertThat(timedOutActions()).containsExactly(action1);
+  }
+
+  @Test public void performCancelRemovesDeadline() throws Exception {
+    Action action = mockAction(URI_KEY_1, URI_1);
+    when(action.getDeadline()).thenReturn(System.nanoTime() + TimeUnit.MINUTES.toNanos(1));
+    dispatcher.dispatchSubmit(action);
+    assertThat(dispatcher.handler.hasMessages(Dispatcher.REQUEST_DEADLINE, action)).isTrue();
+    dispatcher.performCancel(action);
+    assertThat(dispatcher.handler.hasMessages(Dispatcher.REQUEST_DEADLINE, action)).isFalse();
+  }
+
+  @Test public void performCompleteRemovesDeadlines() throws Exception {
+    Action action = mockAction(URI_KEY_1, URI_1);
+    when(action.getDeadline()).thenReturn(System.nanoTime() + TimeUnit.MINUTES.toNanos(1));
+    BitmapHunter hunter = mockHunter(URI_KEY_1, BITMAP_1, false);
+    when(hunter.getAction()).thenReturn(action);
+    dispatcher.handler.sendMessageDelayed(
+        dispatcher.handler.obtainMessage(Dispatcher.REQUEST_DEADLINE, action), 60000);
+    dispatcher.performComplete(hunter);
+    assertThat(dispatcher.handler.hasMessages(Dispatcher.REQUEST_DEADLINE, action)).isFalse();
+  }
+
+  @Test public void performDeadlineIgnoresCompletedAction() throws Exception {
+    Action action = mockAction(URI_KEY_1, URI_1);
+    dispatcher.performDeadline(action);
+    assertThat(timedOutActions()).isEmpty();
+  }
+
+  @Test public void performSubmitWithPausedTagParksAction() throws Exception {
+    Action action = mockAction(URI_KEY_1, URI_1, mockTarget());
+    when(action.getTag()).thenReturn("tag");
+    dispatcher.performPauseTag("tag");
+    dispatcher.performSubmit(action);
+    assertThat(dispatcher.hunterMap).isEmpty();
+    assertThat(dispatcher.pausedActions).hasSize(1);
+    verifyZeroInteractions(service);
+  }
+
+  @Test public void performPauseTagParksActionsAndCancelsHunter() throws Exception {
+    Action action = mockAction(URI_KEY_1, URI_1, mockTarget());
+    when(action.getTag()).thenReturn("tag");
+    Action other = mockAction(URI_KEY_2, URI_2, mockTarget());
+    dispatcher.performSubmit(action);
+    dispatcher.performSubmit(other);
+    BitmapHunter hunter = dispatcher.hunterMap.get(URI_KEY_1);
+    hunter.future = new FutureTask<Object>(mock(Runnable.class), null);
+
+    dispatcher.performPauseTag("tag");
+
+    assertThat(hunter.getAction()).isNull();
+    assertThat(hunter.isCancelled()).isTrue();
+    assertThat(dispatcher.hunterMap).hasSize(1).containsKey(URI_KEY_2);
+    assertThat(dispatcher.pausedActions).hasSize(1);
+  }
+
+  @Test public void performResumeTagSubmitsHighestPriorityFirst() throws Exception {
+    Action normal = mockAction(URI_KEY_1, new Request.Builder(URI_1).build(), mockTarget());
+    Action high =
+        mockAction(URI_KEY_2, new Request.Builder(URI_2).priority(HIGH).build(), mockTarget());
+    when(normal.getTag()).thenReturn("tag");
+    when(high.getTag()).thenReturn("tag");
+    dispatcher.performPauseTag("tag");
+    dispatcher.performSubmit(normal);
+    dispatcher.performSubmit(high);
+
+    dispatcher.performResumeTag("tag");
+
+    assertThat(dispatcher.pausedActions).isEmpty();
+    assertThat(dispatcher.pausedTags).isEmpty();
+    assertThat(dispatcher.hunterMap.keySet()).containsExactly(URI_KEY_2, URI_KEY_1);
+  }
+
+  @Test public void performCancelRemovesPausedAction() throws Exception {
+    Action action = mockAction(URI_KEY_1, URI_1, mockTarget());
+    when(action.getTag()).thenReturn("tag");
+    dispatcher.performPauseTag("tag");
+    dispatcher.performSubmit(action);
+    dispatcher.performCancel(action);
+    assertThat(dispatcher.pausedActions).isEmpty();
+  }
+
   @Test public void performSubmitWithShutdownServiceIgnoresRequest() throws Exception {
     when(service.isShutdown()).thenReturn(true);
     Action action = mockAction(URI_KEY_1, URI_1);
@@ -157,12 +380,64 @@ public class DispatcherTest {
     assertThat(dispatcher.hunterMap).hasSize(1);
   }
 
+  @Test public void performTrimMemoryCancelsPrefetchOnlyHunters() throws Exception {
+    FetchAction fetch = mock(FetchAction.class);
+    BitmapHunter prefetch = mockHunter(URI_KEY_1, BITMAP_1, false, fetch);
+    when(prefetch.cancel()).thenReturn(true);
+    Action action = mockAction(URI_KEY_2, URI_2);
+    BitmapHunter visible = mockHunter(URI_KEY_2, BITMAP_2, false, action);
+    dispatcher.hunterMap.put(URI_KEY_1, prefetch);
+    dispatcher.hunterMap.put(URI_KEY_2, visible);
+    dispatcher.performTrimMemory(0f);
+    verify(prefetch).detach(fetch);
+    verify(prefetch).cancel();
+    verify(visible, never()).cancel();
+    assertThat(dispatcher.hunterMap).containsKey(URI_KEY_2).hasSize(1);
+  }
+
+  @Test public void performTrimMemoryKeepsPrefetchWithFollowers() throws Exception {
+    FetchAction fetch = mock(FetchAction.class);
+    BitmapHunter prefetch = mockHunter(URI_KEY_1, BITMAP_1, false, fetch);
+    List<Action> followers = new ArrayList<Action>();
+    followers.add(mockAction(URI_KEY_1 + "100x100", URI_1));
+    when(prefetch.getFollowers()).thenReturn(followers);
+    dispatcher.hunterMap.put(URI_KEY_1, prefetch);
+    dispatcher.performTrimMemory(0f);
+    verify(prefetch, never()).detach(fetch);
+    verify(prefetch, never()).cancel();
+    assertThat(dispatcher.hunterMap).containsKey(URI_KEY_1);
+  }
+
+  @Test public void performTrimMemoryRequeuesHunterItCannotCancel() throws Exception {
+    PicassoExecutorService service = mock(PicassoExecutorService.class);
+    Dispatcher dispatcher = createDispatcher(service);
+    FetchAction fetch = mock(FetchAction.class);
+    BitmapHunter prefetch = mockHunter(URI_KEY_1, BITMAP_1, false, fetch);
+    when(prefetch.getPriority()).thenReturn(HIGH, LOW);
+    dispatcher.hunterMap.put(URI_KEY_1, prefetch);
+    dispatcher.performTrimMemory(0f);
+    verify(prefetch).detach(fetch);
+    verify(service).requeue(prefetch.future);
+    assertThat(dispatcher.hunterMap).containsKey(URI_KEY_1);
+  }
+
   @Test public void performCompleteSetsResultInCache() throws Exception {
     BitmapHunter hunter = mockHunter(URI_KEY_1, BITMAP_1, false);
     dispatcher.performComplete(hunter);
     verify(cache).set(hunter.getKey(), hunter.getResult());
   }
 
+  @Test public void performCompletePassesCostToGreedyDualCache() throws Exception {
+    GreedyDualCache greedyDualCache = mock(GreedyDualCache.class);
+    dispatcher = new Dispatcher(context, service, mainThreadHandler, downloader, greedyDualCache,
+        stats);
+    BitmapHunter hunter = mockHunter(URI_KEY_1, BITMAP_1, false);
+    when(hunter.getLoadedFrom()).thenReturn(NETWORK);
+    when(hunter.getHuntDuration()).thenReturn(250L);
+    dispatcher.performComplete(hunter);
+    verify(greedyDualCache).set(URI_KEY_1, BITMAP_1, GreedyDualCache.NETWORK_COST + 250);
+  }
+
   @Test public void performCompleteWithSkipCacheDoesNotCache() throws Exception {
     BitmapHunter hunter = mockHunter(URI_KEY_1, BITMAP_1, true);
     dispatcher.performComplete(hunter);
@@ -211,6 +486,48 @@ public class DispatcherTest {
     assertThat(dispatcher.batch).isEmpty();
   }
 
+  @Test public void performBatchCompleteDispatchesBatchStats() throws Exception {
+    dispatcher.batch.add(mockHunter(URI_KEY_1, BITMAP_1, false));
+    dispatcher.batch.add(mockHunter(URI_KEY_2, BITMAP_2, false));
+    dispatcher.performBatchComplete();
+    verify(stats).dispatchBatchDelivered(eq(2), anyLong());
+  }
+
+  @Test public void performCompleteDeliversImmediatelyWhenMainThreadIdle() throws Exception {
+    dispatcher.performMainThreadIdle();
+    BitmapHunter hunter = mockHunter(URI_KEY_1, BITMAP_1, false);
+    dispatcher.performComplete(hunter);
+    assertThat(dispatcher.batch).isEmpty();
+    assertThat(dispatcher.mainThreadIdle).isFalse();
+    verify(stats).dispatchBatchDelivered(eq(1), anyLong());
+  }
+
+  @Test public void performCompleteBatchesWhenMainThreadIdleIsStale() throws Exception {
+    dispatcher.performMainThreadIdle();
+    dispatcher.performComplete(mockHunter(URI_KEY_1, BITMAP_1, false));
+    assertThat(dispatcher.batch).isEmpty();
+    dispatcher.performMainThreadIdle();
+    dispatcher.mainThreadIdleAt -= Dispatcher.MAIN_THREAD_IDLE_TTL + 1;
+    dispatcher.performComplete(mockHunter(URI_KEY_2, BITMAP_2, false));
+    assertThat(dispatcher.batch).hasSize(1);
+    assertThat(dispatcher.mainThreadIdle).isFalse();
+    verify(stats).dispatchBatchDelivered(eq(1), anyLong());
+  }
+
+  @Test public void performMainThreadIdleFlushesPendingBatch() throws Exception {
+    dispatcher.performComplete(mockHunter(URI_KEY_1, BITMAP_1, false));
+    dispatcher.performComplete(mockHunter(URI_KEY_2, BITMAP_2, false));
+    assertThat(dispatcher.batch).hasSize(2);
+    dispatcher.performMainThreadIdle();
+    assertThat(dispatcher.batch).isEmpty();
+    assertThat(dispatcher.mainThreadIdle).isFalse();
+  }
+
+  @Test public void performMainThreadIdleWithEmptyBatchMarksIdle() throws Exception {
+    dispatcher.performMainThreadIdle();
+    assertThat(dispatcher.mainThreadIdle).isTrue();
+  }
+
   @Test public void performRetrySkipsIfHunterIsCancelled() throws Exception {
     BitmapHunter hunter = mockHunter(URI_KEY_2, BITMAP_1, false);
     when(hunter.isCancelled()).thenReturn(true);
@@ -353,6 +670,48 @@ public class DispatcherTest {
     assertThat(dispatcher.failedActions).isEmpty();
   }
 
+  @Test public void shardsShareTheReceiverOfTheFirstShard() throws Exception {
+    Dispatcher dispatcher = createShardedDispatcher(service, 3);
+    assertThat(dispatcher.shards).hasSize(3);
+    assertThat(dispatcher.shards[0]).isSameAs(dispatcher);
+    assertThat(dispatcher.receiver).isNotNull();
+    assertThat(dispatcher.shards[1].receiver).isNull();
+    assertThat(dispatcher.shards[2].receiver).isNull();
+    assertThat(dispatcher.shards[1].shards).isSameAs(dispatcher.shards);
+  }
+
+  @Test public void variantsOfOneImageUseTheSameShard() throws Exception {
+    Dispatcher dispatcher = createShardedDispatcher(service, 4);
+    Action action1 = mockAction(URI_KEY_1, URI_1);
+    Action action2 = mockAction(URI_KEY_1 + "\nresize:10x10", URI_1);
+    assertThat(dispatcher.shardFor(action1)).isSameAs(dispatcher.shardFor(action2));
+    assertThat(dispatcher.shards[1].shardFor(action1)).isSameAs(dispatcher.shardFor(action1));
+  }
+
+  @Test public void singleShardHandlesEverything() throws Exception {
+    assertThat(dispatcher.shards).hasSize(1);
+    assertThat(dispatcher.shardFor(mockAction(URI_KEY_1, URI_1))).isSameAs(dispatcher);
+    assertThat(dispatcher.shardFor(mockAction(URI_KEY_2, URI_2))).isSameAs(dispatcher);
+  }
+
+  @Test public void performNetworkStateChangeOnOtherShardFlushesWithoutAdjustingThreads()
+      throws Exception {
+    PicassoExecutorService service = mock(PicassoExecutorService.class);
+    NetworkInfo info = mockNetworkInfo(true);
+    Dispatcher shard = createShardedDispatcher(service, 2).shards[1];
+    shard.failedActions.put(URI_KEY_1, mockAction(URI_KEY_1, URI_1));
+    shard.performNetworkStateChange(info);
+    verify(service, never()).adjustThreadCount(info);
+    verify(service).submit(any(BitmapHunter.class));
+    assertThat(shard.failedActions).isEmpty();
+  }
+
+  @Test public void shutdownUnregistersReceiverOnce() throws Exception {
+    Dispatcher dispatcher = createShardedDispatcher(service, 2);
+    dispatcher.shutdown();
+    verify(context).unregisterReceiver(dispatcher.receiver);
+  }
+
   @Test public void nullIntentOnReceiveDoesNothing() {
     Dispatcher dispatcher = mock(Dispatcher.class);
     NetworkBroadcastReceiver receiver = new NetworkBroadcastReceiver(dispatcher);
@@ -404,6 +763,25 @@ public class DispatcherTest {
     return createDispatcher(service, true);
   }
 
+  /** Returns the actions whose timeout was sent to the main thread. */
+  private List<Object> timedOutActions() {
+    ArgumentCaptor<Message> captor = ArgumentCaptor.forClass(Message.class);
+    verify(mainThreadHandler, atLeast(0)).sendMessageAtTime(captor.capture(), anyLong());
+    List<Object> actions = new ArrayList<Object>();
+    for (Message message : captor.getAllValues()) {
+      if (message.what == Dispatcher.REQUEST_TIMED_OUT) {
+        actions.add(message.obj);
+      }
+    }
+    return actions;
+  }
+
+  private Dispatcher createShardedDispatcher(ExecutorService service, int shardCount) {
+    createDispatcher(service);
+    return new Dispatcher(context, service, service, mainThreadHandler, downloader, cache, stats,
+        shardCount);
+  }
+
   private Dispatcher createDispatcher(ExecutorService service, boolean scansNetworkChanges) {
     when(context.getSystemService(Context.CONNECTIVITY_SERVICE)).thenReturn(connectivityManager);
     when(context.checkCallingOrSelfPermission(anyString())).thenReturn(
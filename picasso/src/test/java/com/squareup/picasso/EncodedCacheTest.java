@@ -0,0 +1,89 @@
+/*
+ * Copyright (C) 2014 Square, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.squareup.picasso;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.annotation.Config;
+
+import static junit.framework.Assert.fail;
+import static org.fest.assertions.api.Assertions.assertThat;
+
+@RunWith(RobolectricTestRunner.class)
+@Config(manifest = Config.NONE)
+public class EncodedCacheTest {
+  @Test public void constructorDoesNotAllowZeroCacheSize() {
+    try {
+      new EncodedCache(0);
+      fail();
+    } catch (IllegalArgumentException expected) {
+    }
+  }
+
+  @Test public void evictsLeastRecentlyUsed() {
+    EncodedCache cache = new EncodedCache(80);
+    cache.set("a", new byte[10]);
+    cache.set("b", new byte[10]);
+    cache.get("a");
+    for (int i = 0; i < 6; i++) {
+      cache.set("c" + i, new byte[10]);
+    }
+    assertThat(cache.size()).isEqualTo(80);
+    assertThat(cache.get("a")).isNotNull();
+    cache.set("d", new byte[10]);
+    assertThat(cache.get("b")).isNull();
+    assertThat(cache.hitCount()).isEqualTo(2);
+    assertThat(cache.missCount()).isEqualTo(1);
+  }
+
+  @Test public void oversizedEntriesAreNotCached() {
+    EncodedCache cache = new EncodedCache(80);
+    cache.set("a", new byte[11]);
+    assertThat(cache.size()).isEqualTo(0);
+    assertThat(cache.accepts(10)).isTrue();
+    assertThat(cache.accepts(0)).isFalse();
+    assertThat(cache.maxEntrySize()).isEqualTo(10);
+  }
+
+  @Test public void replacingEntryDoesNotDoubleCountSize() {
+    EncodedCache cache = new EncodedCache(80);
+    cache.set("a", new byte[10]);
+    cache.set("a", new byte[5]);
+    assertThat(cache.size()).isEqualTo(5);
+  }
+
+  @Test public void removeAndRemovePrefix() {
+    EncodedCache cache = new EncodedCache(80);
+    cache.set("http://a/1", new byte[10]);
+    cache.set("http://a/2", new byte[10]);
+    cache.set("http://b/1", new byte[10]);
+    cache.remove("http://b/1");
+    assertThat(cache.size()).isEqualTo(20);
+    cache.removePrefix("http://a/");
+    assertThat(cache.size()).isEqualTo(0);
+    assertThat(cache.map).isEmpty();
+  }
+
+  @Test public void trimToSize() {
+    EncodedCache cache = new EncodedCache(80);
+    cache.set("a", new byte[10]);
+    cache.set("b", new byte[10]);
+    cache.trimToSize(10);
+    assertThat(cache.get("a")).isNull();
+    assertThat(cache.get("b")).isNotNull();
+  }
+}
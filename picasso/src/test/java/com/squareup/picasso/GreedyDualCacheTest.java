@@ -0,0 +1,132 @@
+/*
+ * Copyright (C) 2014 Square, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.squareup.picasso;
+
+import android.graphics.Bitmap;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.annotation.Config;
+
+import static android.graphics.Bitmap.Config.ALPHA_8;
+import static com.squareup.picasso.GreedyDualCache.DISK_COST;
+import static com.squareup.picasso.GreedyDualCache.MEMORY_COST;
+import static com.squareup.picasso.GreedyDualCache.NETWORK_COST;
+import static com.squareup.picasso.Picasso.LoadedFrom.DISK;
+import static com.squareup.picasso.Picasso.LoadedFrom.MEMORY;
+import static com.squareup.picasso.Picasso.LoadedFrom.NETWORK;
+import static junit.framework.Assert.fail;
+import static org.fest.assertions.api.Assertions.assertThat;
+
+@RunWith(RobolectricTestRunner.class)
+@Config(manifest = Config.NONE)
+public class GreedyDualCacheTest {
+  @Test public void constructorDoesNotAllowZeroCacheSize() {
+    try {
+      new GreedyDualCache(0);
+      fail();
+    } catch (IllegalArgumentException expected) {
+    }
+  }
+
+  @Test public void cannotPutNullKey() {
+    GreedyDualCache cache = new GreedyDualCache(10);
+    try {
+      cache.set(null, bitmap());
+      fail();
+    } catch (NullPointerException expected) {
+    }
+  }
+
+  @Test public void costFollowsSourceAndDuration() {
+    assertThat(GreedyDualCache.costOf(MEMORY, 0)).isEqualTo(MEMORY_COST);
+    assertThat(GreedyDualCache.costOf(DISK, 5)).isEqualTo(DISK_COST + 5);
+    assertThat(GreedyDualCache.costOf(NETWORK, 2000)).isEqualTo(NETWORK_COST + 2000);
+    assertThat(GreedyDualCache.costOf(null, -1)).isEqualTo(DISK_COST);
+  }
+
+  @Test public void cheapEntriesAreEvictedFirst() {
+    GreedyDualCache cache = new GreedyDualCache(3);
+    cache.set("network", bitmap(), NETWORK_COST);
+    cache.set("disk", bitmap(), DISK_COST);
+    cache.set("memory", bitmap(), MEMORY_COST);
+    cache.set("new", bitmap(), DISK_COST);
+
+    assertThat(cache.get("memory")).isNull();
+    assertThat(cache.get("network")).isNotNull();
+    assertThat(cache.get("disk")).isNotNull();
+    assertThat(cache.evictionCount()).isEqualTo(1);
+  }
+
+  @Test public void equalCostsEvictLeastRecentlyUsed() {
+    GreedyDualCache cache = new GreedyDualCache(2);
+    cache.set("a", bitmap());
+    cache.set("b", bitmap());
+    cache.get("a");
+    cache.set("c", bitmap());
+
+    assertThat(cache.get("b")).isNull();
+    assertThat(cache.get("a")).isNotNull();
+    assertThat(cache.get("c")).isNotNull();
+  }
+
+  @Test public void unusedExpensiveEntriesAgeOut() {
+    GreedyDualCache cache = new GreedyDualCache(2);
+    cache.set("expensive", bitmap(), 3);
+    for (int i = 0; i < 4; i++) {
+      cache.set("cheap" + i, bitmap(), 1);
+    }
+    assertThat(cache.map).containsKey("expensive");
+
+    // Evictions raised the base priority, so new cheap entries now outrank the unused one.
+    for (int i = 4; i < 6; i++) {
+      cache.set("cheap" + i, bitmap(), 1);
+    }
+    assertThat(cache.map).doesNotContainKey("expensive");
+  }
+
+  @Test public void replacingValueDoesNotDoubleCountSize() {
+    GreedyDualCache cache = new GreedyDualCache(10);
+    cache.set("a", bitmap());
+    cache.set("a", bitmap(), NETWORK_COST);
+    assertThat(cache.size()).isEqualTo(1);
+    assertThat(cache.queue).hasSize(1);
+  }
+
+  @Test public void clearKeyUriRemovesAllVariants() {
+    GreedyDualCache cache = new GreedyDualCache(10);
+    cache.set("http://a\nresize:1x1", bitmap());
+    cache.set("http://a\nresize:2x2", bitmap());
+    cache.set("http://b", bitmap());
+    cache.clearKeyUri("http://a");
+    assertThat(cache.size()).isEqualTo(1);
+    assertThat(cache.queue).hasSize(1);
+    assertThat(cache.get("http://b")).isNotNull();
+  }
+
+  @Test public void clearEvictsEverything() {
+    GreedyDualCache cache = new GreedyDualCache(10);
+    cache.set("a", bitmap());
+    cache.set("b", bitmap());
+    cache.clear();
+    assertThat(cache.size()).isEqualTo(0);
+    assertThat(cache.map).isEmpty();
+  }
+
+  private static Bitmap bitmap() {
+    return Bitmap.createBitmap(1, 1, ALPHA_8);
+  }
+}
@@ -0,0 +1,108 @@
+/*
+ * Copyright (C) 2014 Square, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.squareup.picasso;
+
+import android.graphics.Bitmap;
+import java.io.File;
+import java.io.IOException;
+import java.util.List;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.annotation.Config;
+
+import static android.graphics.Bitmap.Config.ALPHA_8;
+import static com.squareup.picasso.TestUtils.RESOURCE_ID_1;
+import static com.squareup.picasso.TestUtils.URI_1;
+import static com.squareup.picasso.TestUtils.URI_2;
+import static org.fest.assertions.api.Assertions.assertThat;
+
+@RunWith(RobolectricTestRunner.class)
+@Config(manifest = Config.NONE)
+public class HotKeyManifestTest {
+  private File file;
+  private HotKeyManifest manifest;
+
+  @Before public void setUp() throws IOException {
+    file = File.createTempFile("picasso", "hot-keys");
+    file.delete();
+    manifest = new HotKeyManifest(file, 1024);
+  }
+
+  @After public void tearDown() {
+    file.delete();
+  }
+
+  @Test public void loadsAndHitsAreCounted() {
+    Request request = new Request.Builder(URI_1).build();
+    String key = Utils.createKey(request);
+    manifest.recordLoad(key, request, bitmap());
+    manifest.recordHit(key);
+    manifest.recordHit("unknown");
+    assertThat(manifest.entries).hasSize(1);
+    assertThat(manifest.entries.get(key).uses).isEqualTo(2);
+  }
+
+  @Test public void transformedAndResourceRequestsAreNotRecorded() {
+    Request transformed =
+        new Request.Builder(URI_1).transform(new TestTransformation("test")).build();
+    Request resource = new Request.Builder(RESOURCE_ID_1).build();
+    manifest.recordLoad(Utils.createKey(transformed), transformed, bitmap());
+    manifest.recordLoad(Utils.createKey(resource), resource, bitmap());
+    assertThat(manifest.entries).isEmpty();
+  }
+
+  @Test public void missingFileLoadsNothing() {
+    assertThat(manifest.loadWarmUp(1024)).isEmpty();
+  }
+
+  @Test public void savedEntriesLoadMostUsedFirst() {
+    Request cold = new Request.Builder(URI_1).build();
+    Request hot = new Request.Builder(URI_2).resize(20, 10).centerCrop().rotate(90)
+        .config(ALPHA_8).cachePartition("avatars").build();
+    String hotKey = Utils.createKey(hot);
+    manifest.recordLoad(Utils.createKey(cold), cold, bitmap());
+    manifest.recordLoad(hotKey, hot, bitmap());
+    manifest.recordHit(hotKey);
+    manifest.save();
+
+    List<Request> requests = manifest.loadWarmUp(1024);
+    assertThat(requests).hasSize(2);
+    assertThat(Utils.createKey(requests.get(0))).isEqualTo(hotKey);
+    assertThat(Utils.createKey(requests.get(1))).isEqualTo(Utils.createKey(cold));
+    assertThat(requests.get(0).config).isEqualTo(ALPHA_8);
+  }
+
+  @Test public void warmUpRespectsBudget() {
+    Request first = new Request.Builder(URI_1).build();
+    Request second = new Request.Builder(URI_2).build();
+    Bitmap bitmap = bitmap();
+    manifest.recordLoad(Utils.createKey(first), first, bitmap);
+    manifest.recordLoad(Utils.createKey(second), second, bitmap);
+    manifest.recordHit(Utils.createKey(second));
+    manifest.save();
+
+    List<Request> requests = manifest.loadWarmUp(Utils.getBitmapBytes(bitmap));
+    assertThat(requests).hasSize(1);
+    assertThat(requests.get(0).uri).isEqualTo(URI_2);
+  }
+
+  private static Bitmap bitmap() {
+    return Bitmap.createBitmap(4, 4, ALPHA_8);
+  }
+}
@@ -18,6 +18,7 @@ package com.squareup.picasso;
 import android.graphics.drawable.Drawable;
 import android.widget.ImageView;
 import org.junit.Test;
+import org.mockito.InOrder;
 import org.junit.runner.RunWith;
 import org.robolectric.Robolectric;
 import org.robolectric.RobolectricTestRunner;
@@ -32,9 +33,11 @@ import static com.squareup.picasso.TestUtils.mockCallback;
 import static com.squareup.picasso.TestUtils.mockImageViewTarget;
 import static org.fest.assertions.api.Assertions.assertThat;
 import static org.mockito.Matchers.any;
+import static org.mockito.Mockito.inOrder;
 import static org.mockito.Mockito.mock;
 import static org.mockito.Mockito.verify;
 import static org.mockito.Mockito.verifyZeroInteractions;
+import static org.mockito.Mockito.withSettings;
 
 @RunWith(RobolectricTestRunner.class)
 @Config(manifest = Config.NONE)
@@ -77,8 +80,8 @@ public class ImageViewActionTest {
   @Test
   public void invokesTargetAndCallbackSuccessIfTargetIsNotNull() throws Exception {
     Picasso picasso =
-        new Picasso(Robolectric.application, mock(Dispatcher.class), Cache.NONE, null, IDENTITY,
-            mock(Stats.class), false, false);
+        new Picasso(Robolectric.application, mock(Dispatcher.class), Cache.NONE, null, null,
+            null, null, IDENTITY, mock(Stats.class), false, false, false);
     ImageView target = mockImageViewTarget();
     Callback callback = mockCallback();
     ImageViewAction request =
@@ -126,6 +129,20 @@ public class ImageViewActionTest {
     verify(callback).onError();
   }
 
+  @Test
+  public void timedOutNotifiesTimeoutListenerBeforeError() throws Exception {
+    ImageView target = mockImageViewTarget();
+    Callback callback = mock(Callback.class, withSettings().extraInterfaces(TimeoutListener.class));
+    Picasso mock = mock(Picasso.class);
+    ImageViewAction request =
+        new ImageViewAction(mock, target, null, false, false, RESOURCE_ID_1, null, null, callback);
+    request.timedOut();
+    InOrder inOrder = inOrder(callback);
+    inOrder.verify((TimeoutListener) callback).onTimeout();
+    inOrder.verify(callback).onError();
+    verify(target).setImageResource(RESOURCE_ID_1);
+  }
+
   @Test
   public void clearsCallbackOnCancel() throws Exception {
     Picasso picasso = mock(Picasso.class);
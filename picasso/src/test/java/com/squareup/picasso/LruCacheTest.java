@@ -156,6 +156,95 @@ public class LruCacheTest {
     cache.set("c", C);
     cache.evictAll();
     assertThat(cache.map).isEmpty();
+    assertThat(cache.keyIndex.sources).isEmpty();
+  }
+
+  @Test public void clearKeyUriRemovesEveryVariant() {
+    LruCache cache = new LruCache(5);
+    cache.set("http://a\n", A);
+    cache.set("http://a\nresize:1x1\n", B);
+    cache.set("http://ab\n", C);
+    cache.clearKeyUri("http://a");
+    assertSnapshot(cache, "http://ab\n", C);
+    assertThat(cache.size()).isEqualTo(1);
+  }
+
+  @Test public void clearKeyUriPrefixRemovesMatchingSources() {
+    LruCache cache = new LruCache(5);
+    cache.set("http://a/1\n", A);
+    cache.set("http://a/2\nresize:1x1\n", B);
+    cache.set("http://b/1\n", C);
+    cache.clearKeyUriPrefix("http://a/");
+    assertSnapshot(cache, "http://b/1\n", C);
+    assertThat(cache.keyIndex.sources).containsKey("http://b/1").hasSize(1);
+  }
+
+  @Test public void degradeBeforeEvictHalvesColdEntries() {
+    LruCache cache = new LruCache(48, null, true);
+    Bitmap a = Bitmap.createBitmap(4, 4, ALPHA_8);
+    cache.set("a", a);
+    cache.set("b", Bitmap.createBitmap(4, 4, ALPHA_8));
+    cache.set("c", Bitmap.createBitmap(4, 4, ALPHA_8));
+    cache.trimToSize(40);
+
+    Bitmap degraded = cache.get("a");
+    assertThat(degraded).isNotSameAs(a);
+    assertThat(degraded.getWidth()).isEqualTo(2);
+    assertThat(cache.isDegraded(degraded)).isTrue();
+    assertThat(cache.isDegraded(cache.get("c"))).isFalse();
+    assertThat(cache.size()).isEqualTo(36);
+    assertThat(cache.degradeCount()).isEqualTo(1);
+    assertThat(cache.evictionCount()).isEqualTo(0);
+  }
+
+  @Test public void degradeBeforeEvictDegradesSeveralEntriesInOnePass() {
+    LruCache cache = new LruCache(48, null, true);
+    cache.set("a", Bitmap.createBitmap(4, 4, ALPHA_8));
+    cache.set("b", Bitmap.createBitmap(4, 4, ALPHA_8));
+    cache.set("c", Bitmap.createBitmap(4, 4, ALPHA_8));
+    cache.trimToSize(24);
+    assertThat(cache.size()).isEqualTo(24);
+    assertThat(cache.degradeCount()).isEqualTo(2);
+    assertThat(cache.isDegraded(cache.get("c"))).isFalse();
+    assertThat(cache.evictionCount()).isEqualTo(0);
+  }
+
+  @Test public void degradeBeforeEvictOnlyEvictsWhenSetAtCapacity() {
+    LruCache cache = new LruCache(20, null, true);
+    cache.set("a", Bitmap.createBitmap(4, 4, ALPHA_8));
+    cache.set("b", Bitmap.createBitmap(4, 4, ALPHA_8));
+    assertThat(cache.get("a")).isNull();
+    assertThat(cache.degradeCount()).isEqualTo(0);
+    assertThat(cache.evictionCount()).isEqualTo(1);
+  }
+
+  @Test public void degradeBeforeEvictEvictsOnceNothingCanBeDegraded() {
+    LruCache cache = new LruCache(3, null, true);
+    cache.set("a", A);
+    cache.set("b", B);
+    cache.set("c", C);
+    cache.trimToSize(2);
+    assertSnapshot(cache, "b", B, "c", C);
+    assertThat(cache.degradeCount()).isEqualTo(0);
+    assertThat(cache.evictionCount()).isEqualTo(1);
+  }
+
+  @Test public void evictedDegradedEntriesAreForgotten() {
+    LruCache cache = new LruCache(32, null, true);
+    cache.set("a", Bitmap.createBitmap(4, 4, ALPHA_8));
+    cache.set("b", Bitmap.createBitmap(4, 4, ALPHA_8));
+    cache.trimToSize(20);
+    assertThat(cache.degraded).hasSize(1);
+    cache.evictAll();
+    assertThat(cache.degraded).isEmpty();
+  }
+
+  @Test public void defaultModeDoesNotDegrade() {
+    LruCache cache = new LruCache(20);
+    cache.set("a", Bitmap.createBitmap(4, 4, ALPHA_8));
+    cache.set("b", Bitmap.createBitmap(4, 4, ALPHA_8));
+    assertThat(cache.get("a")).isNull();
+    assertThat(cache.degradeCount()).isEqualTo(0);
   }
 
   private void assertHit(LruCache cache, String key, Bitmap value) {
@@ -19,8 +19,10 @@ import android.content.Context;
 import android.graphics.Bitmap;
 import android.net.NetworkInfo;
 import android.net.Uri;
+import java.io.ByteArrayInputStream;
 import java.io.IOException;
 import java.io.InputStream;
+import java.util.concurrent.FutureTask;
 import org.junit.Before;
 import org.junit.Test;
 import org.junit.runner.RunWith;
@@ -38,6 +40,7 @@ import static org.fest.assertions.api.Assertions.fail;
 import static org.mockito.Matchers.any;
 import static org.mockito.Matchers.anyBoolean;
 import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.times;
 import static org.mockito.Mockito.verify;
 import static org.mockito.Mockito.verifyZeroInteractions;
 import static org.mockito.Mockito.when;
@@ -149,6 +152,113 @@ public class NetworkBitmapHunterTest {
     verifyZeroInteractions(stats);
   }
 
+  @Test public void fetchReadsResponseIntoMemory() throws Exception {
+    byte[] body = new byte[] { 1, 2, 3 };
+    Downloader.Response response =
+        new Downloader.Response(new ByteArrayInputStream(body), false, body.length);
+    when(downloader.load(any(Uri.class), anyBoolean())).thenReturn(response);
+    Action action = TestUtils.mockAction(URI_KEY_1, URI_1);
+    NetworkBitmapHunter hunter =
+        new NetworkBitmapHunter(picasso, dispatcher, cache, stats, action, downloader);
+    assertThat(hunter.needsFetch()).isTrue();
+    hunter.fetch();
+    assertThat(hunter.needsFetch()).isFalse();
+    assertThat(hunter.fetchedBytes).isEqualTo(body);
+    verify(stats).dispatchDownloadFinished(body.length);
+  }
+
+  @Test public void fetchLeavesOversizedBodyToDecodeStage() throws Exception {
+    InputStream body = mock(InputStream.class);
+    Downloader.Response response = new Downloader.Response(body, false,
+        NetworkBitmapHunter.MAX_BUFFERED_BYTES + 1);
+    when(downloader.load(any(Uri.class), anyBoolean())).thenReturn(response);
+    Action action = TestUtils.mockAction(URI_KEY_1, URI_1);
+    NetworkBitmapHunter hunter =
+        new NetworkBitmapHunter(picasso, dispatcher, cache, stats, action, downloader);
+    hunter.fetch();
+    assertThat(hunter.needsFetch()).isFalse();
+    assertThat(hunter.fetchedBytes).isNull();
+    assertThat(hunter.fetchedStream).isSameAs(body);
+    verifyZeroInteractions(body);
+  }
+
+  @Test public void fetchStreamsUnknownLengthBodyPastLimit() throws Exception {
+    byte[] body = new byte[NetworkBitmapHunter.MAX_BUFFERED_BYTES + 10000];
+    body[0] = 1;
+    body[body.length - 1] = 2;
+    Downloader.Response response =
+        new Downloader.Response(new ByteArrayInputStream(body), false, -1);
+    when(downloader.load(any(Uri.class), anyBoolean())).thenReturn(response);
+    Action action = TestUtils.mockAction(URI_KEY_1, URI_1);
+    NetworkBitmapHunter hunter =
+        new NetworkBitmapHunter(picasso, dispatcher, cache, stats, action, downloader);
+    hunter.fetch();
+    assertThat(hunter.fetchedBytes).isNull();
+    assertThat(Utils.toByteArray(hunter.fetchedStream)).isEqualTo(body);
+  }
+
+  @Test public void releaseFetchedClosesStream() throws Exception {
+    InputStream body = mock(InputStream.class);
+    Downloader.Response response = new Downloader.Response(body, false,
+        NetworkBitmapHunter.MAX_BUFFERED_BYTES + 1);
+    when(downloader.load(any(Uri.class), anyBoolean())).thenReturn(response);
+    Action action = TestUtils.mockAction(URI_KEY_1, URI_1);
+    NetworkBitmapHunter hunter =
+        new NetworkBitmapHunter(picasso, dispatcher, cache, stats, action, downloader);
+    hunter.fetch();
+    hunter.releaseFetched();
+    verify(body).close();
+    assertThat(hunter.fetchedStream).isNull();
+    assertThat(hunter.needsFetch()).isTrue();
+  }
+
+  @Test public void rejectedPooledBitmapReloadsStreamedBody() throws Exception {
+    int length = NetworkBitmapHunter.MAX_BUFFERED_BYTES + 1;
+    when(downloader.load(any(Uri.class), anyBoolean())).thenReturn(
+        new Downloader.Response(new ByteArrayInputStream(new byte[length]), false, length),
+        new Downloader.Response(new ByteArrayInputStream(new byte[length]), false, length));
+    Action action = TestUtils.mockAction(URI_KEY_1, URI_1);
+    NetworkBitmapHunter hunter =
+        new NetworkBitmapHunter(picasso, dispatcher, cache, stats, action, downloader) {
+          boolean rejected;
+
+          @Override Bitmap decode(Request data) throws IOException {
+            Bitmap bitmap = super.decode(data);
+            if (!rejected) {
+              // Act as if the decoder refused the pooled bitmap after reading the stream.
+              rejected = true;
+              reusedBitmap = true;
+              throw new IllegalArgumentException("Problem decoding into existing bitmap");
+            }
+            return bitmap;
+          }
+        };
+    hunter.fetch();
+    assertThat(hunter.fetchedStream).isNotNull();
+    assertThat(hunter.hunt()).isNotNull();
+    assertThat(hunter.bitmapReuseDisabled).isTrue();
+    verify(downloader, times(2)).load(any(Uri.class), anyBoolean());
+  }
+
+  @Test public void fetchStopsReadingWhenCancelled() throws Exception {
+    byte[] body = new byte[10000];
+    Downloader.Response response =
+        new Downloader.Response(new ByteArrayInputStream(body), false, body.length);
+    when(downloader.load(any(Uri.class), anyBoolean())).thenReturn(response);
+    Action action = TestUtils.mockAction(URI_KEY_1, URI_1);
+    NetworkBitmapHunter hunter =
+        new NetworkBitmapHunter(picasso, dispatcher, cache, stats, action, downloader);
+    hunter.future = new FutureTask<Object>(mock(Runnable.class), null);
+    hunter.future.cancel(false);
+    try {
+      hunter.fetch();
+      fail("Fetching for a cancelled hunter should stop.");
+    } catch (BitmapHunter.CancelledException expected) {
+      assertThat(expected.avoidedBytes).isEqualTo(body.length - 4096);
+    }
+    assertThat(hunter.fetchedBytes).isNull();
+  }
+
   @Test public void downloaderCanReturnBitmapDirectly() throws Exception {
     final Bitmap expected = Bitmap.createBitmap(10, 10, ARGB_8888);
     Downloader bitmapDownloader = new Downloader() {
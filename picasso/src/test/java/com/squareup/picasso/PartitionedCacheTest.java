@@ -0,0 +1,119 @@
+/*
+ * Copyright (C) 2014 Square, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.squareup.picasso;
+
+import android.graphics.Bitmap;
+import android.net.Uri;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.annotation.Config;
+
+import static android.graphics.Bitmap.Config.ALPHA_8;
+import static com.squareup.picasso.TestUtils.URI_1;
+import static org.fest.assertions.api.Assertions.assertThat;
+
+@RunWith(RobolectricTestRunner.class)
+@Config(manifest = Config.NONE)
+public class PartitionedCacheTest {
+  private LruCache defaultCache;
+  private PartitionedCache cache;
+
+  @Before public void setUp() {
+    defaultCache = new LruCache(4);
+    Map<String, Integer> maxSizes = new LinkedHashMap<String, Integer>();
+    maxSizes.put("avatars", 2);
+    maxSizes.put("avatars-large", 2);
+    cache = new PartitionedCache(defaultCache, maxSizes, null, false);
+  }
+
+  @Test public void keysAreRoutedByPartition() {
+    String plain = Utils.createKey(new Request.Builder(URI_1).build());
+    String avatar = Utils.createKey(new Request.Builder(URI_1).cachePartition("avatars").build());
+    String large =
+        Utils.createKey(new Request.Builder(URI_1).cachePartition("avatars-large").build());
+    String unknown = Utils.createKey(new Request.Builder(URI_1).cachePartition("other").build());
+
+    assertThat(cache.cacheFor(plain)).isSameAs(defaultCache);
+    assertThat(cache.cacheFor(avatar)).isSameAs(cache.partitions[0]);
+    assertThat(cache.cacheFor(large)).isSameAs(cache.partitions[1]);
+    assertThat(cache.cacheFor(unknown)).isSameAs(defaultCache);
+  }
+
+  @Test public void partitionsHaveIndependentBudgets() {
+    for (int i = 0; i < 4; i++) {
+      cache.set(key(i, "avatars"), bitmap());
+    }
+    for (int i = 0; i < 8; i++) {
+      cache.set(key(i, null), bitmap());
+    }
+    assertThat(cache.get(key(2, "avatars"))).isNotNull();
+    assertThat(cache.get(key(3, "avatars"))).isNotNull();
+    assertThat(cache.maxSize()).isEqualTo(8);
+    assertThat(cache.size()).isEqualTo(6);
+  }
+
+  @Test public void statsAreReportedPerPartition() {
+    cache.set(key(0, "avatars"), bitmap());
+    cache.get(key(0, "avatars"));
+    cache.get(key(1, "avatars"));
+
+    List<StatsSnapshot.PartitionStats> stats = cache.createPartitionStats();
+    assertThat(stats).hasSize(2);
+    StatsSnapshot.PartitionStats avatars = stats.get(0);
+    assertThat(avatars.name).isEqualTo("avatars");
+    assertThat(avatars.maxSize).isEqualTo(2);
+    assertThat(avatars.size).isEqualTo(1);
+    assertThat(avatars.hitCount).isEqualTo(1);
+    assertThat(avatars.missCount).isEqualTo(1);
+    assertThat(avatars.evictionCount).isEqualTo(0);
+  }
+
+  @Test public void trimShrinksEveryPartitionProportionally() {
+    cache.set(key(0, "avatars"), bitmap());
+    cache.set(key(1, "avatars"), bitmap());
+    for (int i = 0; i < 4; i++) {
+      cache.set(key(i, null), bitmap());
+    }
+    cache.trimToSize(4);
+    assertThat(defaultCache.size()).isEqualTo(2);
+    assertThat(cache.partitions[0].size()).isEqualTo(1);
+  }
+
+  @Test public void clearKeyUriReachesPartitions() {
+    cache.set(key(0, "avatars"), bitmap());
+    cache.set(key(0, null), bitmap());
+    cache.clearKeyUri("http://example.com/0.png");
+    assertThat(cache.size()).isEqualTo(0);
+  }
+
+  private static String key(int index, String partition) {
+    Request.Builder builder =
+        new Request.Builder(Uri.parse("http://example.com/" + index + ".png"));
+    if (partition != null) {
+      builder.cachePartition(partition);
+    }
+    return Utils.createKey(builder.build());
+  }
+
+  private static Bitmap bitmap() {
+    return Bitmap.createBitmap(1, 1, ALPHA_8);
+  }
+}
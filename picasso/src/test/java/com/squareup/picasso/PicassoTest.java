@@ -21,6 +21,7 @@ import android.widget.ImageView;
 import java.util.Arrays;
 import java.util.Collections;
 import java.util.concurrent.ExecutorService;
+import java.util.concurrent.TimeoutException;
 import org.junit.Before;
 import org.junit.Test;
 import org.junit.runner.RunWith;
@@ -29,8 +30,13 @@ import org.robolectric.Robolectric;
 import org.robolectric.RobolectricTestRunner;
 import org.robolectric.annotation.Config;
 
+import static android.content.ComponentCallbacks2.TRIM_MEMORY_BACKGROUND;
+import static android.content.ComponentCallbacks2.TRIM_MEMORY_COMPLETE;
+import static android.content.ComponentCallbacks2.TRIM_MEMORY_RUNNING_MODERATE;
+import static android.content.ComponentCallbacks2.TRIM_MEMORY_UI_HIDDEN;
 import static com.squareup.picasso.Picasso.Listener;
 import static com.squareup.picasso.Picasso.LoadedFrom.MEMORY;
+import static com.squareup.picasso.Picasso.LoadedFrom.NETWORK;
 import static com.squareup.picasso.TestUtils.BITMAP_1;
 import static com.squareup.picasso.TestUtils.URI_1;
 import static com.squareup.picasso.TestUtils.URI_KEY_1;
@@ -43,6 +49,8 @@ import static com.squareup.picasso.TestUtils.mockTarget;
 import static org.fest.assertions.api.Assertions.assertThat;
 import static org.fest.assertions.api.Assertions.fail;
 import static org.mockito.Matchers.any;
+import static org.mockito.Matchers.anyFloat;
+import static org.mockito.Matchers.anyInt;
 import static org.mockito.Matchers.eq;
 import static org.mockito.Mockito.mock;
 import static org.mockito.Mockito.never;
@@ -50,6 +58,7 @@ import static org.mockito.Mockito.verify;
 import static org.mockito.Mockito.verifyNoMoreInteractions;
 import static org.mockito.Mockito.verifyZeroInteractions;
 import static org.mockito.Mockito.when;
+import static org.mockito.Mockito.withSettings;
 import static org.mockito.MockitoAnnotations.initMocks;
 
 @RunWith(RobolectricTestRunner.class)
@@ -60,7 +69,7 @@ public class PicassoTest {
   @Mock Downloader downloader;
   @Mock Dispatcher dispatcher;
   @Mock Picasso.RequestTransformer transformer;
-  @Mock Cache cache;
+  Cache cache;
   @Mock Listener listener;
   @Mock Stats stats;
 
@@ -68,7 +77,10 @@ public class PicassoTest {
 
   @Before public void setUp() {
     initMocks(this);
-    picasso = new Picasso(context, dispatcher, cache, listener, transformer, stats, false, false);
+    cache = mock(Cache.class, withSettings()
+        .extraInterfaces(TrimmableCache.class, UriIndexedCache.class));
+    picasso = new Picasso(context, dispatcher, cache, null, null, null, listener, transformer,
+        stats, false, false, false);
   }
 
   @Test public void submitWithNullTargetInvokesDispatcher() throws Exception {
@@ -99,6 +111,24 @@ public class PicassoTest {
     verify(stats).dispatchCacheMiss();
   }
 
+  @Test public void quickMemoryCheckReturnsActiveBitmapEvictedFromCache() throws Exception {
+    picasso.activeResources.put(URI_KEY_1, BITMAP_1);
+    Bitmap cached = picasso.quickMemoryCacheCheck(URI_KEY_1);
+    assertThat(cached).isEqualTo(BITMAP_1);
+    verify(cache, never()).set(URI_KEY_1, BITMAP_1);
+    verify(stats).dispatchCacheHit();
+  }
+
+  @Test public void completeTracksDeliveredBitmapAsActive() throws Exception {
+    Action action = mockAction(URI_KEY_1, URI_1, mockImageViewTarget());
+    BitmapHunter hunter = mockHunter(URI_KEY_1, BITMAP_1, false);
+    when(hunter.getLoadedFrom()).thenReturn(NETWORK);
+    when(hunter.getAction()).thenReturn(action);
+    when(hunter.getActions()).thenReturn(Collections.<Action>emptyList());
+    picasso.complete(hunter);
+    assertThat(picasso.activeResources.get(URI_KEY_1)).isEqualTo(BITMAP_1);
+  }
+
   @Test public void completeInvokesSuccessOnAllSuccessfulRequests() throws Exception {
     Action action1 = mockAction(URI_KEY_1, URI_1, mockImageViewTarget());
     Action action2 = mockCanceledAction();
@@ -123,6 +153,31 @@ public class PicassoTest {
     verify(listener).onImageLoadFailed(picasso, URI_1, exception);
   }
 
+  @Test public void timedOutInvokesErrorAndReportsTimeout() throws Exception {
+    Action action = mockAction(URI_KEY_1, URI_1, mockImageViewTarget());
+    picasso.timedOut(action);
+    verify(action).timedOut();
+    verify(listener).onImageLoadFailed(eq(picasso), eq(URI_1), any(TimeoutException.class));
+  }
+
+  @Test public void timedOutIgnoresCancelledAction() throws Exception {
+    Action action = mockCanceledAction();
+    picasso.timedOut(action);
+    verify(action, never()).timedOut();
+    verifyZeroInteractions(listener);
+  }
+
+  @Test public void completeKeepsNewerRequestForSameTarget() throws Exception {
+    Target target = mockTarget();
+    Action stale = mockAction(URI_KEY_1, URI_1, target);
+    Action current = mockAction(URI_KEY_1, URI_1, target);
+    picasso.targetToAction.put(target, current);
+    BitmapHunter hunter = mockHunter(URI_KEY_1, null, false);
+    when(hunter.getAction()).thenReturn(stale);
+    picasso.complete(hunter);
+    assertThat(picasso.targetToAction.get(target)).isSameAs(current);
+  }
+
   @Test public void completeDeliversToSingle() throws Exception {
     Action action = mockAction(URI_KEY_1, URI_1, mockImageViewTarget());
     BitmapHunter hunter = mockHunter(URI_KEY_1, BITMAP_1, false);
@@ -326,6 +381,67 @@ public class PicassoTest {
     }
   }
 
+  @Test public void invalidateClearsEveryVariantOfUri() throws Exception {
+    picasso.activeResources.put(URI_KEY_1, BITMAP_1);
+    picasso.invalidate(URI_1);
+    verify((UriIndexedCache) cache).clearKeyUri(URI_1.toString());
+    assertThat(picasso.activeResources.get(URI_KEY_1)).isNull();
+  }
+
+  @Test public void invalidatePrefixClearsMatchingUris() throws Exception {
+    picasso.activeResources.put(URI_KEY_1, BITMAP_1);
+    picasso.invalidate("http://example.com/");
+    verify((UriIndexedCache) cache).clearKeyUriPrefix("http://example.com/");
+    assertThat(picasso.activeResources.get(URI_KEY_1)).isNull();
+  }
+
+  @Test public void invalidateClearsForeignCache() throws Exception {
+    Cache foreign = mock(Cache.class);
+    picasso = new Picasso(context, dispatcher, foreign, null, null, null, listener, transformer,
+        stats, false, false, false);
+    picasso.invalidate(URI_1);
+    verify(foreign).clear();
+  }
+
+  @Test public void trimFractionFollowsLevel() throws Exception {
+    assertThat(Picasso.getTrimFraction(TRIM_MEMORY_RUNNING_MODERATE)).isEqualTo(0.75f);
+    assertThat(Picasso.getTrimFraction(TRIM_MEMORY_UI_HIDDEN)).isEqualTo(0.75f);
+    assertThat(Picasso.getTrimFraction(TRIM_MEMORY_BACKGROUND)).isEqualTo(0.5f);
+    assertThat(Picasso.getTrimFraction(TRIM_MEMORY_COMPLETE)).isEqualTo(0f);
+  }
+
+  @Test public void trimMemoryShrinksCacheAndPrefetches() throws Exception {
+    when(cache.maxSize()).thenReturn(100);
+    picasso.trimMemory(TRIM_MEMORY_BACKGROUND);
+    verify((TrimmableCache) cache).trimToSize(50);
+    verify(dispatcher).dispatchTrimMemory(0.5f);
+    verify(stats).dispatchMemoryTrimmed(anyInt());
+  }
+
+  @Test public void trimMemoryClearsForeignCacheOnlyWhenNothingMayBeKept() throws Exception {
+    Cache foreign = mock(Cache.class);
+    picasso = new Picasso(context, dispatcher, foreign, null, null, null, listener, transformer,
+        stats, false, false, false);
+    when(foreign.maxSize()).thenReturn(100);
+    picasso.trimMemory(TRIM_MEMORY_BACKGROUND);
+    verify(foreign, never()).clear();
+    picasso.trimMemory(TRIM_MEMORY_COMPLETE);
+    verify(foreign).clear();
+  }
+
+  @Test public void trimMemoryIgnoresUnknownLevel() throws Exception {
+    picasso.trimMemory(0);
+    verify((TrimmableCache) cache, never()).trimToSize(anyInt());
+    verify(dispatcher, never()).dispatchTrimMemory(anyFloat());
+  }
+
+  @Test public void pauseAndResumeTagDispatch() throws Exception {
+    picasso.pauseTag("tag");
+    verify(dispatcher).dispatchPauseTag("tag");
+    picasso.resumeTag("tag");
+    verify(dispatcher).dispatchResumeTag("tag");
+  }
+
   @Test public void builderInvalidExecutor() throws Exception {
     try {
       new Picasso.Builder(context).executor(null);
@@ -366,6 +482,19 @@ public class PicassoTest {
     }
   }
 
+  @Test public void builderInvalidDispatcherShards() throws Exception {
+    try {
+      new Picasso.Builder(context).dispatcherShards(0);
+      fail("Zero dispatcher shards should throw exception.");
+    } catch (IllegalArgumentException expected) {
+    }
+    try {
+      new Picasso.Builder(context).dispatcherShards(2).dispatcherShards(2);
+      fail("Setting dispatcher shards twice should throw exception.");
+    } catch (IllegalStateException expected) {
+    }
+  }
+
   @Test public void builderInvalidContext() throws Exception {
     try {
       new Picasso.Builder(null);
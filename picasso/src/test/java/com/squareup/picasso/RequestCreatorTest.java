@@ -35,6 +35,8 @@ import java.io.IOException;
 import java.util.concurrent.CountDownLatch;
 
 import static com.squareup.picasso.Picasso.LoadedFrom.MEMORY;
+import static com.squareup.picasso.Picasso.Priority.HIGH;
+import static com.squareup.picasso.Picasso.Priority.LOW;
 import static com.squareup.picasso.Picasso.RequestTransformer.IDENTITY;
 import static com.squareup.picasso.RemoteViewsAction.AppWidgetAction;
 import static com.squareup.picasso.RemoteViewsAction.NotificationAction;
@@ -48,6 +50,7 @@ import static com.squareup.picasso.TestUtils.mockImageViewTarget;
 import static com.squareup.picasso.TestUtils.mockNotification;
 import static com.squareup.picasso.TestUtils.mockRemoteViews;
 import static com.squareup.picasso.TestUtils.mockTarget;
+import static java.util.concurrent.TimeUnit.SECONDS;
 import static org.fest.assertions.api.Assertions.assertThat;
 import static org.fest.assertions.api.Assertions.fail;
 import static org.mockito.Matchers.any;
@@ -121,6 +124,71 @@ public class RequestCreatorTest {
     assertThat(actionCaptor.getValue()).isInstanceOf(FetchAction.class);
   }
 
+  @Test public void fetchDefaultsToLowPriority() throws Exception {
+    new RequestCreator(picasso, URI_1, 0).fetch();
+    verify(picasso).submit(actionCaptor.capture());
+    assertThat(actionCaptor.getValue().getRequest().priority).isEqualTo(LOW);
+  }
+
+  @Test public void fetchKeepsExplicitPriority() throws Exception {
+    new RequestCreator(picasso, URI_1, 0).priority(HIGH).fetch();
+    verify(picasso).submit(actionCaptor.capture());
+    assertThat(actionCaptor.getValue().getRequest().priority).isEqualTo(HIGH);
+  }
+
+  @Test public void priorityCanOnlyBeSetOnce() throws Exception {
+    try {
+      new RequestCreator(picasso, URI_1, 0).priority(LOW).priority(HIGH);
+      fail("Setting the priority twice should throw an exception");
+    } catch (IllegalStateException expected) {
+    }
+  }
+
+  @Test public void fetchCarriesTag() throws Exception {
+    new RequestCreator(picasso, URI_1, 0).tag("tag").fetch();
+    verify(picasso).submit(actionCaptor.capture());
+    assertThat(actionCaptor.getValue().getTag()).isEqualTo("tag");
+  }
+
+  @Test public void nullTagThrows() throws Exception {
+    try {
+      new RequestCreator(picasso, URI_1, 0).tag(null);
+      fail("Setting a null tag should throw an exception");
+    } catch (IllegalArgumentException expected) {
+    }
+  }
+
+  @Test public void fetchCarriesDeadline() throws Exception {
+    new RequestCreator(picasso, URI_1, 0).deadline(2, SECONDS).fetch();
+    verify(picasso).submit(actionCaptor.capture());
+    Action action = actionCaptor.getValue();
+    assertThat(action.deadline - action.getRequest().started).isEqualTo(SECONDS.toNanos(2));
+  }
+
+  @Test public void fetchWithoutDeadlineHasNone() throws Exception {
+    new RequestCreator(picasso, URI_1, 0).fetch();
+    verify(picasso).submit(actionCaptor.capture());
+    assertThat(actionCaptor.getValue().deadline).isEqualTo(0);
+  }
+
+  @Test public void invalidDeadlineThrows() throws Exception {
+    try {
+      new RequestCreator(picasso, URI_1, 0).deadline(0, SECONDS);
+      fail("Setting a zero deadline should throw an exception");
+    } catch (IllegalArgumentException expected) {
+    }
+    try {
+      new RequestCreator(picasso, URI_1, 0).deadline(1, null);
+      fail("Setting a deadline without unit should throw an exception");
+    } catch (IllegalArgumentException expected) {
+    }
+    try {
+      new RequestCreator(picasso, URI_1, 0).deadline(1, SECONDS).deadline(2, SECONDS);
+      fail("Setting the deadline twice should throw an exception");
+    } catch (IllegalStateException expected) {
+    }
+  }
+
   @Test public void fetchWithFitThrows() throws Exception {
     try {
       new RequestCreator(picasso, URI_1, 0).fit().fetch();
@@ -206,8 +274,8 @@ public class RequestCreatorTest {
   @Test
   public void intoImageViewWithQuickMemoryCacheCheckDoesNotSubmit() throws Exception {
     Picasso picasso =
-        spy(new Picasso(Robolectric.application, mock(Dispatcher.class), Cache.NONE, null, IDENTITY,
-            mock(Stats.class), false, false));
+        spy(new Picasso(Robolectric.application, mock(Dispatcher.class), Cache.NONE, null, null,
+            null, null, IDENTITY, mock(Stats.class), false, false, false));
     doReturn(BITMAP_1).when(picasso).quickMemoryCacheCheck(URI_KEY_1);
     ImageView target = mockImageViewTarget();
     Callback callback = mockCallback();
@@ -221,8 +289,8 @@ public class RequestCreatorTest {
   @Test
   public void intoImageViewSetsPlaceholderDrawable() throws Exception {
     Picasso picasso =
-        spy(new Picasso(Robolectric.application, mock(Dispatcher.class), Cache.NONE, null, IDENTITY,
-            mock(Stats.class), false, false));
+        spy(new Picasso(Robolectric.application, mock(Dispatcher.class), Cache.NONE, null, null,
+            null, null, IDENTITY, mock(Stats.class), false, false, false));
     ImageView target = mockImageViewTarget();
     Drawable placeHolderDrawable = mock(Drawable.class);
     new RequestCreator(picasso, URI_1, 0).placeholder(placeHolderDrawable).into(target);
@@ -234,8 +302,8 @@ public class RequestCreatorTest {
   @Test
   public void intoImageViewSetsPlaceholderWithResourceId() throws Exception {
     Picasso picasso =
-        spy(new Picasso(Robolectric.application, mock(Dispatcher.class), Cache.NONE, null, IDENTITY,
-            mock(Stats.class), false, false));
+        spy(new Picasso(Robolectric.application, mock(Dispatcher.class), Cache.NONE, null, null,
+            null, null, IDENTITY, mock(Stats.class), false, false, false));
     ImageView target = mockImageViewTarget();
     new RequestCreator(picasso, URI_1, 0).placeholder(R.drawable.picture_frame).into(target);
     verify(target).setImageResource(R.drawable.picture_frame);
@@ -245,12 +313,12 @@ public class RequestCreatorTest {
 
   @Test
   public void cancelNotOnMainThreadCrashes() throws Exception {
-    doCallRealMethod().when(picasso).cancelRequest(any(Target.class));
+    doCallRealMethod().when(picasso).cancelRequest(any(ImageView.class));
     final CountDownLatch latch = new CountDownLatch(1);
     new Thread(new Runnable() {
       @Override public void run() {
         try {
-          new RequestCreator(picasso, null, 0).into(mockTarget());
+          picasso.cancelRequest(mockImageViewTarget());
           fail("Should have thrown IllegalStateException");
         } catch (IllegalStateException ignored) {
         } finally {
@@ -261,6 +329,37 @@ public class RequestCreatorTest {
     latch.await();
   }
 
+  @Test
+  public void intoTargetNotOnMainThreadSubmits() throws Exception {
+    final CountDownLatch latch = new CountDownLatch(1);
+    new Thread(new Runnable() {
+      @Override public void run() {
+        try {
+          new RequestCreator(picasso, URI_1, 0).into(mockTarget());
+        } finally {
+          latch.countDown();
+        }
+      }
+    }).start();
+    latch.await();
+    verify(picasso).enqueueAndSubmit(actionCaptor.capture());
+    assertThat(actionCaptor.getValue()).isInstanceOf(TargetAction.class);
+  }
+
+  @Test
+  public void getRequestIdIsUniqueAcrossThreads() throws Exception {
+    final int[] ids = new int[2];
+    Thread thread = new Thread(new Runnable() {
+      @Override public void run() {
+        ids[0] = RequestCreator.getRequestId();
+      }
+    });
+    thread.start();
+    thread.join();
+    ids[1] = RequestCreator.getRequestId();
+    assertThat(ids[0]).isNotEqualTo(ids[1]);
+  }
+
   @Test
   public void intoNotOnMainThreadCrashes() throws Exception {
     doCallRealMethod().when(picasso).enqueueAndSubmit(any(Action.class));
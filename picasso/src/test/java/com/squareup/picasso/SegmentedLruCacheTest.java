@@ -0,0 +1,155 @@
+/*
+ * Copyright (C) 2014 Square, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.squareup.picasso;
+
+import android.graphics.Bitmap;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.annotation.Config;
+
+import static android.graphics.Bitmap.Config.ALPHA_8;
+import static junit.framework.Assert.fail;
+import static org.fest.assertions.api.Assertions.assertThat;
+
+@RunWith(RobolectricTestRunner.class)
+@Config(manifest = Config.NONE)
+public class SegmentedLruCacheTest {
+  // The use of ALPHA_8 simplifies the size math in tests since only one byte is used per-pixel.
+  private final Bitmap A = Bitmap.createBitmap(1, 1, ALPHA_8);
+  private final Bitmap B = Bitmap.createBitmap(1, 1, ALPHA_8);
+  private final Bitmap C = Bitmap.createBitmap(1, 1, ALPHA_8);
+  private final Bitmap D = Bitmap.createBitmap(1, 1, ALPHA_8);
+
+  @Test public void constructorDoesNotAllowZeroCacheSize() {
+    try {
+      new SegmentedLruCache(0);
+      fail();
+    } catch (IllegalArgumentException expected) {
+    }
+  }
+
+  @Test public void constructorDoesNotAllowZeroSegments() {
+    try {
+      new SegmentedLruCache(1, 0, null);
+      fail();
+    } catch (IllegalArgumentException expected) {
+    }
+  }
+
+  @Test public void segmentCountIsRoundedToPowerOfTwo() {
+    assertThat(new SegmentedLruCache(1, 3, null).segments).hasSize(4);
+    assertThat(new SegmentedLruCache(1, 8, null).segments).hasSize(8);
+  }
+
+  @Test public void cannotPutNullKey() {
+    SegmentedLruCache cache = new SegmentedLruCache(3);
+    try {
+      cache.set(null, A);
+      fail();
+    } catch (NullPointerException expected) {
+    }
+  }
+
+  @Test public void cannotPutNullValue() {
+    SegmentedLruCache cache = new SegmentedLruCache(3);
+    try {
+      cache.set("a", null);
+      fail();
+    } catch (NullPointerException expected) {
+    }
+  }
+
+  @Test public void statistics() {
+    SegmentedLruCache cache = new SegmentedLruCache(3);
+    cache.set("a", A);
+    cache.set("b", B);
+    assertThat(cache.get("a")).isSameAs(A);
+    assertThat(cache.get("c")).isNull();
+    assertThat(cache.putCount()).isEqualTo(2);
+    assertThat(cache.hitCount()).isEqualTo(1);
+    assertThat(cache.missCount()).isEqualTo(1);
+    assertThat(cache.size()).isEqualTo(2);
+  }
+
+  @Test public void singleSegmentEvictsLeastRecentlyUsed() {
+    SegmentedLruCache cache = new SegmentedLruCache(3, 1, null);
+    cache.set("a", A);
+    cache.set("b", B);
+    cache.set("c", C);
+    cache.get("a");
+    cache.set("d", D);
+    assertThat(cache.evictionCount()).isEqualTo(1);
+    assertThat(cache.get("b")).isNull();
+    assertThat(cache.get("a")).isSameAs(A);
+    assertThat(cache.get("c")).isSameAs(C);
+    assertThat(cache.get("d")).isSameAs(D);
+  }
+
+  @Test public void budgetIsSharedAcrossSegments() {
+    SegmentedLruCache cache = new SegmentedLruCache(3, 16, null);
+    cache.set("a", A);
+    cache.set("b", B);
+    cache.set("c", C);
+    cache.set("d", D);
+    assertThat(cache.size()).isEqualTo(3);
+    assertThat(cache.evictionCount()).isEqualTo(1);
+  }
+
+  @Test public void replacingValueDoesNotDoubleCountSize() {
+    SegmentedLruCache cache = new SegmentedLruCache(3);
+    cache.set("a", A);
+    cache.set("a", B);
+    assertThat(cache.size()).isEqualTo(1);
+    assertThat(cache.get("a")).isSameAs(B);
+  }
+
+  @Test public void evictAll() {
+    SegmentedLruCache cache = new SegmentedLruCache(4);
+    cache.set("a", A);
+    cache.set("b", B);
+    cache.set("c", C);
+    cache.evictAll();
+    assertThat(cache.size()).isEqualTo(0);
+    for (SegmentedLruCache.Segment segment : cache.segments) {
+      assertThat(segment.values).isEmpty();
+      assertThat(segment.order).isEmpty();
+      assertThat(segment.keys.sources).isEmpty();
+    }
+  }
+
+  @Test public void clearKeyUriRemovesEveryVariant() {
+    SegmentedLruCache cache = new SegmentedLruCache(5);
+    cache.set("http://a\n", A);
+    cache.set("http://a\nresize:1x1\n", B);
+    cache.set("http://ab\n", C);
+    cache.clearKeyUri("http://a");
+    assertThat(cache.get("http://a\n")).isNull();
+    assertThat(cache.get("http://a\nresize:1x1\n")).isNull();
+    assertThat(cache.get("http://ab\n")).isSameAs(C);
+    assertThat(cache.size()).isEqualTo(1);
+  }
+
+  @Test public void clearKeyUriPrefixRemovesMatchingSources() {
+    SegmentedLruCache cache = new SegmentedLruCache(5);
+    cache.set("http://a/1\n", A);
+    cache.set("http://a/2\n", B);
+    cache.set("http://b/1\n", C);
+    cache.clearKeyUriPrefix("http://a/");
+    assertThat(cache.size()).isEqualTo(1);
+    assertThat(cache.get("http://b/1\n")).isSameAs(C);
+  }
+}
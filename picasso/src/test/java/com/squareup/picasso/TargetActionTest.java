@@ -20,6 +20,7 @@ import android.content.res.Resources;
 import android.graphics.Bitmap;
 import android.graphics.drawable.Drawable;
 import org.junit.Test;
+import org.mockito.InOrder;
 import org.junit.runner.RunWith;
 import org.robolectric.RobolectricTestRunner;
 import org.robolectric.annotation.Config;
@@ -32,9 +33,11 @@ import static com.squareup.picasso.TestUtils.RESOURCE_ID_1;
 import static com.squareup.picasso.TestUtils.URI_KEY_1;
 import static com.squareup.picasso.TestUtils.mockTarget;
 import static org.junit.Assert.fail;
+import static org.mockito.Mockito.inOrder;
 import static org.mockito.Mockito.mock;
 import static org.mockito.Mockito.verify;
 import static org.mockito.Mockito.when;
+import static org.mockito.Mockito.withSettings;
 
 @RunWith(RobolectricTestRunner.class)
 @Config(manifest = Config.NONE)
@@ -43,7 +46,8 @@ public class TargetActionTest {
   @Test(expected = AssertionError.class)
   public void throwsErrorWithNullResult() throws Exception {
     TargetAction request =
-        new TargetAction(mock(Picasso.class), mockTarget(), null, false, 0, null, URI_KEY_1);
+        new TargetAction(mock(Picasso.class), mockTarget(), null, false, 0, null,
+            URI_KEY_1, null, 0);
     request.complete(null, MEMORY);
   }
 
@@ -51,7 +55,7 @@ public class TargetActionTest {
   public void invokesSuccessIfTargetIsNotNull() throws Exception {
     Target target = mockTarget();
     TargetAction request =
-        new TargetAction(mock(Picasso.class), target, null, false, 0, null, URI_KEY_1);
+        new TargetAction(mock(Picasso.class), target, null, false, 0, null, URI_KEY_1, null, 0);
     request.complete(BITMAP_3, MEMORY);
     verify(target).onBitmapLoaded(BITMAP_3, MEMORY);
   }
@@ -61,22 +65,36 @@ public class TargetActionTest {
     Drawable errorDrawable = mock(Drawable.class);
     Target target = mockTarget();
     TargetAction request =
-        new TargetAction(mock(Picasso.class), target, null, false, 0, errorDrawable, URI_KEY_1);
+        new TargetAction(mock(Picasso.class), target, null, false, 0, errorDrawable,
+            URI_KEY_1, null, 0);
     request.error();
     verify(target).onBitmapFailed(errorDrawable);
   }
 
+  @Test
+  public void timedOutNotifiesTimeoutListenerBeforeFailure() throws Exception {
+    Drawable errorDrawable = mock(Drawable.class);
+    Target target = mock(Target.class, withSettings().extraInterfaces(TimeoutListener.class));
+    TargetAction request =
+        new TargetAction(mock(Picasso.class), target, null, false, 0, errorDrawable,
+            URI_KEY_1, null, 0);
+    request.timedOut();
+    InOrder inOrder = inOrder(target);
+    inOrder.verify((TimeoutListener) target).onTimeout();
+    inOrder.verify(target).onBitmapFailed(errorDrawable);
+  }
+
   @Test
   public void invokesOnBitmapFailedIfTargetIsNotNullWithErrorResourceId() throws Exception {
     Drawable errorDrawable = mock(Drawable.class);
     Target target = mockTarget();
     Context context = mock(Context.class);
     Picasso picasso =
-        new Picasso(context, mock(Dispatcher.class), Cache.NONE, null, IDENTITY, mock(Stats.class),
-            false, false);
+        new Picasso(context, mock(Dispatcher.class), Cache.NONE, null, null, null,
+            null, IDENTITY, mock(Stats.class), false, false, false);
     Resources res = mock(Resources.class);
     TargetAction request =
-        new TargetAction(picasso, target, null, false, RESOURCE_ID_1, null, URI_KEY_1);
+        new TargetAction(picasso, target, null, false, RESOURCE_ID_1, null, URI_KEY_1, null, 0);
 
     when(context.getResources()).thenReturn(res);
     when(res.getDrawable(RESOURCE_ID_1)).thenReturn(errorDrawable);
@@ -100,7 +118,7 @@ public class TargetActionTest {
     };
     Picasso picasso = mock(Picasso.class);
 
-    TargetAction tr = new TargetAction(picasso, bad, null, false, 0, null, URI_KEY_1);
+    TargetAction tr = new TargetAction(picasso, bad, null, false, 0, null, URI_KEY_1, null, 0);
     try {
       tr.complete(BITMAP_1, MEMORY);
       fail();
@@ -0,0 +1,160 @@
+/*
+ * Copyright (C) 2014 Square, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.squareup.picasso;
+
+import android.graphics.Bitmap;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.annotation.Config;
+
+import static android.graphics.Bitmap.Config.ALPHA_8;
+import static junit.framework.Assert.fail;
+import static org.fest.assertions.api.Assertions.assertThat;
+
+@RunWith(RobolectricTestRunner.class)
+@Config(manifest = Config.NONE)
+public class TinyLfuCacheTest {
+  @Test public void constructorDoesNotAllowZeroCacheSize() {
+    try {
+      new TinyLfuCache(0);
+      fail();
+    } catch (IllegalArgumentException expected) {
+    }
+  }
+
+  @Test public void cannotPutNullKey() {
+    TinyLfuCache cache = new TinyLfuCache(10);
+    try {
+      cache.set(null, bitmap());
+      fail();
+    } catch (NullPointerException expected) {
+    }
+  }
+
+  @Test public void newEntriesAreAdmittedWhileThereIsRoom() {
+    TinyLfuCache cache = new TinyLfuCache(10);
+    for (int i = 0; i < 10; i++) {
+      cache.set("key" + i, bitmap());
+    }
+    assertThat(cache.size()).isEqualTo(10);
+    assertThat(cache.window).hasSize(1);
+    assertThat(cache.main).hasSize(9);
+    assertThat(cache.rejectCount()).isEqualTo(0);
+  }
+
+  @Test public void scanDoesNotFlushFrequentlyUsedEntries() {
+    // Window of 1 byte, main area of 9 bytes.
+    TinyLfuCache cache = new TinyLfuCache(10);
+    for (int i = 0; i < 10; i++) {
+      cache.set("hot" + i, bitmap());
+    }
+    for (int round = 0; round < 3; round++) {
+      for (int i = 0; i < 9; i++) {
+        assertThat(cache.get("hot" + i)).isNotNull();
+      }
+    }
+
+    for (int i = 0; i < 20; i++) {
+      cache.set("scan" + i, bitmap());
+    }
+
+    for (int i = 0; i < 9; i++) {
+      assertThat(cache.get("hot" + i)).isNotNull();
+    }
+    assertThat(cache.get("hot9")).isNull();
+    assertThat(cache.get("scan19")).isNotNull();
+    assertThat(cache.rejectCount()).isEqualTo(20);
+    assertThat(cache.evictionCount()).isEqualTo(0);
+    assertThat(cache.size()).isEqualTo(10);
+  }
+
+  @Test public void rejectedCandidateDoesNotEvictColdEntries() {
+    // Window of 1 byte, main area of 9 bytes.
+    TinyLfuCache cache = new TinyLfuCache(10);
+    cache.set("cold", bitmap());
+    for (int i = 0; i < 8; i++) {
+      cache.set("hot" + i, bitmap());
+    }
+    cache.set("last", bitmap());
+    for (int round = 0; round < 3; round++) {
+      for (int i = 0; i < 8; i++) {
+        assertThat(cache.get("hot" + i)).isNotNull();
+      }
+    }
+
+    // Admitting two bytes would take the cold entry and a hot one.
+    assertThat(cache.get("big")).isNull();
+    assertThat(cache.get("big")).isNull();
+    cache.set("big", Bitmap.createBitmap(2, 1, ALPHA_8));
+
+    assertThat(cache.main).containsKey("cold").hasSize(9);
+    assertThat(cache.evictionCount()).isEqualTo(0);
+    assertThat(cache.rejectCount()).isEqualTo(2);
+  }
+
+  @Test public void replacingValueDoesNotDoubleCountSize() {
+    TinyLfuCache cache = new TinyLfuCache(10);
+    cache.set("a", bitmap());
+    Bitmap replacement = bitmap();
+    cache.set("a", replacement);
+    assertThat(cache.size()).isEqualTo(1);
+    assertThat(cache.get("a")).isSameAs(replacement);
+  }
+
+  @Test public void evictAll() {
+    TinyLfuCache cache = new TinyLfuCache(10);
+    for (int i = 0; i < 5; i++) {
+      cache.set("key" + i, bitmap());
+    }
+    cache.evictAll();
+    assertThat(cache.size()).isEqualTo(0);
+    assertThat(cache.window).isEmpty();
+    assertThat(cache.main).isEmpty();
+    assertThat(cache.keyIndex.sources).isEmpty();
+  }
+
+  @Test public void clearKeyUriRemovesFromWindowAndMain() {
+    TinyLfuCache cache = new TinyLfuCache(10);
+    cache.set("http://a\n", bitmap());
+    cache.set("http://a\nresize:1x1\n", bitmap());
+    Bitmap other = bitmap();
+    cache.set("http://b\n", other);
+    assertThat(cache.main).containsKey("http://a\n");
+    assertThat(cache.window).containsKey("http://b\n");
+    cache.clearKeyUri("http://a");
+    assertThat(cache.size()).isEqualTo(1);
+    assertThat(cache.get("http://b\n")).isSameAs(other);
+    cache.clearKeyUriPrefix("http://");
+    assertThat(cache.size()).isEqualTo(0);
+    assertThat(cache.keyIndex.sources).isEmpty();
+  }
+
+  @Test public void sketchCountsAndAges() {
+    FrequencySketch sketch = new FrequencySketch(16);
+    for (int i = 0; i < 6; i++) {
+      sketch.increment(42);
+    }
+    assertThat(sketch.frequency(42)).isEqualTo(6);
+    sketch.reset();
+    assertThat(sketch.frequency(42)).isEqualTo(3);
+  }
+
+  // The use of ALPHA_8 simplifies the size math in tests since only one byte is used per-pixel.
+  private static Bitmap bitmap() {
+    return Bitmap.createBitmap(1, 1, ALPHA_8);
+  }
+}
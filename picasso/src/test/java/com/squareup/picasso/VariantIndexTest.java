@@ -0,0 +1,89 @@
+/*
+ * Copyright (C) 2014 Square, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.squareup.picasso;
+
+import android.graphics.Bitmap;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.annotation.Config;
+
+import static android.graphics.Bitmap.Config.ALPHA_8;
+import static com.squareup.picasso.TestUtils.URI_1;
+import static com.squareup.picasso.TestUtils.URI_2;
+import static org.fest.assertions.api.Assertions.assertThat;
+
+@RunWith(RobolectricTestRunner.class)
+@Config(manifest = Config.NONE)
+public class VariantIndexTest {
+  private final VariantIndex index = new VariantIndex();
+
+  @Test public void largerVariantsAreCandidatesSmallestFirst() {
+    index.put("full", new Request.Builder(URI_1).build(), bitmap(1000, 1000));
+    index.put("medium", new Request.Builder(URI_1).resize(400, 400).build(), bitmap(400, 400));
+    index.put("small", new Request.Builder(URI_1).resize(50, 50).build(), bitmap(50, 50));
+
+    Request request = new Request.Builder(URI_1).resize(200, 200).build();
+    assertThat(index.candidates(request)).containsExactly("medium", "full");
+  }
+
+  @Test public void croppedRequestsOnlyUseOriginalVariants() {
+    index.put("full", new Request.Builder(URI_1).build(), bitmap(1000, 800));
+    index.put("medium", new Request.Builder(URI_1).resize(400, 400).build(), bitmap(400, 400));
+
+    Request request = new Request.Builder(URI_1).resize(200, 200).centerCrop().build();
+    assertThat(index.candidates(request)).containsExactly("full");
+  }
+
+  @Test public void transformedVariantsAreNotRecorded() {
+    index.put("rotated", new Request.Builder(URI_1).rotate(90).build(), bitmap(1000, 1000));
+    index.put("cropped", new Request.Builder(URI_1).resize(500, 500).centerCrop().build(),
+        bitmap(500, 500));
+    index.put("custom", new Request.Builder(URI_1).transform(new TestTransformation("t")).build(),
+        bitmap(1000, 1000));
+
+    assertThat(index.sources).isEmpty();
+  }
+
+  @Test public void requestsWithoutSizeOrWithTransformationsHaveNoCandidates() {
+    index.put("full", new Request.Builder(URI_1).build(), bitmap(1000, 1000));
+
+    assertThat(index.candidates(new Request.Builder(URI_1).build())).isEmpty();
+    assertThat(index.candidates(new Request.Builder(URI_1).resize(10, 10).rotate(90).build()))
+        .isEmpty();
+    assertThat(index.candidates(new Request.Builder(URI_2).resize(10, 10).build())).isEmpty();
+  }
+
+  @Test public void removeForgetsVariantAndEmptySource() {
+    index.put("full", new Request.Builder(URI_1).build(), bitmap(1000, 1000));
+    index.remove(URI_1.toString(), "full");
+    assertThat(index.sources).isEmpty();
+  }
+
+  @Test public void variantsPerSourceAreBounded() {
+    for (int i = 0; i <= VariantIndex.MAX_VARIANTS; i++) {
+      int size = 100 + i;
+      index.put("v" + i, new Request.Builder(URI_1).resize(size, size).build(),
+          bitmap(size, size));
+    }
+    Request request = new Request.Builder(URI_1).resize(10, 10).build();
+    assertThat(index.candidates(request)).hasSize(VariantIndex.MAX_VARIANTS).excludes("v0");
+  }
+
+  private static Bitmap bitmap(int width, int height) {
+    return Bitmap.createBitmap(width, height, ALPHA_8);
+  }
+}